@@ -0,0 +1,135 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.joshworks.stream.client.sse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of a read buffer holding a few events, from the bytes to the callback.
+ * Each event has {@code lines} data lines adding up to {@code payloadSize} characters.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EventStreamParserBenchmark {
+
+    private static final int EVENTS = 8;
+
+    @Param({"16", "1024", "16384"})
+    public int payloadSize;
+
+    @Param({"1", "8"})
+    public int lines;
+
+    @Param({"true", "false"})
+    public boolean ascii;
+
+    private byte[] stream;
+    private String text;
+    private String[] streamLines;
+    private String data;
+
+    private UTF8Output utf8Output;
+    private EventStreamParser parser;
+    private ByteEventStreamParser byteParser;
+    private long received;
+    private Object last; //keeps the events reachable, so that they are not optimized away
+
+    @Setup
+    public void setup() {
+        SSEConnection connection = new SSEConnection(new SseConfiguration("http://localhost:9000/benchmark", null, null, null), new SseClientCallback() {
+            @Override
+            public void onEvent(EventData event) {
+                last = event;
+                received++;
+            }
+
+            @Override
+            public void onRawEvent(RawEventData event) {
+                last = event;
+                received++;
+            }
+        });
+        parser = new EventStreamParser(connection);
+        utf8Output = new UTF8Output(new EventStreamParser(connection));
+        byteParser = new ByteEventStreamParser(connection);
+
+        data = Payloads.text(payloadSize, ascii);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < EVENTS; i++) {
+            sb.append("id: ").append(i).append('\n');
+            sb.append("event: update\n");
+            for (String line : Payloads.split(data, lines)) {
+                sb.append("data: ").append(line).append('\n');
+            }
+            sb.append('\n');
+        }
+        text = sb.toString();
+        streamLines = text.split("\n", -1);
+        stream = text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public long utf8Output() {
+        utf8Output.write(ByteBuffer.wrap(stream));
+        return received;
+    }
+
+    @Benchmark
+    public long byteParser() {
+        byteParser.write(ByteBuffer.wrap(stream));
+        return received;
+    }
+
+    @Benchmark
+    public long parserLines() {
+        parser.lines(text);
+        return received;
+    }
+
+    @Benchmark
+    public long parserParse() {
+        for (String line : streamLines) {
+            parser.parse(line);
+        }
+        return received;
+    }
+
+    @Benchmark
+    public EventData eventData() {
+        return new EventData(data, "1", "update", "");
+    }
+}
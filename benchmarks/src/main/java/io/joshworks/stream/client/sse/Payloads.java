@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.joshworks.stream.client.sse;
+
+/**
+ * Payloads of the benchmarks, ASCII or mixed with 2, 3 and 4 byte UTF-8 characters
+ */
+public final class Payloads {
+
+    private static final String ASCII = "The quick brown fox jumps over the lazy dog 0123456789 ";
+    private static final String MIXED = "Voc\u00ea \u00e9 r\u00e1pido \u2192 \u65e5\u672c\u8a9e \ud83d\ude80 caf\u00e9 ";
+
+    private Payloads() {
+
+    }
+
+    /**
+     * @return a text of {@code size} characters, without line breaks
+     */
+    public static String text(int size, boolean ascii) {
+        String source = ascii ? ASCII : MIXED;
+        StringBuilder sb = new StringBuilder(size);
+        while (sb.length() < size) {
+            sb.append(source, 0, Math.min(source.length(), size - sb.length()));
+        }
+        if (sb.length() > 0 && Character.isHighSurrogate(sb.charAt(sb.length() - 1))) {
+            sb.setCharAt(sb.length() - 1, '!');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the text split in {@code parts} lines of about the same length
+     */
+    public static String[] split(String text, int parts) {
+        String[] lines = new String[parts];
+        int length = (text.length() + parts - 1) / parts;
+        int start = 0;
+        for (int i = 0; i < parts; i++) {
+            int end = i == parts - 1 ? text.length() : Math.min(text.length(), start + length);
+            if (end > start && end < text.length() && Character.isHighSurrogate(text.charAt(end - 1))) {
+                end++; //keeps surrogate pairs on the same line
+            }
+            lines[i] = text.substring(start, end);
+            start = end;
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.joshworks.stream.client.ws;
+
+import io.joshworks.stream.client.StreamClient;
+import io.joshworks.stream.client.sse.Payloads;
+import io.undertow.Handlers;
+import io.undertow.Undertow;
+import io.undertow.websockets.core.AbstractReceiveListener;
+import io.undertow.websockets.core.BufferedBinaryMessage;
+import io.undertow.websockets.core.BufferedTextMessage;
+import io.undertow.websockets.core.WebSocketChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sending to a local Undertow server that discards the messages. Sends are asynchronous, each invocation sends
+ * a batch and waits for the server to receive it, so the score includes the writes and at most one batch is queued.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WsSendBenchmark {
+
+    private static final int PORT = 9930;
+    private static final int BATCH = 100;
+
+    @Param({"16", "1024", "65536"})
+    public int payloadSize;
+
+    @Param({"true", "false"})
+    public boolean ascii;
+
+    private final AtomicLong serverReceived = new AtomicLong();
+    private long sent;
+
+    private Undertow server;
+    private WsConnection connection;
+    private String text;
+    private ByteBuffer binary;
+
+    @Setup
+    public void setup() {
+        server = Undertow.builder()
+                .addHttpListener(PORT, "localhost")
+                .setHandler(Handlers.websocket((exchange, channel) -> {
+                    channel.getReceiveSetter().set(new AbstractReceiveListener() {
+                        @Override
+                        protected void onFullTextMessage(WebSocketChannel channel, BufferedTextMessage message) {
+                            serverReceived.incrementAndGet();
+                        }
+
+                        @Override
+                        protected void onFullBinaryMessage(WebSocketChannel channel, BufferedBinaryMessage message) {
+                            message.getData().free();
+                            serverReceived.incrementAndGet();
+                        }
+                    });
+                    channel.resumeReceives();
+                }))
+                .build();
+        server.start();
+
+        connection = StreamClient.ws("ws://localhost:" + PORT).connectAsync().join();
+        text = Payloads.text(payloadSize, ascii);
+        binary = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @TearDown
+    public void tearDown() {
+        connection.close();
+        StreamClient.shutdown();
+        server.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void sendText() {
+        for (int i = 0; i < BATCH; i++) {
+            connection.sendText(text);
+        }
+        awaitServer();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void sendBinary() {
+        for (int i = 0; i < BATCH; i++) {
+            connection.sendBinary(binary.duplicate());
+        }
+        awaitServer();
+    }
+
+    private void awaitServer() {
+        sent += BATCH;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (serverReceived.get() < sent) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Server received " + serverReceived.get() + " of " + sent + " messages");
+            }
+            Thread.yield();
+        }
+    }
+}
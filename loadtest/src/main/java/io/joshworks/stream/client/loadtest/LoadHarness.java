@@ -0,0 +1,295 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.joshworks.stream.client.loadtest;
+
+import io.joshworks.stream.client.ConnectionMetrics;
+import io.joshworks.stream.client.Histogram;
+import io.joshworks.stream.client.ReconnectPolicy;
+import io.joshworks.stream.client.StreamClient;
+import io.joshworks.stream.client.StreamConnection;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Opens thousands of SSE and WebSocket connections through {@link StreamClient} to a {@link LoadServer} on the same machine,
+ * then reports the sustained events per second, the connect time, the time to recover from a server restart,
+ * the heap per connection and the CPU of the IO threads.
+ * <p>
+ * Raise the open files limit first, each connection uses two file descriptors, ex: {@code ulimit -n 65536}
+ */
+public class LoadHarness {
+
+    private static final String IO_THREAD_PREFIX = "client-worker I/O";
+
+    private final Settings settings;
+    private final LoadServer server;
+    private final List<StreamConnection> connections = new ArrayList<>();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    private LoadHarness(Settings settings) {
+        this.settings = settings;
+        this.server = new LoadServer(settings.port, settings.rate, settings.payloadSize);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Settings settings = Settings.parse(args);
+        if (settings == null) {
+            System.out.println(Settings.USAGE);
+            return;
+        }
+        new LoadHarness(settings).run();
+    }
+
+    private void run() throws Exception {
+        StreamClient.configure(OptionMap.builder()
+                .set(Options.WORKER_IO_THREADS, settings.ioThreads)
+                .set(Options.TCP_NODELAY, true)
+                .set(Options.KEEP_ALIVE, true)
+                .set(Options.WORKER_NAME, "client-worker")
+                .getMap());
+        server.start();
+        try {
+            System.out.println(settings);
+            long heapBefore = usedHeap();
+            connect();
+            long heapAfter = usedHeap();
+            int total = connections.size();
+            System.out.printf("heap per connection: %d bytes%n", (heapAfter - heapBefore) / Math.max(1, total));
+
+            long restartAt = settings.restartAfterSeconds > 0 ? settings.restartAfterSeconds : Long.MAX_VALUE;
+            Map<String, Long> cpuBefore = ioThreadCpu();
+            long start = System.nanoTime();
+            long eventsBefore = StreamClient.metrics().events();
+            long minRate = Long.MAX_VALUE;
+            long last = eventsBefore;
+            for (int second = 1; second <= settings.durationSeconds; second++) {
+                if (second == restartAt) {
+                    restart(total);
+                    last = StreamClient.metrics().events();
+                    continue;
+                }
+                Thread.sleep(1000);
+                long events = StreamClient.metrics().events();
+                long rate = events - last;
+                last = events;
+                minRate = Math.min(minRate, rate);
+                System.out.printf("%3ds events/s: %d, open: %d%n", second, rate, StreamClient.metrics().connections());
+            }
+            long elapsed = System.nanoTime() - start;
+            long events = StreamClient.metrics().events() - eventsBefore;
+            System.out.printf("events/s: %.0f average, %d lowest second, %d expected%n",
+                    events * 1e9 / elapsed, minRate == Long.MAX_VALUE ? 0 : minRate, (long) settings.rate * total);
+            reportCpu(cpuBefore, ioThreadCpu(), elapsed);
+            System.out.println("client: " + StreamClient.metrics());
+        } finally {
+            StreamClient.shutdown();
+            server.shutdown();
+        }
+    }
+
+    private void connect() {
+        Histogram connectTimes = new Histogram(); //microseconds
+        List<CompletableFuture<?>> opened = new ArrayList<>();
+        ReconnectPolicy policy = ReconnectPolicy.decorrelatedJitter(100).capped(2000);
+        long start = System.nanoTime();
+        for (int i = 0; i < settings.sse + settings.ws; i++) {
+            long submitted = System.nanoTime();
+            CompletableFuture<? extends StreamConnection> connection = i < settings.sse ?
+                    StreamClient.sse(server.sseUrl()).onEvent(event -> {}).reconnectPolicy(policy).maxRetries(-1).connectAsync() :
+                    StreamClient.ws(server.wsUrl()).onText((channel, message) -> {}).reconnectPolicy(policy).maxRetries(-1).connectAsync();
+            opened.add(connection.whenComplete((result, error) -> {
+                if (error == null) {
+                    connectTimes.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - submitted));
+                    synchronized (connections) {
+                        connections.add(result);
+                    }
+                }
+            }));
+        }
+        CompletableFuture<Void> all = CompletableFuture.allOf(opened.toArray(new CompletableFuture[0]));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(settings.connectTimeoutSeconds);
+        while (!all.isDone() && System.nanoTime() < deadline) {
+            try {
+                all.get(1, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                System.out.printf("connecting, open: %d, %s%n", StreamClient.metrics().connections(), StreamClient.admission());
+            } catch (Exception e) {
+                System.out.println("some connections failed: " + e.getMessage());
+            }
+        }
+        int sseOpened = 0;
+        for (int i = 0; i < settings.sse; i++) {
+            sseOpened += opened.get(i).isDone() && !opened.get(i).isCompletedExceptionally() ? 1 : 0;
+        }
+        if (connections.size() < opened.size()) {
+            System.out.printf("not opened: %d sse, %d ws%n", settings.sse - sseOpened,
+                    settings.ws - (connections.size() - sseOpened));
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.printf("connected %d in %dms, connect time (us): %s%n", connections.size(), elapsed, connectTimes);
+        System.out.println("admission: " + StreamClient.admission());
+    }
+
+    private void restart(int total) throws InterruptedException {
+        long reconnectsBefore = StreamClient.metrics().reconnects();
+        System.out.printf("restarting the server, down for %dms%n", settings.downtimeMillis);
+        long stopped = System.nanoTime();
+        server.stop();
+        Thread.sleep(settings.downtimeMillis);
+        server.start();
+        long started = System.nanoTime();
+        long deadline = started + TimeUnit.SECONDS.toNanos(60);
+        while (open() < total && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        long recovered = System.nanoTime();
+        System.out.printf("recovered %d of %d connections %dms after the restart (%dms after the outage), %d reconnections%n",
+                StreamClient.metrics().connections(), total,
+                TimeUnit.NANOSECONDS.toMillis(recovered - started), TimeUnit.NANOSECONDS.toMillis(recovered - stopped),
+                StreamClient.metrics().reconnects() - reconnectsBefore);
+    }
+
+    //polled often, without summing the histograms of every connection like StreamClient.metrics()
+    private int open() {
+        int open = 0;
+        synchronized (connections) {
+            for (StreamConnection connection : connections) {
+                open += connection.metrics().connections();
+            }
+        }
+        return open;
+    }
+
+    private Map<String, Long> ioThreadCpu() {
+        Map<String, Long> cpu = new HashMap<>();
+        for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+            if (info != null && info.getThreadName().startsWith(IO_THREAD_PREFIX)) {
+                cpu.put(info.getThreadName(), threads.getThreadCpuTime(info.getThreadId()));
+            }
+        }
+        return cpu;
+    }
+
+    private void reportCpu(Map<String, Long> before, Map<String, Long> after, long elapsedNanos) {
+        if (!threads.isThreadCpuTimeSupported()) {
+            System.out.println("thread CPU time not supported");
+            return;
+        }
+        long total = 0;
+        for (Map.Entry<String, Long> entry : after.entrySet()) {
+            long used = entry.getValue() - before.getOrDefault(entry.getKey(), 0L);
+            total += used;
+            System.out.printf("%s: %.1f%% CPU%n", entry.getKey(), used * 100.0 / elapsedNanos);
+        }
+        System.out.printf("IO threads: %.2f cores%n", (double) total / elapsedNanos);
+    }
+
+    private long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    static class Settings {
+
+        static final String USAGE = "usage: java -jar loadtest.jar [--sse 1000] [--ws 1000] [--rate 10] [--payload 256] " +
+                "[--duration 30] [--restart-after 10] [--downtime 2000] [--io-threads 5] [--connect-timeout 60] [--port 9950]\n" +
+                "  rate: events per second sent to each connection, payload: characters per event\n" +
+                "  duration, restart-after and connect-timeout in seconds, 0 to not restart, downtime in milliseconds";
+
+        int sse = 1000;
+        int ws = 1000;
+        int rate = 10;
+        int payloadSize = 256;
+        int durationSeconds = 30;
+        int restartAfterSeconds = 10;
+        long downtimeMillis = 2000;
+        int ioThreads = 5;
+        int port = 9950;
+        int connectTimeoutSeconds = 60;
+
+        //null if the usage should be printed
+        static Settings parse(String[] args) {
+            Settings settings = new Settings();
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (i + 1 >= args.length) {
+                    return null;
+                }
+                int value = Integer.parseInt(args[++i]);
+                switch (arg) {
+                    case "--sse":
+                        settings.sse = value;
+                        break;
+                    case "--ws":
+                        settings.ws = value;
+                        break;
+                    case "--rate":
+                        settings.rate = value;
+                        break;
+                    case "--payload":
+                        settings.payloadSize = value;
+                        break;
+                    case "--duration":
+                        settings.durationSeconds = value;
+                        break;
+                    case "--restart-after":
+                        settings.restartAfterSeconds = value;
+                        break;
+                    case "--downtime":
+                        settings.downtimeMillis = value;
+                        break;
+                    case "--io-threads":
+                        settings.ioThreads = value;
+                        break;
+                    case "--connect-timeout":
+                        settings.connectTimeoutSeconds = value;
+                        break;
+                    case "--port":
+                        settings.port = value;
+                        break;
+                    default:
+                        return null;
+                }
+            }
+            return settings;
+        }
+
+        @Override
+        public String toString() {
+            return "sse=" + sse + ", ws=" + ws + ", rate=" + rate + "/s, payload=" + payloadSize +
+                    ", duration=" + durationSeconds + "s, restartAfter=" + restartAfterSeconds +
+                    "s, downtime=" + downtimeMillis + "ms, ioThreads=" + ioThreads;
+        }
+    }
+}
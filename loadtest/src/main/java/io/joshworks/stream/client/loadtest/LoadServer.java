@@ -0,0 +1,139 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.joshworks.stream.client.loadtest;
+
+import io.undertow.Handlers;
+import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
+import io.undertow.server.handlers.sse.ServerSentEventConnection;
+import io.undertow.server.handlers.sse.ServerSentEventHandler;
+import io.undertow.websockets.WebSocketProtocolHandshakeHandler;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSockets;
+import org.xnio.Options;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in server broadcasting the same event to every SSE connection of {@code /sse} and every WebSocket of {@code /ws},
+ * {@code rate} times per second. Can be stopped and started again to script an outage.
+ */
+public class LoadServer {
+
+    private static final long TICK_MILLIS = 10;
+
+    private final int port;
+    private final int rate;
+    private final String payload;
+    private final ScheduledExecutorService broadcaster = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "load-server-broadcast"));
+    private final AtomicLong sequence = new AtomicLong();
+
+    private Undertow server;
+    private ServerSentEventHandler sse;
+    private WebSocketProtocolHandshakeHandler ws;
+    private ScheduledFuture<?> broadcast;
+    private double pending; //events owed to the clients when the rate is not a multiple of the tick
+
+    /**
+     * @param rate        events per second sent to each connection
+     * @param payloadSize the number of characters of each event
+     */
+    public LoadServer(int port, int rate, int payloadSize) {
+        this.port = port;
+        this.rate = rate;
+        StringBuilder sb = new StringBuilder(payloadSize);
+        for (int i = 0; i < payloadSize; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        this.payload = sb.toString();
+    }
+
+    public synchronized void start() {
+        sse = Handlers.serverSentEvents();
+        ws = Handlers.websocket((exchange, channel) -> channel.resumeReceives());
+        server = Undertow.builder()
+                .addHttpListener(port, "localhost")
+                .setIoThreads(Math.max(2, Runtime.getRuntime().availableProcessors() / 2))
+                .setSocketOption(Options.BACKLOG, 10000)
+                .setServerOption(UndertowOptions.NO_REQUEST_TIMEOUT, -1)
+                .setHandler(Handlers.path().addPrefixPath("/sse", sse).addPrefixPath("/ws", ws))
+                .build();
+        server.start();
+        broadcast = broadcaster.scheduleAtFixedRate(this::broadcast, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops listening and drops every connection
+     */
+    public synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+        broadcast.cancel(false);
+        for (ServerSentEventConnection connection : sse.getConnections()) {
+            connection.shutdown();
+        }
+        for (WebSocketChannel channel : ws.getPeerConnections()) {
+            WebSockets.sendClose(1001, "Going away", channel, null);
+        }
+        server.stop();
+        server = null;
+    }
+
+    public void shutdown() {
+        stop();
+        broadcaster.shutdownNow();
+    }
+
+    public String sseUrl() {
+        return "http://localhost:" + port + "/sse";
+    }
+
+    public String wsUrl() {
+        return "ws://localhost:" + port + "/ws";
+    }
+
+    /**
+     * @return The number of events sent to each connection so far
+     */
+    public long sent() {
+        return sequence.get();
+    }
+
+    private synchronized void broadcast() {
+        if (server == null) {
+            return;
+        }
+        pending += rate * TICK_MILLIS / 1000.0;
+        while (pending >= 1) {
+            pending--;
+            String id = String.valueOf(sequence.incrementAndGet());
+            for (ServerSentEventConnection connection : sse.getConnections()) {
+                connection.send(payload, "load", id, null);
+            }
+            for (WebSocketChannel channel : ws.getPeerConnections()) {
+                WebSockets.sendText(payload, channel, null);
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package io.joshworks.stream.client;
+
+/**
+ * Limits the connection attempts of all connections, see {@link StreamClient#configure(AdmissionConfiguration)}
+ */
+public class AdmissionConfiguration {
+
+    int maxConcurrent = 64;
+    double permitsPerSecond = 0;
+    int burst = 1;
+
+    /**
+     * @param maxConcurrent the maximum number of connection attempts in progress at the same time, default 64
+     */
+    public AdmissionConfiguration maxConcurrent(int maxConcurrent) {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("Max concurrent attempts must be greater than zero");
+        }
+        this.maxConcurrent = maxConcurrent;
+        return this;
+    }
+
+    /**
+     * Token bucket, no rate limit by default
+     *
+     * @param permitsPerSecond the number of attempts started per second
+     * @param burst            the number of attempts that can start at once after being idle
+     */
+    public AdmissionConfiguration rate(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("Rate and burst must be greater than zero");
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        return this;
+    }
+}
@@ -0,0 +1,47 @@
+package io.joshworks.stream.client;
+
+/**
+ * Settings of the buffer pool shared by all connections, see {@link StreamClient#configure(BufferPoolConfiguration)}
+ */
+public class BufferPoolConfiguration {
+
+    boolean direct = false;
+    int bufferSize = 8192;
+    int maxPoolSize = 1024;
+    int threadLocalCacheSize = 16;
+
+    /**
+     * @param direct true to use direct buffers, false (default) for heap buffers
+     */
+    public BufferPoolConfiguration direct(boolean direct) {
+        this.direct = direct;
+        return this;
+    }
+
+    /**
+     * @param bufferSize the size of each buffer in bytes, default 8192
+     */
+    public BufferPoolConfiguration bufferSize(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be greater than zero");
+        }
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    /**
+     * @param maxPoolSize the maximum number of buffers kept in the global queue, default 1024
+     */
+    public BufferPoolConfiguration maxPoolSize(int maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+        return this;
+    }
+
+    /**
+     * @param threadLocalCacheSize the maximum number of buffers cached by each thread, zero disables it, default 16
+     */
+    public BufferPoolConfiguration threadLocalCacheSize(int threadLocalCacheSize) {
+        this.threadLocalCacheSize = threadLocalCacheSize;
+        return this;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.joshworks.stream.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A callback that ran on an IO thread longer than the threshold, see {@link StallConfiguration}
+ */
+public class CallbackStall {
+
+    private static final StackTraceElement[] NO_STACK_TRACE = new StackTraceElement[0];
+
+    private final String connectionId;
+    private final String url;
+    private final String thread;
+    private final long elapsedNanos;
+    private final StackTraceElement[] stackTrace;
+
+    CallbackStall(String connectionId, String url, String thread, long elapsedNanos, StackTraceElement[] stackTrace) {
+        this.connectionId = connectionId;
+        this.url = url;
+        this.thread = thread;
+        this.elapsedNanos = elapsedNanos;
+        this.stackTrace = stackTrace == null ? NO_STACK_TRACE : stackTrace;
+    }
+
+    public String connectionId() {
+        return connectionId;
+    }
+
+    public String url() {
+        return url;
+    }
+
+    /**
+     * @return The name of the blocked thread
+     */
+    public String thread() {
+        return thread;
+    }
+
+    /**
+     * @return How long the callback had been running when it was reported, it may still be running
+     */
+    public long elapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    /**
+     * @return The stack of the blocked thread when it was sampled, empty if the callback returned before
+     */
+    public StackTraceElement[] stackTrace() {
+        return stackTrace;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Callback of connection ").append(connectionId)
+                .append(" (").append(url).append(") blocked ").append(thread)
+                .append(" for ").append(elapsedMillis()).append("ms");
+        for (StackTraceElement element : stackTrace) {
+            sb.append(System.lineSeparator()).append("\tat ").append(element);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client;
+
+import java.net.URI;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared by all connections to the same endpoint (scheme, host and port). After {@code failureThreshold}
+ * consecutive failed attempts the circuit opens and no connection is attempted for {@code openMillis}.
+ * Then a single probe is allowed (half open), the circuit closes if it connects or opens again otherwise.
+ * A probe that does not complete within {@code openMillis} lets another connection probe.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    static final CircuitBreaker DISABLED = new CircuitBreaker(0, 0);
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+    private long probeStartedAt;
+
+    CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * @return The breaker of the endpoint of the url, the settings of the first connection to the endpoint are used
+     */
+    static CircuitBreaker forEndpoint(String url, int failureThreshold, long openMillis) {
+        if (failureThreshold <= 0) {
+            return DISABLED;
+        }
+        return breakers.computeIfAbsent(endpoint(url), endpoint -> new CircuitBreaker(failureThreshold, openMillis));
+    }
+
+    static String endpoint(String url) {
+        URI uri = URI.create(url);
+        String scheme = String.valueOf(uri.getScheme()).toLowerCase(Locale.ROOT);
+        String host = String.valueOf(uri.getHost()).toLowerCase(Locale.ROOT);
+        return scheme + "://" + host + ":" + port(scheme, uri.getPort());
+    }
+
+    //an url without a port uses the default one of its scheme, the same endpoint as with the explicit port
+    private static int port(String scheme, int port) {
+        if (port != -1) {
+            return port;
+        }
+        return "https".equals(scheme) || "wss".equals(scheme) ? 443 : 80;
+    }
+
+    /**
+     * Forgets the state of all endpoints, called when the client shuts down
+     */
+    static void clear() {
+        breakers.clear();
+    }
+
+    /**
+     * @return 0 if a connection can be attempted now, otherwise how long to wait in milliseconds
+     */
+    synchronized long tryAcquire() {
+        return tryAcquire(System.currentTimeMillis());
+    }
+
+    synchronized long tryAcquire(long now) {
+        if (this == DISABLED || state == State.CLOSED) {
+            return 0;
+        }
+        if (state == State.OPEN) {
+            long remaining = openedAt + openMillis - now;
+            if (remaining > 0) {
+                return remaining;
+            }
+            state = State.HALF_OPEN;
+            probeStartedAt = now;
+            return 0;
+        }
+        long remaining = probeStartedAt + openMillis - now;
+        if (remaining > 0) {
+            return remaining;
+        }
+        probeStartedAt = now;
+        return 0;
+    }
+
+    synchronized void success() {
+        if (this == DISABLED) {
+            return;
+        }
+        failures = 0;
+        state = State.CLOSED;
+    }
+
+    synchronized void failure() {
+        failure(System.currentTimeMillis());
+    }
+
+    synchronized void failure(long now) {
+        if (this == DISABLED) {
+            return;
+        }
+        if (state == State.HALF_OPEN || ++failures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = now;
+        }
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+}
@@ -1,8 +1,13 @@
 package io.joshworks.stream.client;
 
+import io.undertow.connector.ByteBufferPool;
+import io.undertow.server.DefaultByteBufferPool;
 import org.xnio.XnioWorker;
+import org.xnio.ssl.XnioSsl;
 
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Consumer;
 
 /**
  * Created by Josh Gontijo on 6/9/17.
@@ -13,18 +18,39 @@ public class ClientConfiguration {
     protected final XnioWorker worker;
     protected final ScheduledExecutorService scheduler;
     protected final ConnectionMonitor monitor;
+    protected final ByteBufferPool bufferPool;
+    protected XnioSsl ssl; //set by StreamClient, required for https and wss
+    protected ConnectAdmission admission; //set by StreamClient, null to attempt without limits
+    protected TimingWheel timer; //set by StreamClient, null to use the scheduler for timers
+    protected StallDetector stallDetector; //set by StreamClient, null when callbacks are not timed
+    protected int priority = 0;
+    protected long connectTimeoutMillis = 10000; //zero when attempts are not timed
 
     protected long retryInterval = 2000;
     protected int maxRetries = 0;
+    protected ReconnectPolicy reconnectPolicy; //null for a fixed retryInterval, honoring the server hint
+    protected int circuitBreakerThreshold = 0; //disabled
+    protected long circuitBreakerOpenMillis = 30000;
 
-    protected Runnable onFailedAttempt = () -> {};
+    protected Executor dispatchExecutor;
+    protected int dispatchQueueSize = 1024;
+    protected OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    protected int dispatchLanes = 1;
+
+    protected Consumer<FailedAttempt> onFailedAttempt = attempt -> {};
     protected Runnable onRetriesExceeded = () -> {};
+    protected Runnable onTerminated = () -> {}; //the connection was closed and will not reconnect
 
     public ClientConfiguration(String url, XnioWorker worker, ScheduledExecutorService scheduler, ConnectionMonitor monitor) {
+        this(url, worker, scheduler, monitor, new DefaultByteBufferPool(false, 8192));
+    }
+
+    public ClientConfiguration(String url, XnioWorker worker, ScheduledExecutorService scheduler, ConnectionMonitor monitor, ByteBufferPool bufferPool) {
         this.url = url;
         this.worker = worker;
         this.scheduler = scheduler;
         this.monitor = monitor;
+        this.bufferPool = bufferPool;
     }
 
 }
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client;
+
+import io.undertow.protocols.ssl.UndertowXnioSsl;
+import org.xnio.ChannelListener;
+import org.xnio.ChannelListeners;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Xnio;
+import org.xnio.XnioIoThread;
+import org.xnio.XnioWorker;
+import org.xnio.channels.BoundChannel;
+import org.xnio.conduits.ConduitStreamSinkChannel;
+import org.xnio.conduits.ConduitStreamSourceChannel;
+import org.xnio.ssl.SslConnection;
+
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The TLS provider of all connections. Engines are created with the peer host and port, so the client session cache
+ * of the {@link javax.net.ssl.SSLContext} resumes the session of a previous connection to the same host:port.
+ * <p>
+ * A resumed session keeps the creation time of the original one, so a session created before the connection
+ * was opened counts as a resumed handshake.
+ */
+class ClientSsl extends UndertowXnioSsl {
+
+    private static final ByteBuffer HANDSHAKE_ONLY = ByteBuffer.allocate(0);
+
+    private final TlsStatistics statistics;
+    private final OptionMap engineOptions;
+    private final boolean handshakeFirst;
+
+    /**
+     * @param engineOptions  added to the options of each connection, ex: the enabled protocols
+     * @param handshakeFirst whether the handshake completes before the connection is handed to the open listener.
+     *                       The Undertow 1.4 WebSocket upgrade does not resume reads during the handshake, so the conduit
+     *                       can miss the wake up once the handshake tasks completed on the worker, leaving it stalled.
+     *                       Not for connections negotiating with ALPN, the protocol is selected by the open listener.
+     */
+    ClientSsl(Xnio xnio, TlsConfiguration configuration, OptionMap engineOptions, boolean handshakeFirst, TlsStatistics statistics) {
+        super(xnio, OptionMap.EMPTY, configuration.sslContext);
+        this.engineOptions = engineOptions;
+        this.handshakeFirst = handshakeFirst;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public IoFuture<SslConnection> openSslConnection(XnioWorker worker, InetSocketAddress bindAddress, InetSocketAddress destination,
+                                                     ChannelListener<? super SslConnection> openListener,
+                                                     ChannelListener<? super BoundChannel> bindListener, OptionMap optionMap) {
+        return super.openSslConnection(worker, bindAddress, destination, tracking(openListener), bindListener, withEngineOptions(optionMap));
+    }
+
+    @Override
+    public IoFuture<SslConnection> openSslConnection(XnioIoThread ioThread, InetSocketAddress bindAddress, InetSocketAddress destination,
+                                                     ChannelListener<? super SslConnection> openListener,
+                                                     ChannelListener<? super BoundChannel> bindListener, OptionMap optionMap) {
+        return super.openSslConnection(ioThread, bindAddress, destination, tracking(openListener), bindListener, withEngineOptions(optionMap));
+    }
+
+    private OptionMap withEngineOptions(OptionMap optionMap) {
+        return engineOptions.size() == 0 ? optionMap : OptionMap.builder().addAll(optionMap).addAll(engineOptions).getMap();
+    }
+
+    private ChannelListener<SslConnection> tracking(ChannelListener<? super SslConnection> openListener) {
+        return connection -> {
+            long opened = System.currentTimeMillis();
+            if (handshakeFirst) {
+                handshake(connection, opened, openListener);
+                return;
+            }
+            ChannelListeners.invokeChannelListener(connection, openListener);
+            //the open listener may have set its own handshake listener (ALPN), it is called after counting
+            ChannelListener<? super SslConnection> handshakeListener = handshakeListener(connection);
+            connection.getHandshakeSetter().set(handshaked -> {
+                SSLSession session = getSslEngine(handshaked).getSession();
+                statistics.handshake(session.getCreationTime() < opened);
+                if (handshakeListener != null) {
+                    ChannelListeners.invokeChannelListener(handshaked, handshakeListener);
+                }
+            });
+        };
+    }
+
+    //reads stay resumed until the handshake is done, so the conduit resumes it when the tasks completed on the worker
+    private void handshake(SslConnection connection, long opened, ChannelListener<? super SslConnection> openListener) {
+        ConduitStreamSourceChannel source = connection.getSourceChannel();
+        ConduitStreamSinkChannel sink = connection.getSinkChannel();
+        AtomicBoolean handedOver = new AtomicBoolean();
+        Runnable handOver = () -> {
+            if (handedOver.compareAndSet(false, true)) {
+                source.suspendReads();
+                source.getReadSetter().set(null);
+                sink.suspendWrites();
+                sink.getWriteSetter().set(null);
+                //a failed handshake closed the connection, the open listener fails on its first write
+                ChannelListeners.invokeChannelListener(connection, openListener);
+            }
+        };
+        Runnable failed = () -> {
+            IoUtils.safeClose(connection);
+            handOver.run();
+        };
+        connection.getHandshakeSetter().set(handshaked -> {
+            statistics.handshake(getSslEngine(handshaked).getSession().getCreationTime() < opened);
+            connection.getIoThread().execute(handOver);
+        });
+        source.getReadSetter().set(channel -> {
+            try {
+                //nothing but the handshake is received before the request is sent
+                if (channel.read(HANDSHAKE_ONLY) == -1) {
+                    failed.run();
+                }
+            } catch (IOException e) {
+                failed.run();
+            }
+        });
+        sink.getWriteSetter().set(channel -> {
+            try {
+                if (channel.flush()) {
+                    channel.suspendWrites();
+                }
+            } catch (IOException e) {
+                failed.run();
+            }
+        });
+        try {
+            connection.startHandshake();
+        } catch (IOException e) {
+            failed.run();
+            return;
+        }
+        source.resumeReads();
+        sink.resumeWrites();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ChannelListener<? super SslConnection> handshakeListener(SslConnection connection) {
+        ChannelListener.Setter<? extends SslConnection> setter = connection.getHandshakeSetter();
+        return setter instanceof ChannelListener.SimpleSetter ? ((ChannelListener.SimpleSetter<SslConnection>) setter).get() : null;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * All the connection attempts of the client, first connections and reconnections, go through this gate.
+ * At most {@code maxConcurrent} attempts are in progress at the same time and, when a rate is set, attempts start
+ * at most at that rate (token bucket). Waiting attempts are started by priority, then in order of arrival,
+ * so after a network failure critical connections are restored first and the upstream is not hit by all the
+ * connections at once.
+ */
+public class ConnectAdmission {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConnectAdmission.class);
+
+    private final ScheduledExecutorService scheduler;
+    private final int maxConcurrent;
+    private final double permitsPerNano;
+    private final int burst;
+
+    private final PriorityQueue<Pending> queue = new PriorityQueue<>();
+    private long sequence;
+    private int inFlight;
+    private double tokens;
+    private long lastRefill;
+    private boolean refillScheduled;
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private volatile long maxWaitNanos;
+
+    ConnectAdmission(AdmissionConfiguration configuration, ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+        this.maxConcurrent = configuration.maxConcurrent;
+        this.permitsPerNano = configuration.permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = configuration.burst;
+        this.tokens = configuration.burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Starts the attempt once admitted, in the calling thread when admitted straight away, in the scheduler otherwise.
+     * The attempt is counted as in progress until its returned stage completes, it should complete exceptionally
+     * when the attempt times out.
+     *
+     * @param priority higher priorities are admitted first
+     */
+    void submit(int priority, Supplier<? extends CompletionStage<?>> attempt) {
+        Pending admittedNow;
+        synchronized (this) {
+            queue.add(new Pending(priority, sequence++, attempt));
+            admittedNow = poll();
+        }
+        if (admittedNow != null) {
+            run(admittedNow);
+        }
+    }
+
+    private void run(Pending pending) {
+        CompletionStage<?> started;
+        try {
+            started = pending.attempt.get();
+        } catch (Exception e) {
+            logger.error("Error starting connection attempt", e);
+            release();
+            return;
+        }
+        started.whenComplete((result, error) -> release());
+    }
+
+    private void release() {
+        synchronized (this) {
+            inFlight--;
+        }
+        drain();
+    }
+
+    //starts the admitted attempts on the scheduler
+    private void drain() {
+        Pending pending;
+        while ((pending = pollSynchronized()) != null) {
+            Pending next = pending;
+            try {
+                scheduler.execute(() -> run(next));
+            } catch (Exception e) {
+                //the attempt was admitted, it is started here rather than dropped with its connection
+                logger.warn("Scheduler service shutdown, starting connection attempt in the calling thread");
+                run(next);
+            }
+        }
+    }
+
+    private synchronized Pending pollSynchronized() {
+        return poll();
+    }
+
+    private Pending poll() {
+        if (queue.isEmpty() || inFlight >= maxConcurrent || !tryAcquireToken()) {
+            return null;
+        }
+        Pending pending = queue.poll();
+        inFlight++;
+        long waited = System.nanoTime() - pending.queuedAt;
+        admitted.increment();
+        totalWaitNanos.add(waited);
+        if (waited > maxWaitNanos) {
+            maxWaitNanos = waited;
+        }
+        return pending;
+    }
+
+    private boolean tryAcquireToken() {
+        if (permitsPerNano <= 0) {
+            return true;
+        }
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefill) * permitsPerNano);
+        lastRefill = now;
+        if (tokens >= 1) {
+            tokens--;
+            return true;
+        }
+        if (!refillScheduled) {
+            refillScheduled = true;
+            long waitNanos = (long) Math.ceil((1 - tokens) / permitsPerNano);
+            try {
+                scheduler.schedule(this::refilled, waitNanos, TimeUnit.NANOSECONDS);
+            } catch (Exception e) {
+                logger.warn("Scheduler service shutdown, not admitting connection attempts");
+            }
+        }
+        return false;
+    }
+
+    private void refilled() {
+        synchronized (this) {
+            refillScheduled = false;
+        }
+        drain();
+    }
+
+    /**
+     * @return The number of attempts waiting to be admitted
+     */
+    public synchronized int queueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return The number of attempts in progress
+     */
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    public long admitted() {
+        return admitted.sum();
+    }
+
+    /**
+     * @return The average time attempts waited to be admitted
+     */
+    public long averageWaitMillis() {
+        long count = admitted.sum();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.sum() / count);
+    }
+
+    public long maxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectAdmission{" +
+                "queueDepth=" + queueDepth() +
+                ", inFlight=" + inFlight() +
+                ", admitted=" + admitted() +
+                ", averageWaitMillis=" + averageWaitMillis() +
+                ", maxWaitMillis=" + maxWaitMillis() +
+                '}';
+    }
+
+    private static final class Pending implements Comparable<Pending> {
+
+        private final int priority;
+        private final long sequence;
+        private final Supplier<? extends CompletionStage<?>> attempt;
+        private final long queuedAt = System.nanoTime();
+
+        private Pending(int priority, long sequence, Supplier<? extends CompletionStage<?>> attempt) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.attempt = attempt;
+        }
+
+        @Override
+        public int compareTo(Pending other) {
+            if (priority != other.priority) {
+                return Integer.compare(other.priority, priority);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
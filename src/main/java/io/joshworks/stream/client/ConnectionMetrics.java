@@ -0,0 +1,200 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a connection, kept across reconnections. Only the connection itself records into them,
+ * the client wide sum is computed when read, see {@link ConnectionMonitor#metrics()}.
+ * <p>
+ * Parse and callback times are in nanoseconds, callbacks dispatched to an executor only count the hand over.
+ * SSE parse times exclude the time spent in the callbacks of the parsed events.
+ */
+public class ConnectionMetrics {
+
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder events = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+    private final Histogram parseTimes = new Histogram();
+    private final Histogram callbackTimes = new Histogram();
+    private final LongAdder connectedNanos = new LongAdder();
+    private final AtomicLong connectedSince = new AtomicLong(); //System.nanoTime() of the current connection, 0 when disconnected
+    private final AtomicInteger connected = new AtomicInteger();
+    private volatile long lastEventAt;
+
+    private final LongAdder callbackNanosInRead = new LongAdder(); //SSE only, a reconnection may read on another IO thread
+
+    /**
+     * A read of the given size was parsed, callbacks of the parsed events included
+     */
+    public void read(int bytes, long startNanos) {
+        long parse = Math.max(0, System.nanoTime() - startNanos - callbackNanosInRead.sumThenReset());
+        bytesIn.add(bytes);
+        parseTimes.record(parse);
+    }
+
+    /**
+     * A received message, its size is counted if not done by {@link #read(int, long)}
+     */
+    public void received(int bytes) {
+        bytesIn.add(bytes);
+    }
+
+    public void sent(int bytes) {
+        bytesOut.add(bytes);
+    }
+
+    /**
+     * An event or message was handed to its callback, which returned
+     */
+    public void event(long startNanos) {
+        record(startNanos);
+    }
+
+    /**
+     * An event parsed by a read was handed to its callback, which returned.
+     * Its time is excluded from the parse time recorded by {@link #read(int, long)}
+     */
+    public void eventInRead(long startNanos) {
+        callbackNanosInRead.add(record(startNanos));
+    }
+
+    private long record(long startNanos) {
+        long now = System.nanoTime();
+        long elapsed = now - startNanos;
+        events.increment();
+        callbackTimes.record(elapsed);
+        lastEventAt = now;
+        return elapsed;
+    }
+
+    void reconnecting() {
+        reconnects.increment();
+    }
+
+    void connected() {
+        if (connectedSince.compareAndSet(0, System.nanoTime())) {
+            connected.incrementAndGet();
+        }
+    }
+
+    /**
+     * The connection was closed, can be called more than once
+     */
+    public void disconnected() {
+        long since = connectedSince.getAndSet(0);
+        if (since == 0) {
+            return;
+        }
+        connectedNanos.add(System.nanoTime() - since);
+        connected.decrementAndGet();
+    }
+
+    public long bytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long bytesOut() {
+        return bytesOut.sum();
+    }
+
+    /**
+     * @return The number of SSE events or WebSocket text and binary messages handled
+     */
+    public long events() {
+        return events.sum();
+    }
+
+    public long reconnects() {
+        return reconnects.sum();
+    }
+
+    public Histogram parseTimes() {
+        return parseTimes;
+    }
+
+    public Histogram callbackTimes() {
+        return callbackTimes;
+    }
+
+    /**
+     * @return The number of open connections, 0 or 1 unless this is a sum
+     */
+    public int connections() {
+        return connected.get();
+    }
+
+    /**
+     * @return The total time connected, the current connection included
+     */
+    public long timeConnectedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(connectedNanos());
+    }
+
+    private long connectedNanos() {
+        long since = connectedSince.get();
+        long current = since == 0 ? 0 : System.nanoTime() - since;
+        return connectedNanos.sum() + current;
+    }
+
+    /**
+     * @return The time since the last event or message, -1 if none was received
+     */
+    public long lastEventAgeMillis() {
+        long last = lastEventAt;
+        return last == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - last);
+    }
+
+    /**
+     * Adds the counters of the other metrics to these ones, the time connected of an open connection up to now
+     */
+    void add(ConnectionMetrics other) {
+        bytesIn.add(other.bytesIn());
+        bytesOut.add(other.bytesOut());
+        events.add(other.events());
+        reconnects.add(other.reconnects());
+        parseTimes.add(other.parseTimes);
+        callbackTimes.add(other.callbackTimes);
+        connectedNanos.add(other.connectedNanos());
+        connected.addAndGet(other.connections());
+        long last = other.lastEventAt;
+        if (last != 0 && (lastEventAt == 0 || last - lastEventAt > 0)) {
+            lastEventAt = last;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionMetrics{" +
+                "connections=" + connections() +
+                ", bytesIn=" + bytesIn() +
+                ", bytesOut=" + bytesOut() +
+                ", events=" + events() +
+                ", reconnects=" + reconnects() +
+                ", timeConnectedMillis=" + timeConnectedMillis() +
+                ", lastEventAgeMillis=" + lastEventAgeMillis() +
+                ", parseTimes=" + parseTimes +
+                ", callbackTimes=" + callbackTimes +
+                '}';
+    }
+}
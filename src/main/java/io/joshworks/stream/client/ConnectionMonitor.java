@@ -3,6 +3,9 @@ package io.joshworks.stream.client;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -14,6 +17,11 @@ public class ConnectionMonitor {
     private static final Logger logger = LoggerFactory.getLogger(ConnectionMonitor.class);
     private static final Map<String, Runnable> connections = new ConcurrentHashMap<>();
 
+    //the metrics of each connection until it is garbage collected, then summed into retired
+    private final Map<Reference<Object>, ConnectionMetrics> live = new ConcurrentHashMap<>();
+    private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+    private final ConnectionMetrics retired = new ConnectionMetrics();
+
     public void add(String uuid, Runnable close) {
         connections.put(uuid, close);
     }
@@ -22,6 +30,39 @@ public class ConnectionMonitor {
         connections.remove(uuid);
     }
 
+    /**
+     * Counts the metrics in {@link #metrics()} while the owner is reachable, and after that as retired
+     */
+    synchronized void register(Object owner, ConnectionMetrics metrics) {
+        retire();
+        live.put(new WeakReference<>(owner, collected), metrics);
+    }
+
+    /**
+     * Summed on each call, the connections only record into their own metrics
+     *
+     * @return The sum of the metrics of all connections, open or closed
+     */
+    public synchronized ConnectionMetrics metrics() {
+        retire();
+        ConnectionMetrics sum = new ConnectionMetrics();
+        sum.add(retired);
+        for (ConnectionMetrics metrics : live.values()) {
+            sum.add(metrics);
+        }
+        return sum;
+    }
+
+    private void retire() {
+        Reference<?> reference;
+        while ((reference = collected.poll()) != null) {
+            ConnectionMetrics metrics = live.remove(reference);
+            if (metrics != null) {
+                retired.add(metrics);
+            }
+        }
+    }
+
     void closeAll() {
         for (Map.Entry<String, Runnable> entry : connections.entrySet()) {
             try {
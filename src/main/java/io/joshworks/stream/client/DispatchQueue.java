@@ -0,0 +1,252 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Moves callbacks of a single connection from the IO thread to an executor, through a bounded ring buffer.
+ * Tasks run one at a time and in order, the executor can be shared by many connections.
+ * <p>
+ * The ring has a single producer, the connection IO thread. Callbacks fired from other threads
+ * (connect errors, client close) are serialized with it by a lock that is uncontended in steady state.
+ * The consumer is whichever executor thread runs the drain task, only one is active at a time.
+ * Callbacks fired by a running callback are kept aside and run after the ones queued before them.
+ */
+public class DispatchQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(DispatchQueue.class);
+    private static final long WAIT_NANOS = 50_000;
+
+    private final Executor executor;
+    private final OverflowPolicy policy;
+    private final FlowControl flowControl;
+
+    private final Runnable[] ring;
+    private final int mask;
+    private final int resumeThreshold;
+
+    //head is only moved by the consumer, except with DROP_OLDEST where the producer also moves it
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Object producerLock = new Object();
+    private final LongAdder dropped = new LongAdder();
+    private final Queue<Deferred> deferred = new ConcurrentLinkedQueue<>(); //only used by the consumer
+    private volatile boolean suspended;
+    private volatile Thread consumer;
+
+    private final Runnable drain = this::drain;
+
+    /**
+     * @param executor    the executor that runs the callbacks
+     * @param capacity    the queue size, rounded up to a power of two
+     * @param policy      what to do when the queue is full
+     * @param flowControl used by {@link OverflowPolicy#SUSPEND_READS}
+     */
+    public DispatchQueue(Executor executor, int capacity, OverflowPolicy policy, FlowControl flowControl) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Capacity must be at least 2");
+        }
+        this.executor = executor;
+        this.policy = policy;
+        this.flowControl = flowControl;
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.ring = new Runnable[size];
+        this.mask = size - 1;
+        this.resumeThreshold = size / 2;
+    }
+
+    /**
+     * Queues a callback
+     *
+     * @return false if the task was discarded by {@link OverflowPolicy#DROP_NEWEST}
+     */
+    public boolean dispatch(Runnable task) {
+        if (Thread.currentThread() == consumer) {
+            //fired from within a callback (ex: closing the connection), waiting for itself or
+            //for the producer lock held by a waiting producer would never return
+            deferred.add(new Deferred(tail.get(), task));
+            return true;
+        }
+        synchronized (producerLock) {
+            if (!offer(task)) {
+                discard(task);
+                dropped.increment();
+                return false;
+            }
+        }
+        schedule();
+        return true;
+    }
+
+    private boolean offer(Runnable task) {
+        long t = tail.get();
+        while (t - head.get() >= ring.length) {
+            switch (policy) {
+                case DROP_NEWEST:
+                    return false;
+                case DROP_OLDEST:
+                    long h = head.get();
+                    if (t - h >= ring.length && head.compareAndSet(h, h + 1)) {
+                        //winning the CAS means the consumer will not run this slot, only the producer writes it
+                        int index = (int) (h & mask);
+                        discard(ring[index]);
+                        ring[index] = null;
+                        dropped.increment();
+                    }
+                    break;
+                case SUSPEND_READS:
+                    if (!suspended) {
+                        suspended = true;
+                        flowControl.suspendReads();
+                    }
+                    //events of the current read still need a slot
+                    waitForConsumer();
+                    break;
+                default:
+                    waitForConsumer();
+            }
+        }
+        ring[(int) (t & mask)] = task;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    private static void discard(Runnable task) {
+        if (task instanceof Discardable) {
+            try {
+                ((Discardable) task).discard();
+            } catch (Exception e) {
+                logger.error("Error while discarding event", e);
+            }
+        }
+    }
+
+    private void waitForConsumer() {
+        schedule();
+        LockSupport.parkNanos(WAIT_NANOS);
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(drain);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                logger.error("Dispatch executor rejected task, {} events pending", size(), e);
+            }
+        }
+    }
+
+    private void drain() {
+        consumer = Thread.currentThread();
+        int processed = 0;
+        Runnable task;
+        //bounded run, so other connections sharing the executor get their turn
+        while (processed++ < ring.length && (task = next()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                logger.error("Error while dispatching event", e);
+            }
+            if (suspended && size() <= resumeThreshold) {
+                suspended = false;
+                flowControl.resumeReads();
+            }
+        }
+        consumer = null;
+        scheduled.set(false);
+        if (size() > 0 || !deferred.isEmpty()) {
+            schedule();
+        }
+    }
+
+    //a deferred callback runs once the tasks queued before it ran or were dropped
+    private Runnable next() {
+        Deferred first = deferred.peek();
+        if (first != null && first.position <= head.get()) {
+            deferred.poll();
+            return first.task;
+        }
+        return poll();
+    }
+
+    private Runnable poll() {
+        while (true) {
+            long h = head.get();
+            if (h >= tail.get()) {
+                return null;
+            }
+            int index = (int) (h & mask);
+            Runnable task = ring[index];
+            if (policy == OverflowPolicy.DROP_OLDEST) {
+                //the producer may drop this slot concurrently, a consumed slot is not cleared as it might be reused
+                //already, it is overwritten by the next lap
+                if (head.compareAndSet(h, h + 1)) {
+                    return task;
+                }
+            } else {
+                ring[index] = null;
+                head.lazySet(h + 1);
+                return task;
+            }
+        }
+    }
+
+    /**
+     * @return The number of callbacks waiting to run
+     */
+    public int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    /**
+     * @return The number of callbacks discarded because the queue was full
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    private static final class Deferred {
+        private final long position; //the tail when it was fired
+        private final Runnable task;
+
+        private Deferred(long position, Runnable task) {
+            this.position = position;
+            this.task = task;
+        }
+    }
+
+    /**
+     * Implemented by tasks holding resources (ex: pooled buffers), called instead of {@link #run()} when the task is dropped
+     */
+    public interface Discardable extends Runnable {
+        void discard();
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client;
+
+/**
+ * A connection attempt that failed, see {@code onFailedAttempt} of the connection configuration
+ */
+public class FailedAttempt {
+
+    private final String url;
+    private final int attempt;
+    private final long nextDelay;
+    private final Exception cause;
+    private final CircuitBreaker.State circuitState;
+
+    FailedAttempt(String url, int attempt, long nextDelay, Exception cause, CircuitBreaker.State circuitState) {
+        this.url = url;
+        this.attempt = attempt;
+        this.nextDelay = nextDelay;
+        this.cause = cause;
+        this.circuitState = circuitState;
+    }
+
+    public String url() {
+        return url;
+    }
+
+    /**
+     * @return The number of consecutive failed attempts, including this one
+     */
+    public int attempt() {
+        return attempt;
+    }
+
+    /**
+     * @return The delay in milliseconds before the next attempt, -1 if not reconnecting
+     */
+    public long nextDelay() {
+        return nextDelay;
+    }
+
+    public Exception cause() {
+        return cause;
+    }
+
+    /**
+     * @return The state of the circuit breaker of the endpoint after this failure
+     */
+    public CircuitBreaker.State circuitState() {
+        return circuitState;
+    }
+
+    @Override
+    public String toString() {
+        return "FailedAttempt{" +
+                "url='" + url + '\'' +
+                ", attempt=" + attempt +
+                ", nextDelay=" + nextDelay +
+                ", cause=" + cause +
+                ", circuitState=" + circuitState +
+                '}';
+    }
+}
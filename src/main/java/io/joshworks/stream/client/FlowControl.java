@@ -0,0 +1,12 @@
+package io.joshworks.stream.client;
+
+/**
+ * Pauses and resumes reading from the underlying channel, can be called from any thread
+ */
+public interface FlowControl {
+
+    void suspendReads();
+
+    void resumeReads();
+
+}
@@ -4,7 +4,7 @@ package io.joshworks.stream.client;
  * Created by Josh Gontijo on 6/9/17.
  */
 public class MaxRetryExceeded extends RuntimeException {
-    MaxRetryExceeded(String message) {
+    public MaxRetryExceeded(String message) {
         super(message);
     }
 }
@@ -0,0 +1,29 @@
+package io.joshworks.stream.client;
+
+/**
+ * What to do when a connection dispatch queue is full, see {@link DispatchQueue}
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Blocks the IO thread until the consumer makes room, stalls other connections on the same IO thread
+     */
+    BLOCK,
+
+    /**
+     * Discards the oldest queued event to make room for the new one
+     */
+    DROP_OLDEST,
+
+    /**
+     * Discards the new event
+     */
+    DROP_NEWEST,
+
+    /**
+     * Stops reading from the connection until the consumer drains half of the queue, events are never dropped.
+     * Events already read are still queued, waiting for room if needed
+     */
+    SUSPEND_READS
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads the callbacks of a single connection over N {@link DispatchQueue} lanes by key, so one connection can use more than one core.
+ * Callbacks with the same key run in order, callbacks with different keys may run concurrently.
+ * Lifecycle callbacks (open, error) have no key and go to the first lane, they are not ordered with callbacks of other lanes.
+ * Close callbacks use {@link #dispatchAfterAll(Runnable)} so they run after everything queued before them.
+ * <p>
+ * With {@link OverflowPolicy#SUSPEND_READS} reads stay suspended while any lane is full.
+ */
+public class PartitionedDispatchQueue {
+
+    private final DispatchQueue[] lanes;
+    private final AtomicInteger suspendedLanes = new AtomicInteger();
+
+    /**
+     * @param lanes    the number of lanes, each one with its own queue
+     * @param capacity the queue size of each lane
+     */
+    public PartitionedDispatchQueue(Executor executor, int lanes, int capacity, OverflowPolicy policy, FlowControl flowControl) {
+        if (lanes < 1) {
+            throw new IllegalArgumentException("At least one lane is required");
+        }
+        FlowControl shared = new FlowControl() {
+            @Override
+            public void suspendReads() {
+                if (suspendedLanes.incrementAndGet() == 1) {
+                    flowControl.suspendReads();
+                }
+            }
+
+            @Override
+            public void resumeReads() {
+                if (suspendedLanes.decrementAndGet() == 0) {
+                    flowControl.resumeReads();
+                }
+            }
+        };
+        this.lanes = new DispatchQueue[lanes];
+        for (int i = 0; i < lanes; i++) {
+            this.lanes[i] = new DispatchQueue(executor, capacity, policy, shared);
+        }
+    }
+
+    /**
+     * Queues a callback in the lane of the given key
+     *
+     * @param key the partition key, null goes to the first lane
+     * @return false if the task was discarded by {@link OverflowPolicy#DROP_NEWEST}
+     */
+    public boolean dispatch(Object key, Runnable task) {
+        return lane(key).dispatch(task);
+    }
+
+    /**
+     * Queues a callback with no key in the first lane
+     */
+    public boolean dispatch(Runnable task) {
+        return lanes[0].dispatch(task);
+    }
+
+    /**
+     * Queues a callback that runs once every lane has run the callbacks queued before it.
+     * It runs on the thread of the last lane to get there, other lanes may already be running later callbacks.
+     */
+    public void dispatchAfterAll(Runnable task) {
+        if (lanes.length == 1) {
+            lanes[0].dispatch(task);
+            return;
+        }
+        AtomicInteger remaining = new AtomicInteger(lanes.length);
+        for (DispatchQueue lane : lanes) {
+            //dropped markers are discarded by the lane and count as reached, so the callback is not lost with DROP_* policies
+            DispatchQueue.Discardable marker = new DispatchQueue.Discardable() {
+                @Override
+                public void run() {
+                    if (remaining.decrementAndGet() == 0) {
+                        task.run();
+                    }
+                }
+
+                @Override
+                public void discard() {
+                    run();
+                }
+            };
+            lane.dispatch(marker);
+        }
+    }
+
+    private DispatchQueue lane(Object key) {
+        if (key == null) {
+            return lanes[0];
+        }
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return lanes[(hash & Integer.MAX_VALUE) % lanes.length];
+    }
+
+    public int lanes() {
+        return lanes.length;
+    }
+
+    /**
+     * @return The number of callbacks waiting to run in all lanes
+     */
+    public int size() {
+        int size = 0;
+        for (DispatchQueue lane : lanes) {
+            size += lane.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return The number of callbacks discarded because a lane was full
+     */
+    public long dropped() {
+        long dropped = 0;
+        for (DispatchQueue lane : lanes) {
+            dropped += lane.dropped();
+        }
+        return dropped;
+    }
+}
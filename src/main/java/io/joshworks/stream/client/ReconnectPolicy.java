@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Computes how long to wait before each reconnection attempt.
+ * Policies can be combined, ex: {@code ReconnectPolicy.exponential(500).capped(30000).withServerHint()}
+ */
+@FunctionalInterface
+public interface ReconnectPolicy {
+
+    /**
+     * @param attempt       the number of the attempt, starting at 1, reset once connected
+     * @param previousDelay the delay before the previous attempt, zero for the first one
+     * @param serverHint    the reconnection time sent by the server, -1 if none
+     * @return the delay in milliseconds
+     */
+    long nextDelay(int attempt, long previousDelay, long serverHint);
+
+    /**
+     * Always waits the same time
+     */
+    static ReconnectPolicy fixed(long delayMillis) {
+        return (attempt, previousDelay, serverHint) -> delayMillis;
+    }
+
+    /**
+     * Doubles the delay on every attempt: base, 2 * base, 4 * base...
+     */
+    static ReconnectPolicy exponential(long baseMillis) {
+        return (attempt, previousDelay, serverHint) -> baseMillis << Math.min(attempt - 1, 30);
+    }
+
+    /**
+     * A random delay between base and three times the previous delay, so clients disconnected at the same time
+     * do not reconnect in lockstep. Should be capped, see {@link #capped(long)}.
+     */
+    static ReconnectPolicy decorrelatedJitter(long baseMillis) {
+        return (attempt, previousDelay, serverHint) -> {
+            long upper = Math.max(baseMillis, previousDelay) * 3;
+            return ThreadLocalRandom.current().nextLong(baseMillis, upper + 1);
+        };
+    }
+
+    /**
+     * Never waits longer than the given delay
+     */
+    default ReconnectPolicy capped(long maxDelayMillis) {
+        return (attempt, previousDelay, serverHint) -> Math.min(maxDelayMillis, nextDelay(attempt, previousDelay, serverHint));
+    }
+
+    /**
+     * Waits the time sent by the server instead, when there is one (the SSE retry field or a Retry-After header)
+     */
+    default ReconnectPolicy withServerHint() {
+        return (attempt, previousDelay, serverHint) -> serverHint >= 0 ? serverHint : nextDelay(attempt, previousDelay, serverHint);
+    }
+}
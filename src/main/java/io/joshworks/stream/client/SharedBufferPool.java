@@ -0,0 +1,206 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client;
+
+import io.undertow.connector.ByteBufferPool;
+import io.undertow.connector.PooledByteBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Buffer pool shared by all connections of the client, buffers are cached per thread first (usually the IO threads)
+ * and then in a global queue. Buffers returned when both are full are left to the GC.
+ * <p>
+ * Hits are allocations served from the pool, misses are allocations that created a new buffer.
+ * Outstanding is the number of buffers currently in use.
+ */
+public class SharedBufferPool implements ByteBufferPool {
+
+    private final boolean direct;
+    private final int bufferSize;
+    private final int maxPoolSize;
+    private final int threadLocalCacheSize;
+
+    private final ConcurrentLinkedQueue<ByteBuffer> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queueSize = new AtomicInteger();
+    private final ThreadLocal<ArrayDeque<ByteBuffer>> threadCache = ThreadLocal.withInitial(ArrayDeque::new);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder outstanding = new LongAdder();
+
+    private final SharedBufferPool arrayBackedPool;
+    private volatile boolean closed;
+
+    public SharedBufferPool(BufferPoolConfiguration configuration) {
+        this(configuration.direct, configuration.bufferSize, configuration.maxPoolSize, configuration.threadLocalCacheSize);
+    }
+
+    private SharedBufferPool(boolean direct, int bufferSize, int maxPoolSize, int threadLocalCacheSize) {
+        this.direct = direct;
+        this.bufferSize = bufferSize;
+        this.maxPoolSize = maxPoolSize;
+        this.threadLocalCacheSize = threadLocalCacheSize;
+        this.arrayBackedPool = direct ? new SharedBufferPool(false, bufferSize, maxPoolSize, threadLocalCacheSize) : this;
+    }
+
+    @Override
+    public PooledByteBuffer allocate() {
+        if (closed) {
+            throw new IllegalStateException("Buffer pool is closed");
+        }
+        ByteBuffer buffer = threadLocalCacheSize > 0 ? threadCache.get().poll() : null;
+        if (buffer == null && (buffer = queue.poll()) != null) {
+            queueSize.decrementAndGet();
+        }
+        if (buffer == null) {
+            misses.increment();
+            buffer = direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        } else {
+            hits.increment();
+        }
+        outstanding.increment();
+        return new PooledBuffer(this, buffer);
+    }
+
+    private void release(ByteBuffer buffer) {
+        outstanding.decrement();
+        if (closed) {
+            return;
+        }
+        buffer.clear();
+        if (threadLocalCacheSize > 0) {
+            ArrayDeque<ByteBuffer> cache = threadCache.get();
+            if (cache.size() < threadLocalCacheSize) {
+                cache.push(buffer);
+                return;
+            }
+        }
+        if (queueSize.incrementAndGet() <= maxPoolSize) {
+            queue.offer(buffer);
+        } else {
+            queueSize.decrementAndGet();
+        }
+    }
+
+    @Override
+    public ByteBufferPool getArrayBackedPool() {
+        return arrayBackedPool;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        queue.clear();
+        queueSize.set(0);
+        if (arrayBackedPool != this) {
+            arrayBackedPool.close();
+        }
+    }
+
+    @Override
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    @Override
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * @return The number of allocations served by a pooled buffer
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of allocations that required a new buffer
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The number of buffers allocated and not yet returned to the pool
+     */
+    public long outstanding() {
+        return outstanding.sum();
+    }
+
+    /**
+     * @return The number of buffers available in the global queue, thread caches are not included
+     */
+    public int pooled() {
+        return queueSize.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SharedBufferPool{" +
+                "direct=" + direct +
+                ", bufferSize=" + bufferSize +
+                ", hits=" + hits() +
+                ", misses=" + misses() +
+                ", outstanding=" + outstanding() +
+                ", pooled=" + pooled() +
+                '}';
+    }
+
+    private static final class PooledBuffer implements PooledByteBuffer {
+
+        private static final AtomicReferenceFieldUpdater<PooledBuffer, ByteBuffer> BUFFER =
+                AtomicReferenceFieldUpdater.newUpdater(PooledBuffer.class, ByteBuffer.class, "buffer");
+
+        private final SharedBufferPool pool;
+        private volatile ByteBuffer buffer;
+
+        private PooledBuffer(SharedBufferPool pool, ByteBuffer buffer) {
+            this.pool = pool;
+            this.buffer = buffer;
+        }
+
+        @Override
+        public ByteBuffer getBuffer() {
+            ByteBuffer current = buffer;
+            if (current == null) {
+                throw new IllegalStateException("Buffer already released");
+            }
+            return current;
+        }
+
+        @Override
+        public void close() {
+            ByteBuffer released = BUFFER.getAndSet(this, null);
+            if (released != null) {
+                pool.release(released);
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return buffer != null;
+        }
+    }
+}
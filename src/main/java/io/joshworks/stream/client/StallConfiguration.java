@@ -0,0 +1,39 @@
+package io.joshworks.stream.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Enables the detection of callbacks blocking the IO threads, see {@link StreamClient#configure(StallConfiguration)}
+ */
+public class StallConfiguration {
+
+    private static final Logger logger = LoggerFactory.getLogger(StallDetector.class);
+
+    long thresholdNanos = TimeUnit.MILLISECONDS.toNanos(100);
+    Consumer<CallbackStall> onStall = stall -> logger.warn("{}", stall);
+
+    /**
+     * @param threshold callbacks running longer are reported, default 100 milliseconds
+     */
+    public StallConfiguration threshold(long threshold, TimeUnit unit) {
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("Threshold must be greater than zero");
+        }
+        this.thresholdNanos = unit.toNanos(threshold);
+        return this;
+    }
+
+    /**
+     * Called for every callback running past the threshold, at most once per invocation. Called on the scheduler
+     * when the blocked thread was sampled, on the thread itself once the callback returned otherwise.
+     * Logs a warning with the stack trace by default
+     */
+    public StallConfiguration onStall(Consumer<CallbackStall> onStall) {
+        this.onStall = onStall;
+        return this;
+    }
+}
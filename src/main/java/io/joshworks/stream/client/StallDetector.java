@@ -0,0 +1,165 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.joshworks.stream.client;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Times the user callbacks running on the IO threads, one blocking callback freezes every connection of its thread.
+ * <p>
+ * Each thread running callbacks has a slot holding the callback in progress, a watchdog on the timer of the client
+ * checks the slots every half threshold and samples the stack of the threads blocked past the threshold.
+ * Callbacks past the threshold that returned before being sampled are reported without a stack trace.
+ * The time spent in callbacks is recorded per thread, in nanoseconds.
+ * <p>
+ * Nested callbacks, ex: an error reported while handling an event, are timed as part of the outermost one.
+ */
+public class StallDetector {
+
+    private final long thresholdNanos;
+    private final Consumer<CallbackStall> onStall;
+    private final ThreadLocal<Slot> slot = ThreadLocal.withInitial(this::register);
+    private final List<Slot> slots = new CopyOnWriteArrayList<>();
+    private final LongAdder stalls = new LongAdder();
+    private volatile boolean stopped;
+
+    StallDetector(StallConfiguration configuration, TimingWheel timer) {
+        this.thresholdNanos = configuration.thresholdNanos;
+        this.onStall = configuration.onStall;
+        if (timer != null) {
+            watch(timer);
+        }
+    }
+
+    /**
+     * A callback of the given connection starts on the current thread
+     *
+     * @return the start time, to be passed to {@link #exit(long)}
+     */
+    public long enter(String connectionId, String url) {
+        Slot current = slot.get();
+        long now = System.nanoTime();
+        if (current.depth++ == 0) {
+            current.connectionId = connectionId;
+            current.url = url;
+            current.start = now == 0 ? 1 : now; //0 is idle
+        }
+        return now;
+    }
+
+    /**
+     * The callback started by {@link #enter(String, String)} on the current thread returned
+     */
+    public void exit(long start) {
+        Slot current = slot.get();
+        if (current.depth == 0 || --current.depth > 0) {
+            return;
+        }
+        long started = current.start;
+        long elapsed = System.nanoTime() - start;
+        current.start = 0;
+        current.busyTimes.record(elapsed);
+        if (elapsed > thresholdNanos && current.reported.getAndSet(started) != started) {
+            report(current.connectionId, current.url, current.thread, elapsed, null);
+        }
+    }
+
+    /**
+     * @return The callback durations of each thread in nanoseconds, by thread name
+     */
+    public Map<String, Histogram> busyTimes() {
+        Map<String, Histogram> busyTimes = new LinkedHashMap<>();
+        for (Slot s : slots) {
+            busyTimes.put(s.thread.getName(), s.busyTimes);
+        }
+        return Collections.unmodifiableMap(busyTimes);
+    }
+
+    /**
+     * @return The number of callbacks reported as running past the threshold
+     */
+    public long stalls() {
+        return stalls.sum();
+    }
+
+    void stop() {
+        stopped = true;
+    }
+
+    //runs on the scheduler, reschedules itself until stopped
+    void check() {
+        long now = System.nanoTime();
+        for (Slot s : slots) {
+            long started = s.start;
+            if (started == 0 || now - started <= thresholdNanos || s.reported.get() == started) {
+                continue;
+            }
+            StackTraceElement[] stackTrace = s.thread.getStackTrace();
+            String connectionId = s.connectionId;
+            String url = s.url;
+            if (s.start != started || s.reported.getAndSet(started) == started) {
+                continue; //returned while sampling, reported on exit if past the threshold
+            }
+            report(connectionId, url, s.thread, now - started, stackTrace);
+        }
+    }
+
+    private void watch(TimingWheel timer) {
+        long period = Math.max(1, TimeUnit.NANOSECONDS.toMillis(thresholdNanos / 2));
+        timer.schedule(() -> {
+            if (!stopped) {
+                check();
+                watch(timer);
+            }
+        }, period, TimeUnit.MILLISECONDS);
+    }
+
+    private void report(String connectionId, String url, Thread thread, long elapsed, StackTraceElement[] stackTrace) {
+        stalls.increment();
+        onStall.accept(new CallbackStall(connectionId, url, thread.getName(), elapsed, stackTrace));
+    }
+
+    private Slot register() {
+        Slot s = new Slot(Thread.currentThread());
+        slots.add(s);
+        return s;
+    }
+
+    private static class Slot {
+        private final Thread thread;
+        private final Histogram busyTimes = new Histogram();
+        private final AtomicLong reported = new AtomicLong(); //start of the last reported callback
+        private volatile long start; //0 when no callback is running
+        private volatile String connectionId;
+        private volatile String url;
+        private int depth; //only used by the thread
+
+        private Slot(Thread thread) {
+            this.thread = thread;
+        }
+    }
+}
@@ -20,6 +20,7 @@ package io.joshworks.stream.client;
 import io.joshworks.stream.client.sse.SSEConnection;
 import io.joshworks.stream.client.sse.SseClientCallback;
 import io.joshworks.stream.client.sse.SseConfiguration;
+import io.joshworks.stream.client.sse.SseSubscription;
 import io.joshworks.stream.client.ws.WebSocketClientEndpoint;
 import io.joshworks.stream.client.ws.WsConfiguration;
 import io.joshworks.stream.client.ws.WsConnection;
@@ -27,12 +28,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xnio.OptionMap;
 import org.xnio.Options;
+import org.xnio.Sequence;
 import org.xnio.Xnio;
 import org.xnio.XnioWorker;
 
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 import java.io.IOException;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by Josh Gontijo on 4/2/17.
@@ -43,6 +50,7 @@ public final class StreamClient {
 
     private static final Logger logger = LoggerFactory.getLogger(StreamClient.class);
     private static final String CLIENT_WORKER_NAME = "client-worker";
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
 
     private static OptionMap options = OptionMap.builder()
             .set(Options.WORKER_IO_THREADS, 5)
@@ -51,14 +59,41 @@ public final class StreamClient {
             .set(Options.KEEP_ALIVE, true)
             .getMap();
 
+    private static BufferPoolConfiguration bufferPoolConfiguration = new BufferPoolConfiguration();
+    private static TlsConfiguration tlsConfiguration;
+    private static AdmissionConfiguration admissionConfiguration = new AdmissionConfiguration();
+    private static TimerConfiguration timerConfiguration = new TimerConfiguration();
+    private static StallConfiguration stallConfiguration;
+
     private static StreamClient INSTANCE;
 
     private final ScheduledExecutorService scheduler;
     private final XnioWorker worker;
+    private final SharedBufferPool bufferPool;
+    private final TlsStatistics tlsStatistics = new TlsStatistics();
+    private final ClientSsl ssl;
+    private final ClientSsl wsSsl;
+    private final ConnectAdmission admission;
+    private final TimingWheel timer;
+    private final StallDetector stallDetector; //null unless configured
 
-    private StreamClient(XnioWorker worker, ScheduledExecutorService scheduler) {
+    private StreamClient(XnioWorker worker, ScheduledExecutorService scheduler, SharedBufferPool bufferPool,
+                         TlsConfiguration tlsConfiguration, AdmissionConfiguration admissionConfiguration,
+                         TimerConfiguration timerConfiguration, StallConfiguration stallConfiguration) {
         this.worker = worker;
         this.scheduler = scheduler;
+        this.bufferPool = bufferPool;
+        this.admission = new ConnectAdmission(admissionConfiguration, scheduler);
+        this.timer = new TimingWheel(timerConfiguration, scheduler);
+        this.stallDetector = stallConfiguration == null ? null : new StallDetector(stallConfiguration, timer);
+        SSLSessionContext sessions = tlsConfiguration.sslContext.getClientSessionContext();
+        sessions.setSessionCacheSize(tlsConfiguration.sessionCacheSize);
+        sessions.setSessionTimeout(tlsConfiguration.sessionTimeoutSeconds);
+        Xnio xnio = Xnio.getInstance();
+        this.ssl = new ClientSsl(xnio, tlsConfiguration, OptionMap.EMPTY, false, tlsStatistics);
+        OptionMap wsOptions = tlsConfiguration.webSocketProtocols.length == 0 ? OptionMap.EMPTY :
+                OptionMap.create(Options.SSL_ENABLED_PROTOCOLS, Sequence.of(tlsConfiguration.webSocketProtocols));
+        this.wsSsl = new ClientSsl(xnio, tlsConfiguration, wsOptions, true, tlsStatistics);
     }
 
     public static void configure(OptionMap options) {
@@ -69,23 +104,133 @@ public final class StreamClient {
         StreamClient.options = options;
     }
 
+    /**
+     * Configures the buffer pool shared by all connections
+     */
+    public static void configure(BufferPoolConfiguration bufferPoolConfiguration) {
+        if (INSTANCE != null) {
+            logger.warn("StreamClient already in use, configuration will have no effect");
+            return;
+        }
+        StreamClient.bufferPoolConfiguration = bufferPoolConfiguration;
+    }
+
+    /**
+     * Configures the TLS context of all https and wss connections, a context of the client with the default trust
+     * material is used otherwise. The JVM default SSLContext is left untouched unless passed here.
+     */
+    public static void configure(TlsConfiguration tlsConfiguration) {
+        if (INSTANCE != null) {
+            logger.warn("StreamClient already in use, configuration will have no effect");
+            return;
+        }
+        StreamClient.tlsConfiguration = tlsConfiguration;
+    }
+
+    /**
+     * Limits the connection attempts of all connections, by default at most 64 attempts are in progress at once
+     */
+    public static void configure(AdmissionConfiguration admissionConfiguration) {
+        if (INSTANCE != null) {
+            logger.warn("StreamClient already in use, configuration will have no effect");
+            return;
+        }
+        StreamClient.admissionConfiguration = admissionConfiguration;
+    }
+
+    /**
+     * Configures the timer of the reconnections and timeouts of all connections
+     */
+    public static void configure(TimerConfiguration timerConfiguration) {
+        if (INSTANCE != null) {
+            logger.warn("StreamClient already in use, configuration will have no effect");
+            return;
+        }
+        StreamClient.timerConfiguration = timerConfiguration;
+    }
+
+    /**
+     * Times every callback running on the IO threads, reporting the ones blocking past a threshold. Disabled by default
+     */
+    public static void configure(StallConfiguration stallConfiguration) {
+        if (INSTANCE != null) {
+            logger.warn("StreamClient already in use, configuration will have no effect");
+            return;
+        }
+        StreamClient.stallConfiguration = stallConfiguration;
+    }
+
+    /**
+     * @return The admission of connection attempts, with its queue depth and wait time
+     */
+    public static ConnectAdmission admission() {
+        return instance().admission;
+    }
+
+    /**
+     * @return The sum of the metrics of all connections created by this client, open or closed, computed on each call
+     */
+    public static ConnectionMetrics metrics() {
+        return monitor.metrics();
+    }
+
+    /**
+     * @return The callback times per IO thread and the number of stalls, null if not configured
+     */
+    public static StallDetector stallDetector() {
+        return instance().stallDetector;
+    }
+
+    /**
+     * @return The full and resumed TLS handshake counters of all connections
+     */
+    public static TlsStatistics tlsStatistics() {
+        return instance().tlsStatistics;
+    }
+
+    /**
+     * @return The buffer pool shared by all connections, with its hit / miss and outstanding buffer counters
+     */
+    public static SharedBufferPool bufferPool() {
+        return instance().bufferPool;
+    }
+
     public synchronized static void shutdown() {
         monitor.closeAll();
+        CircuitBreaker.clear();
         if (INSTANCE != null) {
             logger.info("Shutting down StreamClient workers");
             INSTANCE.worker.shutdownNow();
+            if (INSTANCE.stallDetector != null) {
+                INSTANCE.stallDetector.stop();
+            }
+            INSTANCE.timer.stop();
             INSTANCE.scheduler.shutdownNow();
+            //the IO threads still release and allocate buffers while closing their channels
+            awaitTermination(INSTANCE.worker);
+            INSTANCE.bufferPool.close();
             INSTANCE = null;
         }
     }
 
+    private static void awaitTermination(XnioWorker worker) {
+        try {
+            if (!worker.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                logger.warn("StreamClient workers did not terminate in {}s", SHUTDOWN_TIMEOUT_SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     private static StreamClient instance() {
         if (INSTANCE == null) {
             synchronized (StreamClient.class) {
                 if (INSTANCE == null) {
                     XnioWorker workers = createWorkers();
                     ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
-                    INSTANCE = new StreamClient(workers, scheduler);
+                    SharedBufferPool bufferPool = new SharedBufferPool(bufferPoolConfiguration);
+                    INSTANCE = new StreamClient(workers, scheduler, bufferPool, tlsConfiguration(), admissionConfiguration, timerConfiguration, stallConfiguration);
                 }
             }
         }
@@ -100,24 +245,54 @@ public final class StreamClient {
         }
     }
 
+    private static TlsConfiguration tlsConfiguration() {
+        if (tlsConfiguration != null) {
+            return tlsConfiguration;
+        }
+        //not the JVM default context, its session cache is configured by the client
+        try {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, null, null);
+            return new TlsConfiguration(context);
+        } catch (NoSuchAlgorithmException | KeyManagementException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private <T extends ClientConfiguration> T shared(T configuration) {
+        configuration.ssl = configuration instanceof WsConfiguration ? wsSsl : ssl;
+        configuration.admission = admission;
+        configuration.timer = timer;
+        configuration.stallDetector = stallDetector;
+        return configuration;
+    }
+
     public static WsConfiguration ws(String url) {
         StreamClient instance = instance();
-        return new WsConfiguration(url, instance.worker, instance.scheduler, monitor);
+        return instance.shared(new WsConfiguration(url, instance.worker, instance.scheduler, monitor, instance.bufferPool));
     }
 
     public static WsConnection connect(String url, WebSocketClientEndpoint endpoint) {
         StreamClient instance = instance();
-        return new WsConfiguration(url, instance.worker, instance.scheduler, monitor, endpoint).connect();
+        return instance.shared(new WsConfiguration(url, instance.worker, instance.scheduler, monitor, instance.bufferPool, endpoint)).connect();
     }
 
     public static SseConfiguration sse(String url) {
         StreamClient instance = instance();
-        return new SseConfiguration(url, instance.worker, instance.scheduler, monitor);
+        return instance.shared(new SseConfiguration(url, instance.worker, instance.scheduler, monitor, instance.bufferPool));
     }
 
     public static SSEConnection connect(String url, SseClientCallback clientCallback) {
         StreamClient instance = instance();
-        return new SseConfiguration(url, instance.worker, instance.scheduler, monitor, clientCallback).connect();
+        return instance.shared(new SseConfiguration(url, instance.worker, instance.scheduler, monitor, instance.bufferPool, clientCallback)).connect();
+    }
+
+    /**
+     * Subscribes to the connection shared by all subscribers of this url, see {@link SseConfiguration#subscribe()}
+     */
+    public static SseSubscription subscribe(String url, SseClientCallback clientCallback) {
+        StreamClient instance = instance();
+        return instance.shared(new SseConfiguration(url, instance.worker, instance.scheduler, monitor, instance.bufferPool, clientCallback)).subscribe();
     }
 
 }
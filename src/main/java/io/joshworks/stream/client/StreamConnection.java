@@ -1,19 +1,26 @@
 package io.joshworks.stream.client;
 
+import io.undertow.connector.ByteBufferPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xnio.XnioWorker;
+import org.xnio.ssl.XnioSsl;
 
 import java.io.IOException;
 import java.nio.channels.Channel;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 /**
  * Created by Josh Gontijo on 6/9/17.
  */
-public abstract class StreamConnection {
+public abstract class StreamConnection implements FlowControl {
 
     private static final Logger logger = LoggerFactory.getLogger(StreamConnection.class);
 
@@ -21,37 +28,128 @@ public abstract class StreamConnection {
     protected final XnioWorker worker;
     protected final String uuid;
     protected final ConnectionMonitor monitor;
+    protected final ByteBufferPool bufferPool;
+    protected final XnioSsl ssl;
+    protected final DispatchQueue dispatchQueue; //null when callbacks run on the IO thread or are partitioned
+    protected final PartitionedDispatchQueue partitionedQueue; //null unless partitioned in more than one lane
+    protected final ConnectionMetrics metrics;
+    protected final StallDetector stallDetector; //null when callbacks are not timed
     private final ScheduledExecutorService scheduler;
+    private final TimingWheel timer; //null when created without the StreamClient, the scheduler is used instead
+    private final ConnectAdmission admission; //null when attempts are not limited
+    private final int priority;
+    private final long connectTimeoutMillis; //zero when attempts are not timed
 
-    private final long retryInterval;
     private final int maxRetries;
+    private final ReconnectPolicy reconnectPolicy;
+    private final CircuitBreaker circuitBreaker;
 
-    private final Runnable onFailedAttempt;
+    private final Consumer<FailedAttempt> onFailedAttempt;
     private final Runnable onRetriesExceeded;
+    private final Runnable onTerminated;
 
-    protected boolean shuttingDown = false;
+    protected volatile boolean shuttingDown = false;
     private int retries = 0;
+    private long lastDelay = 0;
+    private volatile long serverHint = -1; //SSE retry field, kept for the connection
+    private volatile long retryAfter = -1; //Retry-After header, only for the next attempt
+    private volatile CompletableFuture<Void> opened = new CompletableFuture<>();
+    private volatile Runnable cancelPendingAttempt = () -> {};
 
     public StreamConnection(ClientConfiguration clientConfiguration) {
         this.uuid = UUID.randomUUID().toString().substring(0, 8);
         this.url = clientConfiguration.url;
         this.scheduler = clientConfiguration.scheduler;
+        this.timer = clientConfiguration.timer;
+        this.admission = clientConfiguration.admission;
+        this.priority = clientConfiguration.priority;
+        this.connectTimeoutMillis = clientConfiguration.connectTimeoutMillis;
         this.monitor = clientConfiguration.monitor;
-        this.retryInterval = clientConfiguration.retryInterval;
+        this.metrics = new ConnectionMetrics();
+        if (monitor != null) {
+            monitor.register(this, metrics);
+        }
+        this.stallDetector = clientConfiguration.stallDetector;
         this.maxRetries = clientConfiguration.maxRetries;
+        this.reconnectPolicy = clientConfiguration.reconnectPolicy != null ? clientConfiguration.reconnectPolicy :
+                ReconnectPolicy.fixed(clientConfiguration.retryInterval).withServerHint();
+        this.circuitBreaker = CircuitBreaker.forEndpoint(clientConfiguration.url,
+                clientConfiguration.circuitBreakerThreshold, clientConfiguration.circuitBreakerOpenMillis);
         this.worker = clientConfiguration.worker;
+        this.bufferPool = clientConfiguration.bufferPool;
+        this.ssl = clientConfiguration.ssl;
         this.onFailedAttempt = clientConfiguration.onFailedAttempt;
         this.onRetriesExceeded = clientConfiguration.onRetriesExceeded;
+        this.onTerminated = clientConfiguration.onTerminated;
+        boolean partitioned = clientConfiguration.dispatchExecutor != null && clientConfiguration.dispatchLanes > 1;
+        this.dispatchQueue = clientConfiguration.dispatchExecutor == null || partitioned ? null :
+                new DispatchQueue(clientConfiguration.dispatchExecutor, clientConfiguration.dispatchQueueSize, clientConfiguration.overflowPolicy, this);
+        this.partitionedQueue = !partitioned ? null :
+                new PartitionedDispatchQueue(clientConfiguration.dispatchExecutor, clientConfiguration.dispatchLanes,
+                        clientConfiguration.dispatchQueueSize, clientConfiguration.overflowPolicy, this);
     }
 
-    protected abstract void tryConnect() throws Exception;
+    /**
+     * Starts connecting without blocking
+     *
+     * @return completes when the connection is open and ready to receive, or exceptionally when the attempt failed
+     */
+    protected abstract CompletableFuture<Void> tryConnect();
 
     protected abstract void closeChannel();
 
-    public void connect() {
+    /**
+     * Stops reading from the server, incoming data is kept in the socket buffers (TCP back pressure)
+     */
+    @Override
+    public abstract void suspendReads();
+
+    @Override
+    public abstract void resumeReads();
+
+    /**
+     * Connects in the background, failed attempts are retried as configured.
+     * Each attempt fails with a {@link TimeoutException} when not open after the connect timeout.
+     *
+     * @return completes when the connection is first opened, or exceptionally if it is closed or gives up before that
+     */
+    public CompletableFuture<Void> connect() {
         retries = 0;
+        lastDelay = 0;
         shuttingDown = false;
-        this.tryConnect(0);
+        CompletableFuture<Void> connecting = new CompletableFuture<>();
+        opened = connecting;
+        this.schedule(0);
+        return connecting;
+    }
+
+    /**
+     * Closes the connection without reconnecting
+     */
+    void terminate() {
+        stopReconnecting();
+        closeChannel();
+        terminated(null);
+    }
+
+    /**
+     * Called when closed by the client, a scheduled attempt is cancelled
+     */
+    protected void stopReconnecting() {
+        shuttingDown = true;
+        cancelPendingAttempt.run();
+    }
+
+    private void terminated(Exception cause) {
+        opened.completeExceptionally(cause != null ? cause : new StreamConnectionError("Connection to " + url + " closed"));
+        onTerminated.run();
+    }
+
+    /**
+     * Whether a failed attempt should be retried, all failures are by default
+     */
+    protected boolean retryable(Exception failure) {
+        return true;
     }
 
     protected static void closeChannel(Channel channel) {
@@ -64,47 +162,190 @@ public abstract class StreamConnection {
         }
     }
 
+    /**
+     * @return The metrics of this connection, kept across reconnections
+     */
+    public ConnectionMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * A user callback of this connection starts on the current thread
+     *
+     * @return the start time, to be passed to {@link #exitCallback(long)}
+     */
+    protected long enterCallback() {
+        return stallDetector == null ? System.nanoTime() : stallDetector.enter(uuid, url);
+    }
+
+    protected void exitCallback(long start) {
+        if (stallDetector != null) {
+            stallDetector.exit(start);
+        }
+    }
+
+    private void connected() {
+        metrics.connected();
+        retries = 0;
+        lastDelay = 0;
+        circuitBreaker.success();
+        opened.complete(null);
+    }
+
+    /**
+     * The reconnection time sent by the server, passed to the {@link ReconnectPolicy} of the following attempts
+     */
+    protected void serverHint(long millis) {
+        this.serverHint = millis;
+    }
+
+    /**
+     * The reconnection time sent by the server, only for the next attempt
+     */
+    protected void retryAfter(long millis) {
+        this.retryAfter = millis;
+    }
+
+    /**
+     * The connection was lost, reconnects if enabled
+     */
     protected void reconnect() {
-       reconnect(retryInterval);
+        reconnect(null);
     }
 
-    protected void reconnect(long delay) {
-        if (shuttingDown || maxRetries == 0) {
+    /**
+     * A connection attempt failed, reports it and reconnects if enabled
+     */
+    protected void reconnect(Exception failure) {
+        boolean cancelled = shuttingDown;
+        boolean retrying = !cancelled && maxRetries != 0 && (maxRetries < 0 || retries < maxRetries)
+                && (failure == null || retryable(failure));
+        boolean failed = failure != null && !cancelled; //closing while connecting is not a failure of the endpoint
+        if (failed) {
+            circuitBreaker.failure();
+        }
+        long delay = retrying ? nextDelay(++retries) : -1;
+        if (failed) {
+            onFailedAttempt.accept(new FailedAttempt(url, retries, delay, failure, circuitBreaker.state()));
+        }
+        if (retrying) {
+            metrics.reconnecting();
+            this.schedule(delay);
             return;
         }
-        if (++retries > maxRetries && maxRetries > 0) {
+        if (!cancelled && maxRetries != 0 && (failure == null || retryable(failure))) {
             onRetriesExceeded.run();
             MaxRetryExceeded maxRetryExceeded = new MaxRetryExceeded("Max retries (" + maxRetries + ") exceeded, not reconnecting");
             logger.error("Max retries exceeded", maxRetryExceeded);
             closeChannel();
+            terminated(maxRetryExceeded);
             return;
         }
-        this.tryConnect(delay);
+        terminated(failed ? failure : null);
+    }
+
+    private long nextDelay(int attempt) {
+        long hint = retryAfter >= 0 ? retryAfter : serverHint;
+        retryAfter = -1;
+        lastDelay = Math.max(0, reconnectPolicy.nextDelay(attempt, lastDelay, hint));
+        return lastDelay;
+    }
+
+    /**
+     * Runs the task after the given delay on the timer of the client, for reconnections and timeouts
+     *
+     * @return cancels the task if it did not run yet
+     */
+    protected Runnable schedule(Runnable task, long delay, TimeUnit unit) {
+        if (timer != null) {
+            TimingWheel.Timeout timeout = timer.schedule(task, delay, unit);
+            return timeout::cancel;
+        }
+        ScheduledFuture<?> future = scheduler.schedule(task, delay, unit);
+        return () -> future.cancel(false);
     }
 
-    private void tryConnect(long delay) {
+    private void schedule(long delay) {
         String maxRetriesLabel = maxRetries < 0 ? "-" : "" + maxRetries;
-        logger.info("Trying to connect to {} in {}ms. {} of {}", url, retryInterval, retries, maxRetriesLabel);
+        logger.info("Trying to connect to {} in {}ms. {} of {}", url, delay, retries, maxRetriesLabel);
+        if (scheduler.isShutdown()) {
+            notScheduled(null);
+            return;
+        }
         try {
-            if (scheduler.isTerminated() || scheduler.isShutdown()) {
-                logger.warn("Scheduler service shutdown, not reconnecting");
+            if (delay == 0) {
+                scheduler.execute(this::attempt);
+            } else {
+                cancelPendingAttempt = schedule(this::attempt, delay, TimeUnit.MILLISECONDS);
+            }
+        } catch (Exception e) {
+            notScheduled(e);
+        }
+    }
+
+    //the client was shut down, nothing else would complete the future of connect()
+    private void notScheduled(Exception cause) {
+        logger.warn("Scheduler service shutdown, not connecting to {}", url);
+        opened.completeExceptionally(new StreamConnectionError("Scheduler service shutdown, not connecting to " + url, cause));
+    }
+
+    private void attempt() {
+        if (shuttingDown) { //closed while waiting
+            return;
+        }
+        long wait = circuitBreaker.tryAcquire();
+        if (wait > 0) {
+            logger.info("Circuit of {} is {}, waiting {}ms", url, circuitBreaker.state(), wait);
+            this.schedule(wait);
+            return;
+        }
+        if (admission == null) {
+            admitted();
+        } else {
+            admission.submit(priority, this::admitted);
+        }
+    }
+
+    //the attempt is in progress, for the admission, until the returned future completes or times out
+    private CompletableFuture<Void> admitted() {
+        if (shuttingDown) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> attempt;
+        try {
+            attempt = this.tryConnect();
+        } catch (Exception e) {
+            attempt = new CompletableFuture<>();
+            attempt.completeExceptionally(e);
+        }
+        if (connectTimeoutMillis > 0 && !attempt.isDone()) {
+            timeout(attempt);
+        }
+        attempt.whenComplete((result, error) -> {
+            if (error == null) {
+                connected();
                 return;
             }
-            scheduler.schedule(() -> {
-                try {
-                    this.tryConnect();
-                    retries = 0;
-                } catch (Exception e) {
-                    logger.warn("Could not connect to {}: {}", url, e.getMessage());
-                    onFailedAttempt.run();
-                    closeChannel();
-                    reconnect();
-                }
-
-            }, delay, TimeUnit.MILLISECONDS);
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            logger.warn("Could not connect to {}: {}", url, cause.getMessage());
+            closeChannel();
+            reconnect(cause instanceof Exception ? (Exception) cause : new StreamConnectionError(cause));
+        });
+        return attempt;
+    }
+
+    //a peer accepting the TCP connection but never answering would hold the attempt, and its admission, forever
+    private void timeout(CompletableFuture<Void> attempt) {
+        Runnable cancelTimeout;
+        try {
+            cancelTimeout = schedule(() -> attempt.completeExceptionally(
+                    new TimeoutException("Could not connect to " + url + " in " + connectTimeoutMillis + "ms")),
+                    connectTimeoutMillis, TimeUnit.MILLISECONDS);
         } catch (Exception e) {
-            logger.error("Error while scheduling reconnection", e);
+            logger.warn("Timer stopped, connection attempt to {} is not timed", url);
+            return;
         }
+        attempt.whenComplete((result, error) -> cancelTimeout.run());
     }
 
 
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Reactive Streams publisher backed by a single connection, the connection is opened when subscribed.
+ * Subscriber demand drives the reads: when it reaches zero reads are suspended, so the server is slowed down by TCP
+ * flow control, and resumed on {@link Subscription#request(long)}.
+ * Only the events already decoded from the last read are kept while waiting for demand.
+ * <p>
+ * On Java 9+ use {@code org.reactivestreams.FlowAdapters.toFlowPublisher} to get a {@code java.util.concurrent.Flow.Publisher}.
+ * Only one subscriber is allowed. Cancelling the subscription closes the connection.
+ *
+ * @param <T> the event type
+ */
+public class StreamPublisher<T> implements Publisher<T> {
+
+    private final Function<StreamPublisher<T>, StreamConnection> connector;
+    private final Queue<T> ready = new ConcurrentLinkedQueue<>();
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    private volatile Subscriber<? super T> subscriber;
+    private volatile StreamConnection connection;
+    private volatile boolean cancelled;
+    private volatile boolean done;
+    private Throwable error;
+    private boolean suspended; //only accessed from drain
+
+    /**
+     * @param connector creates the connection (not yet connected), feeding its events to this publisher
+     */
+    public StreamPublisher(Function<StreamPublisher<T>, StreamConnection> connector) {
+        this.connector = connector;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super T> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("Subscriber must not be null");
+        }
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("Only one subscriber is allowed"));
+            return;
+        }
+        this.subscriber = subscriber;
+        subscriber.onSubscribe(new DemandSubscription());
+        if (!cancelled) {
+            StreamConnection created = connector.apply(this);
+            this.connection = created;
+            created.connect();
+        }
+    }
+
+    /**
+     * @return The underlying connection, null until subscribed
+     */
+    public StreamConnection connection() {
+        return connection;
+    }
+
+    /**
+     * Called by the connection for each received event
+     */
+    public void next(T event) {
+        if (cancelled || done) {
+            return;
+        }
+        ready.offer(event);
+        drain();
+    }
+
+    /**
+     * Called by the connection when it will not reconnect anymore
+     */
+    public void complete() {
+        done = true;
+        drain();
+    }
+
+    public void error(Throwable error) {
+        if (done) {
+            return;
+        }
+        this.error = error;
+        done = true;
+        drain();
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            Subscriber<? super T> target = subscriber;
+            if (target != null) {
+                T event;
+                while (!cancelled && demand.get() > 0 && (event = ready.poll()) != null) {
+                    demand.decrementAndGet();
+                    target.onNext(event);
+                }
+                if (cancelled) {
+                    ready.clear();
+                } else if (done && ready.isEmpty()) {
+                    cancelled = true;
+                    if (error != null) {
+                        target.onError(error);
+                    } else {
+                        target.onComplete();
+                    }
+                } else {
+                    updateReads();
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void updateReads() {
+        StreamConnection current = connection;
+        if (current == null) {
+            return;
+        }
+        boolean noDemand = demand.get() == 0;
+        //pending events also suspend again, a reconnected channel starts with reads resumed
+        if (noDemand && (!suspended || !ready.isEmpty())) {
+            suspended = true;
+            current.suspendReads();
+        } else if (!noDemand && suspended && ready.isEmpty()) {
+            suspended = false;
+            current.resumeReads();
+        }
+    }
+
+    private class DemandSubscription implements Subscription {
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                ready.clear();
+                error(new IllegalArgumentException("Requested amount must be positive, got " + n));
+                terminate();
+                return;
+            }
+            long current;
+            long updated;
+            do {
+                current = demand.get();
+                updated = current + n < 0 ? Long.MAX_VALUE : current + n;
+            } while (!demand.compareAndSet(current, updated));
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            terminate();
+            drain();
+        }
+
+        private void terminate() {
+            StreamConnection current = connection;
+            if (current != null) {
+                current.terminate();
+            }
+        }
+    }
+}
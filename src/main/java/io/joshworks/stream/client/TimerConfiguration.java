@@ -0,0 +1,35 @@
+package io.joshworks.stream.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings of the timer shared by all connections, see {@link StreamClient#configure(TimerConfiguration)}
+ */
+public class TimerConfiguration {
+
+    long tickNanos = TimeUnit.MILLISECONDS.toNanos(10);
+    int wheelSize = 512;
+
+    /**
+     * @param tick the resolution of all timers, timeouts expire up to one tick late, default 10 milliseconds
+     */
+    public TimerConfiguration tick(long tick, TimeUnit unit) {
+        if (tick <= 0) {
+            throw new IllegalArgumentException("Tick must be greater than zero");
+        }
+        this.tickNanos = unit.toNanos(tick);
+        return this;
+    }
+
+    /**
+     * @param wheelSize the number of buckets, rounded up to a power of two, default 512.
+     *                  Timeouts longer than wheelSize * tick go around the wheel more than once
+     */
+    public TimerConfiguration wheelSize(int wheelSize) {
+        if (wheelSize <= 0 || wheelSize > 1 << 30) {
+            throw new IllegalArgumentException("Wheel size must be between 1 and 2^30");
+        }
+        this.wheelSize = wheelSize;
+        return this;
+    }
+}
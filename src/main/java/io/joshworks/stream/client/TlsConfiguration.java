@@ -0,0 +1,49 @@
+package io.joshworks.stream.client;
+
+import javax.net.ssl.SSLContext;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TLS settings shared by all https and wss connections, see {@link StreamClient#configure(TlsConfiguration)}
+ */
+public class TlsConfiguration {
+
+    final SSLContext sslContext;
+    int sessionCacheSize = 20480;
+    int sessionTimeoutSeconds = 86400;
+    String[] webSocketProtocols = {};
+
+    /**
+     * @param sslContext the context used by all connections, its client session cache is configured by this class
+     */
+    public TlsConfiguration(SSLContext sslContext) {
+        this.sslContext = sslContext;
+    }
+
+    /**
+     * @param sessionCacheSize the maximum number of sessions kept for resumption, one per host:port, default 20480
+     */
+    public TlsConfiguration sessionCacheSize(int sessionCacheSize) {
+        if (sessionCacheSize < 0) {
+            throw new IllegalArgumentException("Session cache size must not be negative");
+        }
+        this.sessionCacheSize = sessionCacheSize;
+        return this;
+    }
+
+    /**
+     * @param timeout how long a session can be resumed after it was created, default 24 hours
+     */
+    public TlsConfiguration sessionTimeout(long timeout, TimeUnit unit) {
+        this.sessionTimeoutSeconds = (int) Math.min(Integer.MAX_VALUE, unit.toSeconds(timeout));
+        return this;
+    }
+
+    /**
+     * @param protocols the protocols enabled for wss connections, all the ones of the context by default
+     */
+    public TlsConfiguration webSocketProtocols(String... protocols) {
+        this.webSocketProtocols = protocols;
+        return this;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Handshake counters of all the TLS connections of the client.
+ * A resumed handshake reuses a cached session of the same host:port, skipping the key exchange and certificate validation.
+ */
+public class TlsStatistics {
+
+    private final LongAdder fullHandshakes = new LongAdder();
+    private final LongAdder resumedHandshakes = new LongAdder();
+
+    void handshake(boolean resumed) {
+        if (resumed) {
+            resumedHandshakes.increment();
+        } else {
+            fullHandshakes.increment();
+        }
+    }
+
+    public long fullHandshakes() {
+        return fullHandshakes.sum();
+    }
+
+    public long resumedHandshakes() {
+        return resumedHandshakes.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "TlsStatistics{" +
+                "fullHandshakes=" + fullHandshakes() +
+                ", resumedHandshakes=" + resumedHandshakes() +
+                '}';
+    }
+}
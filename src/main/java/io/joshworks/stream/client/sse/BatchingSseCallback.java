@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client.sse;
+
+import org.xnio.XnioIoThread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Groups events into {@link SseClientCallback#onEvents(List)} calls.
+ * With no linger time a batch is delivered at the end of each read, otherwise it waits for more events
+ * until the linger time elapsed since its first event. Batches never go over the maximum size.
+ * Pending events are always delivered before open, close and error callbacks.
+ */
+class BatchingSseCallback extends SseClientCallback {
+
+    private final SseClientCallback delegate;
+    private final int maxBatchSize;
+    private final long lingerMillis;
+
+    private List<EventData> batch;
+    private long batchId;
+    private volatile XnioIoThread ioThread;
+
+    BatchingSseCallback(SseClientCallback delegate, int maxBatchSize, long lingerMillis) {
+        this.delegate = delegate;
+        this.maxBatchSize = maxBatchSize;
+        this.lingerMillis = lingerMillis;
+    }
+
+    /**
+     * @param ioThread the thread reading the current response, used to schedule the linger timeout
+     */
+    void ioThread(XnioIoThread ioThread) {
+        this.ioThread = ioThread;
+    }
+
+    @Override
+    public void onEvent(EventData event) {
+        add(event);
+    }
+
+    @Override
+    public void onRawEvent(RawEventData event) {
+        add(event.toEventData());
+    }
+
+    private void add(EventData event) {
+        List<EventData> full = null;
+        synchronized (this) {
+            if (batch == null) {
+                batch = new ArrayList<>(Math.min(maxBatchSize, 64));
+                scheduleLinger();
+            }
+            batch.add(event);
+            if (batch.size() >= maxBatchSize) {
+                full = take();
+            }
+        }
+        deliver(full);
+    }
+
+    private void scheduleLinger() {
+        XnioIoThread thread = ioThread;
+        if (lingerMillis > 0 && thread != null) {
+            long scheduledBatch = batchId;
+            thread.executeAfter(() -> flush(scheduledBatch), lingerMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Called at the end of each read, delivers the pending events unless they should linger
+     */
+    void readComplete() {
+        if (lingerMillis <= 0) {
+            flush();
+        }
+    }
+
+    private void flush(long scheduledBatch) {
+        List<EventData> events;
+        synchronized (this) {
+            //the batch that scheduled this timeout may have been flushed already
+            events = scheduledBatch == batchId ? take() : null;
+        }
+        deliver(events);
+    }
+
+    void flush() {
+        List<EventData> events;
+        synchronized (this) {
+            events = take();
+        }
+        deliver(events);
+    }
+
+    //swaps the pending batch out, the user callback runs after the lock is released
+    private List<EventData> take() {
+        List<EventData> events = batch;
+        if (events != null) {
+            batch = null;
+            batchId++;
+        }
+        return events;
+    }
+
+    private void deliver(List<EventData> events) {
+        if (events != null) {
+            delegate.onEvents(events);
+        }
+    }
+
+    @Override
+    public void onEvents(List<EventData> events) {
+        delegate.onEvents(events);
+    }
+
+    @Override
+    public void onOpen() {
+        flush();
+        delegate.onOpen();
+    }
+
+    @Override
+    public void onClose(String lastEventId) {
+        flush();
+        delegate.onClose(lastEventId);
+    }
+
+    @Override
+    public void onError(Exception e) {
+        flush();
+        delegate.onError(e);
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client.sse;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <a href="https://html.spec.whatwg.org/multipage/comms.html#server-sent-events">Interprets an event stream</a>
+ * straight from the read buffers. Line terminators and field names are matched at the byte level,
+ * values are handed to the dispatched {@link RawEventData} without copying and only decoded when accessed,
+ * with a fast path for ASCII content.
+ * Lines can be terminated by LF, CR or CRLF, and can be split across any number of buffers.
+ * <p>
+ * When events are recycled, the data buffer, the event and its views are reused for every event,
+ * so delivering an event to {@link SseClientCallback#onRawEvent(RawEventData)} allocates nothing in steady state.
+ * <p>
+ * Not thread safe, one instance per connection, driven by the connection IO thread.
+ */
+public class ByteEventStreamParser implements EventStreamDecoder {
+
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+    private static final byte COLON = ':';
+    private static final byte SPACE = ' ';
+
+    private static final byte[] DATA = Utf8.ascii("data");
+    private static final byte[] ID = Utf8.ascii("id");
+    private static final byte[] EVENT = Utf8.ascii("event");
+    private static final byte[] RETRY = Utf8.ascii("retry");
+
+    private static final Utf8Text DEFAULT_EVENT = Utf8Text.of(EventDispatchTable.DEFAULT_EVENT);
+    private static final Utf8Text ORIGIN = Utf8Text.of("");
+
+    //partial line, when a line spans multiple buffers (or the buffer is not array backed)
+    private byte[] line = new byte[256];
+    private int lineLength;
+    private boolean skipLineFeed;
+
+    //handed over to the dispatched event, a new array with the exact size is allocated for the next one.
+    //Kept when events are recycled
+    private byte[] data = Utf8.EMPTY;
+    private int dataLength;
+
+    private Utf8Text eventName;
+    //streams usually repeat a handful of event names, the recent ones are reused (with their decoded String)
+    private final Utf8Text[] eventNames = new Utf8Text[8];
+    private int nextEventName;
+    private CharSequence lastEventId;
+
+    //set when the event name has a handler in the dispatch table, or when it has none and should be discarded
+    private EventDispatchTable.Entry route;
+    private boolean discard;
+
+    private final SSEConnection connection;
+    private final EventDispatchTable dispatchTable;
+
+    //only used when events are recycled
+    private final RawEventData recycledEvent;
+    private final Utf8Text recycledData;
+    //id fields are written to the pending buffer, and copied to the dispatched one with their event,
+    //the connection (reconnections and checkpoints) only ever sees the id of a dispatched event
+    private final EventIdBuffer pendingEventId;
+    private final EventIdBuffer dispatchedEventId;
+
+    ByteEventStreamParser(SSEConnection connection) {
+        this.connection = connection;
+        this.lastEventId = connection.lastEventIdChars();
+        this.dispatchTable = connection.dispatchTable;
+        boolean recycle = connection.recycleEvents;
+        this.recycledEvent = recycle ? new RawEventData(null, null, null, null) : null;
+        this.recycledData = recycle ? new Utf8Text(Utf8.EMPTY, 0, 0) : null;
+        this.pendingEventId = recycle ? new EventIdBuffer() : null;
+        this.dispatchedEventId = recycle ? new EventIdBuffer() : null;
+    }
+
+    @Override
+    public void write(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            int offset = buffer.arrayOffset();
+            int position = buffer.position();
+            write(buffer.array(), offset + position, buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+        while (buffer.hasRemaining()) {
+            int available = Math.min(buffer.remaining(), 4096);
+            line = Utf8.ensureCapacity(line, lineLength + available);
+            int start = lineLength;
+            buffer.get(line, start, available);
+            lineLength = scanCopied(start, available);
+        }
+    }
+
+    /**
+     * Parses heap bytes in place, only the trailing incomplete line is copied
+     */
+    private void write(byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        int lineStart = offset;
+        for (int i = offset; i < end; i++) {
+            byte b = bytes[i];
+            if (b != LF && b != CR) {
+                continue;
+            }
+            if (skipLineFeed && b == LF && i == lineStart && lineLength == 0) {
+                skipLineFeed = false;
+                lineStart = i + 1;
+                continue;
+            }
+            skipLineFeed = b == CR;
+            if (lineLength > 0) {
+                appendToLine(bytes, lineStart, i - lineStart);
+                processLine(line, 0, lineLength);
+                lineLength = 0;
+            } else {
+                processLine(bytes, lineStart, i - lineStart);
+            }
+            lineStart = i + 1;
+        }
+        if (lineStart < end) {
+            skipLineFeed = false;
+            appendToLine(bytes, lineStart, end - lineStart);
+        }
+    }
+
+    /**
+     * Parses bytes that were already copied to the end of the line buffer
+     *
+     * @return the number of bytes left in the line buffer
+     */
+    private int scanCopied(int start, int length) {
+        int end = start + length;
+        int lineStart = 0;
+        for (int i = start; i < end; i++) {
+            byte b = line[i];
+            if (b != LF && b != CR) {
+                continue;
+            }
+            if (skipLineFeed && b == LF && i == lineStart) {
+                skipLineFeed = false;
+                lineStart = i + 1;
+                continue;
+            }
+            skipLineFeed = b == CR;
+            processLine(line, lineStart, i - lineStart);
+            lineStart = i + 1;
+        }
+        int remaining = end - lineStart;
+        if (remaining > 0) {
+            skipLineFeed = false;
+            if (lineStart > 0) {
+                System.arraycopy(line, lineStart, line, 0, remaining);
+            }
+        }
+        return remaining;
+    }
+
+    private void appendToLine(byte[] bytes, int offset, int length) {
+        line = Utf8.ensureCapacity(line, lineLength + length);
+        System.arraycopy(bytes, offset, line, lineLength, length);
+        lineLength += length;
+    }
+
+    private void processLine(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            dispatchEvent();
+            return;
+        }
+        if (bytes[offset] == COLON) {
+            return; //comment
+        }
+        int end = offset + length;
+        int colon = -1;
+        for (int i = offset; i < end; i++) {
+            if (bytes[i] == COLON) {
+                colon = i;
+                break;
+            }
+        }
+        if (colon == -1) {
+            processField(bytes, offset, length, end, 0);
+            return;
+        }
+        int valueStart = colon + 1;
+        if (valueStart < end && bytes[valueStart] == SPACE) {
+            valueStart++;
+        }
+        processField(bytes, offset, colon - offset, valueStart, end - valueStart);
+    }
+
+    private void processField(byte[] bytes, int fieldOffset, int fieldLength, int valueOffset, int valueLength) {
+        if (Utf8.equals(DATA, bytes, fieldOffset, fieldLength)) {
+            if (discard) {
+                return;
+            }
+            data = Utf8.ensureCapacity(data, dataLength + valueLength + 1);
+            System.arraycopy(bytes, valueOffset, data, dataLength, valueLength);
+            dataLength += valueLength;
+            data[dataLength++] = LF;
+        } else if (Utf8.equals(ID, bytes, fieldOffset, fieldLength)) {
+            if (pendingEventId != null) {
+                pendingEventId.set(bytes, valueOffset, valueLength);
+                lastEventId = pendingEventId;
+            } else {
+                lastEventId = Utf8Text.copyOf(bytes, valueOffset, valueLength);
+            }
+        } else if (Utf8.equals(EVENT, bytes, fieldOffset, fieldLength)) {
+            if (!dispatchTable.isEmpty() && routeEvent(bytes, valueOffset, valueLength)) {
+                return;
+            }
+            eventName = eventName(bytes, valueOffset, valueLength);
+        } else if (Utf8.equals(RETRY, bytes, fieldOffset, fieldLength) && Utf8.isNumber(bytes, valueOffset, valueLength)) {
+            connection.retry(Utf8.parseLong(bytes, valueOffset, valueLength));
+        }
+    }
+
+    private Utf8Text eventName(byte[] bytes, int offset, int length) {
+        for (Utf8Text name : eventNames) {
+            if (name != null && name.contentEquals(bytes, offset, length)) {
+                return name;
+            }
+        }
+        Utf8Text name = Utf8Text.copyOf(bytes, offset, length);
+        eventNames[nextEventName] = name;
+        nextEventName = (nextEventName + 1) % eventNames.length;
+        return name;
+    }
+
+    /**
+     * @return true if the event name was resolved from the dispatch table
+     */
+    private boolean routeEvent(byte[] bytes, int offset, int length) {
+        EventDispatchTable.Entry entry = dispatchTable.find(bytes, offset, length);
+        if (entry != null) {
+            route = entry;
+            eventName = entry.name;
+            discard = false;
+            return true;
+        }
+        //a previous event field of this same event may have set a route, the last event name wins
+        route = null;
+        if (dispatchTable.exclusive) {
+            //nobody subscribed to this event, drop anything buffered and ignore the remaining data lines
+            discard = true;
+            dataLength = 0;
+            return true;
+        }
+        return false;
+    }
+
+    private void dispatchEvent() {
+        if (eventName == null && !dispatchTable.isEmpty()) {
+            route = dispatchTable.defaultEntry();
+            discard = route == null && dispatchTable.exclusive;
+        }
+        if (lastEventId == pendingEventId && pendingEventId != null) {
+            dispatchedEventId.set(pendingEventId);
+            lastEventId = dispatchedEventId;
+        }
+        if (discard) {
+            connection.lastEventId(lastEventId);
+        }
+        if (dataLength == 0 || discard) {
+            resetEvent();
+            return;
+        }
+        RawEventData message = createEvent();
+        EventDispatchTable.Entry handler = route;
+        resetEvent();
+
+        connection.journal(message);
+        connection.lastEventId(lastEventId);
+        long start = connection.callbackStarted();
+        try {
+            if (handler != null) {
+                handler.handler.accept(message.toEventData());
+            } else {
+                connection.callback.onRawEvent(message);
+            }
+        } catch (Exception e) {
+            connection.callback.onError(e);
+        } finally {
+            connection.eventHandled(start);
+        }
+    }
+
+    private RawEventData createEvent() {
+        CharSequence event = eventName == null ? DEFAULT_EVENT : eventName;
+        //last line feed is not part of the data
+        int length = dataLength - 1;
+        if (recycledEvent != null) {
+            recycledEvent.reset(recycledData.reset(data, 0, length), lastEventId, event, ORIGIN);
+            return recycledEvent;
+        }
+        RawEventData message = new RawEventData(new Utf8Text(data, 0, length), lastEventId, event, ORIGIN);
+        data = Utf8.EMPTY;
+        return message;
+    }
+
+    private void resetEvent() {
+        dataLength = 0;
+        eventName = null;
+        route = null;
+        discard = false;
+    }
+
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client.sse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Persists the Last-Event-ID of SSE connections in a memory mapped file, so a connection can resume after a restart.
+ * <p>
+ * Each connection key (the url by default) owns a fixed size slot. Writing an id is a plain memory write on the IO thread,
+ * the file is forced to disk by a background thread, every {@code flushIntervalMillis} or after {@code flushEvery} writes.
+ * Each slot has two records written alternately, each one with a sequence and a checksum, so a torn write
+ * never loses the previous id.
+ * <p>
+ * Ids longer than {@value #MAX_ID_LENGTH} bytes are not persisted.
+ */
+public class CheckpointStore implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CheckpointStore.class);
+
+    static final int MAX_ID_LENGTH = 368;
+    static final int MAX_KEY_LENGTH = 254;
+
+    private static final int MAGIC = 0x53534543;
+    private static final int HEADER_SIZE = 16;
+    private static final int KEY_AREA = 256;
+    private static final int RECORD_SIZE = 8 + 4 + MAX_ID_LENGTH + 4;
+    private static final int SLOT_SIZE = KEY_AREA + 2 * RECORD_SIZE;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer mapped;
+    private final int slots;
+    private final int flushEvery;
+    private final Map<String, Checkpoint> checkpoints = new HashMap<>();
+    private final ScheduledExecutorService flusher;
+    private final AtomicInteger pendingWrites = new AtomicInteger();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final Runnable flushTask = this::flush;
+    private volatile boolean closed;
+
+    private CheckpointStore(Path file, int slots, long flushIntervalMillis, int flushEvery) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean existing = channel.size() >= HEADER_SIZE;
+        if (existing) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                channel.close();
+                throw new IOException("Not a checkpoint file: " + file);
+            }
+            header.getInt(); //version
+            slots = header.getInt();
+        }
+        this.slots = slots;
+        this.flushEvery = flushEvery;
+        this.mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) slots * SLOT_SIZE);
+        if (!existing) {
+            mapped.putInt(0, MAGIC);
+            mapped.putInt(4, 1);
+            mapped.putInt(8, slots);
+            mapped.force();
+        }
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "checkpoint-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens or creates a store with 64 slots, forced to disk every second or every 1000 writes
+     */
+    public static CheckpointStore open(Path file) throws IOException {
+        return open(file, 64, 1000, 1000);
+    }
+
+    /**
+     * @param file                the checkpoint file, created if it does not exist
+     * @param slots               the maximum number of connections, ignored if the file already exists
+     * @param flushIntervalMillis how often pending writes are forced to disk
+     * @param flushEvery          number of writes that triggers a flush before the interval elapses
+     */
+    public static CheckpointStore open(Path file, int slots, long flushIntervalMillis, int flushEvery) throws IOException {
+        if (slots <= 0 || flushIntervalMillis <= 0 || flushEvery <= 0) {
+            throw new IllegalArgumentException("Slots, flush interval and flush count must be greater than zero");
+        }
+        return new CheckpointStore(file, slots, flushIntervalMillis, flushEvery);
+    }
+
+    /**
+     * @return The last persisted id for the given key, null if none
+     */
+    public String read(String key) {
+        Checkpoint checkpoint = find(key, false);
+        return checkpoint == null ? null : checkpoint.read();
+    }
+
+    /**
+     * Returns the checkpoint of the given key, allocating a slot if needed
+     */
+    Checkpoint checkpoint(String key) {
+        return find(key, true);
+    }
+
+    private synchronized Checkpoint find(String key, boolean create) {
+        if (closed) {
+            throw new IllegalStateException("Checkpoint store is closed");
+        }
+        Checkpoint checkpoint = checkpoints.get(key);
+        if (checkpoint != null) {
+            return checkpoint;
+        }
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("Checkpoint key must not exceed " + MAX_KEY_LENGTH + " bytes");
+        }
+        int free = -1;
+        for (int slot = 0; slot < slots; slot++) {
+            int position = HEADER_SIZE + slot * SLOT_SIZE;
+            int length = mapped.getShort(position);
+            if (length == 0) {
+                free = free < 0 ? slot : free;
+            } else if (length == keyBytes.length && keyEquals(position + 2, keyBytes)) {
+                return register(key, new Checkpoint(slotBuffer(position)));
+            }
+        }
+        if (!create) {
+            return null;
+        }
+        if (free < 0) {
+            throw new IllegalStateException("No free checkpoint slot, maximum is " + slots);
+        }
+        int position = HEADER_SIZE + free * SLOT_SIZE;
+        for (int i = 0; i < keyBytes.length; i++) {
+            mapped.put(position + 2 + i, keyBytes[i]);
+        }
+        mapped.putShort(position, (short) keyBytes.length);
+        return register(key, new Checkpoint(slotBuffer(position)));
+    }
+
+    private Checkpoint register(String key, Checkpoint checkpoint) {
+        checkpoints.put(key, checkpoint);
+        return checkpoint;
+    }
+
+    private boolean keyEquals(int position, byte[] key) {
+        for (int i = 0; i < key.length; i++) {
+            if (mapped.get(position + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ByteBuffer slotBuffer(int position) {
+        ByteBuffer duplicate = mapped.duplicate();
+        duplicate.position(position).limit(position + SLOT_SIZE);
+        return duplicate.slice();
+    }
+
+    private void written() {
+        if (pendingWrites.incrementAndGet() >= flushEvery && flushRequested.compareAndSet(false, true)) {
+            try {
+                flusher.execute(flushTask);
+            } catch (RejectedExecutionException e) {
+                //closing, the remaining writes are flushed by close
+            }
+        }
+    }
+
+    /**
+     * Forces pending writes to disk
+     */
+    public void flush() {
+        flushRequested.set(false);
+        if (pendingWrites.getAndSet(0) > 0 && !closed) {
+            mapped.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        flusher.shutdown();
+        closed = true;
+        mapped.force();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.error("Error while closing checkpoint file", e);
+        }
+    }
+
+    /**
+     * The slot of a single connection, written by its IO thread only
+     */
+    final class Checkpoint {
+
+        private final ByteBuffer slot;
+        private final CRC32 crc = new CRC32();
+        private long sequence;
+        private Object lastWritten;
+
+        private Checkpoint(ByteBuffer slot) {
+            this.slot = slot;
+            this.sequence = Math.max(slot.getLong(KEY_AREA), slot.getLong(KEY_AREA + RECORD_SIZE));
+        }
+
+        /**
+         * Stores the id, decoded ids are encoded as UTF-8
+         */
+        void write(CharSequence eventId) {
+            if (eventId instanceof EventIdBuffer) {
+                //recycled, always the same instance
+                ((EventIdBuffer) eventId).writeTo(this);
+                return;
+            }
+            if (eventId == lastWritten) {
+                //same instance, events with no id field
+                return;
+            }
+            lastWritten = eventId;
+            if (eventId instanceof Utf8Text) {
+                Utf8Text text = (Utf8Text) eventId;
+                write(text.bytes, text.offset, text.length);
+            } else {
+                byte[] bytes = eventId.toString().getBytes(StandardCharsets.UTF_8);
+                write(bytes, 0, bytes.length);
+            }
+        }
+
+        synchronized void write(byte[] bytes, int offset, int length) {
+            if (closed || length > MAX_ID_LENGTH) {
+                return;
+            }
+            long next = sequence + 1;
+            int record = KEY_AREA + (int) (next & 1) * RECORD_SIZE;
+            crc.reset();
+            crc.update(bytes, offset, length);
+            slot.putLong(record, 0); //invalidates the record while writing
+            slot.putInt(record + 8, length);
+            for (int i = 0; i < length; i++) {
+                slot.put(record + 12 + i, bytes[offset + i]);
+            }
+            slot.putInt(record + 12 + MAX_ID_LENGTH, (int) crc.getValue());
+            slot.putLong(record, next);
+            sequence = next;
+            written();
+        }
+
+        /**
+         * @return The most recent valid id, null if none
+         */
+        synchronized String read() {
+            String first = read(KEY_AREA);
+            String second = read(KEY_AREA + RECORD_SIZE);
+            long firstSequence = first == null ? -1 : slot.getLong(KEY_AREA);
+            long secondSequence = second == null ? -1 : slot.getLong(KEY_AREA + RECORD_SIZE);
+            return firstSequence >= secondSequence ? first : second;
+        }
+
+        private String read(int record) {
+            long recordSequence = slot.getLong(record);
+            int length = slot.getInt(record + 8);
+            if (recordSequence <= 0 || length < 0 || length > MAX_ID_LENGTH) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = slot.get(record + 12 + i);
+            }
+            crc.reset();
+            crc.update(bytes, 0, length);
+            if ((int) crc.getValue() != slot.getInt(record + 12 + MAX_ID_LENGTH)) {
+                return null;
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client.sse;
+
+import io.joshworks.stream.client.DispatchQueue;
+
+import java.util.List;
+
+/**
+ * Hands every callback over to the connection {@link DispatchQueue}, so the user callback never runs on the IO thread.
+ */
+class DispatchingSseCallback extends SseClientCallback {
+
+    private final SseClientCallback delegate;
+    private final DispatchQueue queue;
+
+    DispatchingSseCallback(SseClientCallback delegate, DispatchQueue queue) {
+        this.delegate = delegate;
+        this.queue = queue;
+    }
+
+    @Override
+    public void onEvent(EventData event) {
+        queue.dispatch(() -> delegate.onEvent(event));
+    }
+
+    @Override
+    public void onRawEvent(RawEventData event) {
+        queue.dispatch(() -> delegate.onRawEvent(event));
+    }
+
+    @Override
+    public void onEvents(List<EventData> events) {
+        queue.dispatch(() -> delegate.onEvents(events));
+    }
+
+    @Override
+    public void onOpen() {
+        queue.dispatch(delegate::onOpen);
+    }
+
+    @Override
+    public void onClose(String lastEventId) {
+        queue.dispatch(() -> delegate.onClose(lastEventId));
+    }
+
+    @Override
+    public void onError(Exception e) {
+        queue.dispatch(() -> delegate.onError(e));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client.sse;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Handlers by event name, built once per connection. Lookups are made straight from the received bytes.
+ * When the table is exclusive (no catch all handler), events with no handler are discarded by the parser
+ * as soon as their name is known, their data is not even buffered.
+ */
+final class EventDispatchTable {
+
+    static final String DEFAULT_EVENT = "message";
+
+    static final EventDispatchTable EMPTY = new EventDispatchTable(new HashMap<>(), false);
+
+    private final Entry[] slots;
+    private final int mask;
+    private final Map<String, Entry> byName = new HashMap<>();
+    private final Entry defaultEntry;
+    final boolean exclusive;
+
+    /**
+     * @param handlers  the handler for each event name
+     * @param exclusive true if events with no handler should be discarded
+     */
+    EventDispatchTable(Map<String, Consumer<EventData>> handlers, boolean exclusive) {
+        this.exclusive = exclusive;
+        int capacity = Integer.highestOneBit(Math.max(handlers.size(), 1) * 4 - 1) << 1;
+        this.slots = new Entry[capacity];
+        this.mask = capacity - 1;
+        for (Map.Entry<String, Consumer<EventData>> handler : handlers.entrySet()) {
+            Entry entry = new Entry(Utf8Text.of(handler.getKey()), handler.getValue());
+            byName.put(handler.getKey(), entry);
+            int slot = hash(entry.name.bytes, 0, entry.name.length) & mask;
+            while (slots[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = entry;
+        }
+        this.defaultEntry = byName.get(DEFAULT_EVENT);
+    }
+
+    boolean isEmpty() {
+        return byName.isEmpty();
+    }
+
+    Entry find(byte[] bytes, int offset, int length) {
+        int slot = hash(bytes, offset, length) & mask;
+        Entry entry;
+        while ((entry = slots[slot]) != null) {
+            if (entry.name.contentEquals(bytes, offset, length)) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    Entry find(String eventName) {
+        return byName.get(eventName);
+    }
+
+    /**
+     * @return The entry for events with no name, if any
+     */
+    Entry defaultEntry() {
+        return defaultEntry;
+    }
+
+    /**
+     * @return A table with the same names and routing, each handler wrapped by the given function
+     */
+    EventDispatchTable map(UnaryOperator<Consumer<EventData>> wrapper) {
+        if (isEmpty()) {
+            return this;
+        }
+        Map<String, Consumer<EventData>> handlers = new HashMap<>();
+        for (Map.Entry<String, Entry> entry : byName.entrySet()) {
+            handlers.put(entry.getKey(), wrapper.apply(entry.getValue().handler));
+        }
+        return new EventDispatchTable(handlers, exclusive);
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = length;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    static final class Entry {
+        final Utf8Text name;
+        final Consumer<EventData> handler;
+
+        private Entry(Utf8Text name, Consumer<EventData> handler) {
+            this.name = name;
+            this.handler = handler;
+        }
+    }
+
+}
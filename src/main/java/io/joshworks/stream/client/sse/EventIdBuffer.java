@@ -0,0 +1,70 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client.sse;
+
+/**
+ * Reusable holder for an event id, used when events are recycled.
+ * Written by the IO thread, and decoded only when read.
+ * The connection can read it from other threads (close, reconnect), so access is guarded by this instance.
+ */
+final class EventIdBuffer implements CharSequence {
+
+    private byte[] bytes = new byte[64];
+    private int length;
+    private String decoded;
+
+    synchronized void set(byte[] value, int offset, int valueLength) {
+        bytes = Utf8.ensureCapacity(bytes, valueLength);
+        System.arraycopy(value, offset, bytes, 0, valueLength);
+        length = valueLength;
+        decoded = null;
+    }
+
+    synchronized void set(EventIdBuffer other) {
+        synchronized (other) {
+            set(other.bytes, 0, other.length);
+        }
+    }
+
+    synchronized void writeTo(CheckpointStore.Checkpoint checkpoint) {
+        checkpoint.write(bytes, 0, length);
+    }
+
+    @Override
+    public int length() {
+        return toString().length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public synchronized String toString() {
+        if (decoded == null) {
+            decoded = Utf8.decode(bytes, 0, length);
+        }
+        return decoded;
+    }
+}
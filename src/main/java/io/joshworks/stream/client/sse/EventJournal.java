@@ -0,0 +1,370 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client.sse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append only log of the events received by a connection, kept in memory mapped segment files.
+ * <p>
+ * Appending copies the event bytes into the current segment on the IO thread, with no syscall besides rolling a new segment.
+ * Events already appended survive a process crash, as they live in the OS page cache. An in memory index maps each
+ * event id to its position, so events can be replayed after a given id, or from a point in time, without a new upstream
+ * connection. Replay runs on the caller thread, reading the mapped segments directly.
+ * <p>
+ * Retention limits are applied when a new segment is rolled, the current segment is never deleted.
+ * A journal belongs to a single connection, see {@link SseConfiguration#journal(EventJournal)}.
+ */
+public class EventJournal implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventJournal.class);
+
+    private static final String EXTENSION = ".log";
+    private static final int RECORD_HEADER = 8; //length + crc
+    private static final int NO_ID = -1;
+    private static final Utf8Text DEFAULT_EVENT = Utf8Text.of(EventDispatchTable.DEFAULT_EVENT);
+
+    private final JournalConfiguration configuration;
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private final Map<Utf8Text, Long> index = new ConcurrentHashMap<>();
+    private final CRC32 crc = new CRC32();
+    private Segment current;
+    private volatile boolean closed;
+
+    private EventJournal(JournalConfiguration configuration) throws IOException {
+        this.configuration = configuration;
+        Files.createDirectories(configuration.directory);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(configuration.directory, "*" + EXTENSION)) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+        for (Path file : files) {
+            Segment segment = Segment.map(file, segmentNumber(file), Files.size(file));
+            recover(segment);
+            segments.add(segment);
+        }
+        if (segments.isEmpty()) {
+            roll(0);
+        } else {
+            current = segments.get(segments.size() - 1);
+            applyRetention();
+        }
+    }
+
+    public static EventJournal open(JournalConfiguration configuration) throws IOException {
+        return new EventJournal(configuration);
+    }
+
+    /**
+     * Appends a decoded event, uses the current time
+     */
+    public boolean append(EventData event) {
+        return append(new RawEventData(event));
+    }
+
+    /**
+     * Appends the event bytes, the event is not decoded
+     *
+     * @return false if the event is bigger than a segment, and was not journaled
+     */
+    synchronized boolean append(RawEventData event) {
+        if (closed) {
+            return false;
+        }
+        Utf8Text id = text(event.idChars());
+        Utf8Text name = text(event.eventChars());
+        Utf8Text data = text(event.dataChars());
+        int idLength = id == null ? 0 : id.length;
+        int bodyLength = 8 + 4 + idLength + 4 + name.length + 4 + data.length;
+        int recordLength = RECORD_HEADER + bodyLength;
+        if (recordLength > configuration.segmentSize) {
+            logger.warn("Event of {} bytes is bigger than the journal segment size, not journaled", recordLength);
+            return false;
+        }
+        if (current.writePosition + recordLength > current.capacity) {
+            try {
+                roll(current.number + 1);
+            } catch (IOException e) {
+                logger.error("Could not create journal segment, event not journaled", e);
+                return false;
+            }
+        }
+        int position = current.writePosition;
+        ByteBuffer writer = current.writer;
+        writer.position(position + RECORD_HEADER);
+        writer.putLong(System.currentTimeMillis());
+        writer.putInt(id == null ? NO_ID : idLength);
+        if (id != null) {
+            writer.put(id.bytes, id.offset, id.length);
+        }
+        writer.putInt(name.length);
+        writer.put(name.bytes, name.offset, name.length);
+        writer.putInt(data.length);
+        writer.put(data.bytes, data.offset, data.length);
+
+        writer.putInt(position + 4, checksum(current.buffer, position + RECORD_HEADER, bodyLength));
+        //length goes last, a record interrupted by a crash reads as the end of the segment
+        writer.putInt(position, bodyLength);
+        current.lastTimestamp = Math.max(current.lastTimestamp, writer.getLong(position + RECORD_HEADER));
+        current.writePosition = position + recordLength;
+
+        if (id != null && id.length > 0) {
+            //events with no id keep the last one, resuming from an id starts after its first event
+            index.putIfAbsent(id, address(current.number, position));
+        }
+        return true;
+    }
+
+    /**
+     * Replays the events received after the event with the given id
+     *
+     * @return the number of events replayed, -1 if the id is not in the journal
+     */
+    public long replay(String afterId, Consumer<EventData> consumer) {
+        Long address = index.get(Utf8Text.of(afterId));
+        if (address == null) {
+            return -1;
+        }
+        return replay(segmentOf(address), offsetOf(address), true, Long.MIN_VALUE, consumer);
+    }
+
+    /**
+     * Replays the events received at or after the given time
+     *
+     * @return the number of events replayed
+     */
+    public long replay(long fromTimestamp, Consumer<EventData> consumer) {
+        return replay(Long.MIN_VALUE, 0, false, fromTimestamp, consumer);
+    }
+
+    /**
+     * Replays all the events kept by the journal
+     *
+     * @return the number of events replayed
+     */
+    public long replayAll(Consumer<EventData> consumer) {
+        return replay(Long.MIN_VALUE, 0, false, Long.MIN_VALUE, consumer);
+    }
+
+    private long replay(long fromSegment, int fromOffset, boolean skipFirst, long fromTimestamp, Consumer<EventData> consumer) {
+        long replayed = 0;
+        for (Segment segment : segments) {
+            if (segment.number < fromSegment || segment.lastTimestamp < fromTimestamp) {
+                continue;
+            }
+            //the segment of the id may have been deleted by retention
+            skipFirst = skipFirst && segment.number == fromSegment;
+            ByteBuffer reader = segment.buffer.duplicate();
+            int position = segment.number == fromSegment ? fromOffset : 0;
+            int limit = segment.writePosition;
+            while (position < limit) {
+                int bodyLength = reader.getInt(position);
+                reader.position(position + RECORD_HEADER);
+                long timestamp = reader.getLong();
+                position += RECORD_HEADER + bodyLength;
+                if (skipFirst) {
+                    skipFirst = false;
+                    continue;
+                }
+                if (timestamp < fromTimestamp) {
+                    continue;
+                }
+                int idLength = reader.getInt();
+                String id = idLength == NO_ID ? null : read(reader, idLength);
+                String event = read(reader, reader.getInt());
+                String data = read(reader, reader.getInt());
+                consumer.accept(new EventData(data, id, event, ""));
+                replayed++;
+            }
+        }
+        return replayed;
+    }
+
+    /**
+     * @return The number of ids in the index
+     */
+    public int indexSize() {
+        return index.size();
+    }
+
+    /**
+     * @return The number of segment files
+     */
+    public int segments() {
+        return segments.size();
+    }
+
+    /**
+     * Forces the current segment to disk, only needed to survive an OS crash
+     */
+    public synchronized void flush() {
+        if (!closed) {
+            current.buffer.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        flush();
+        closed = true;
+    }
+
+    private void roll(long number) throws IOException {
+        Path file = configuration.directory.resolve(String.format("%020d%s", number, EXTENSION));
+        Segment segment = Segment.map(file, number, configuration.segmentSize);
+        segments.add(segment);
+        current = segment;
+        applyRetention();
+    }
+
+    private void applyRetention() {
+        long now = System.currentTimeMillis();
+        while (segments.size() > 1) {
+            Segment oldest = segments.get(0);
+            boolean overSize = configuration.retentionSize > 0 && totalSize() > configuration.retentionSize;
+            boolean expired = configuration.retentionMillis > 0 && oldest.lastTimestamp < now - configuration.retentionMillis;
+            if (!overSize && !expired) {
+                return;
+            }
+            segments.remove(0);
+            index.values().removeIf(address -> segmentOf(address) == oldest.number);
+            try {
+                //readers still replaying it keep their mapping
+                Files.deleteIfExists(oldest.file);
+            } catch (IOException e) {
+                logger.error("Could not delete journal segment {}", oldest.file, e);
+            }
+        }
+    }
+
+    private long totalSize() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.capacity;
+        }
+        return size;
+    }
+
+    private void recover(Segment segment) {
+        ByteBuffer reader = segment.buffer.duplicate();
+        int position = 0;
+        while (position + RECORD_HEADER <= segment.capacity) {
+            int bodyLength = reader.getInt(position);
+            if (bodyLength <= 0 || position + RECORD_HEADER + bodyLength > segment.capacity) {
+                break;
+            }
+            if (checksum(segment.buffer, position + RECORD_HEADER, bodyLength) != reader.getInt(position + 4)) {
+                logger.warn("Corrupted record in journal segment {} at {}, ignoring the rest of the segment", segment.file, position);
+                break;
+            }
+            reader.position(position + RECORD_HEADER);
+            segment.lastTimestamp = Math.max(segment.lastTimestamp, reader.getLong());
+            int idLength = reader.getInt();
+            if (idLength > 0) {
+                byte[] id = new byte[idLength];
+                reader.get(id);
+                index.putIfAbsent(new Utf8Text(id, 0, idLength), address(segment.number, position));
+            }
+            position += RECORD_HEADER + bodyLength;
+        }
+        segment.writePosition = position;
+    }
+
+    private int checksum(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer body = buffer.duplicate();
+        body.limit(offset + length).position(offset);
+        crc.reset();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    private static String read(ByteBuffer reader, int length) {
+        byte[] bytes = new byte[length];
+        reader.get(bytes);
+        return Utf8.decode(bytes, 0, length);
+    }
+
+    private static Utf8Text text(CharSequence value) {
+        if (value == null || value instanceof Utf8Text) {
+            return (Utf8Text) value;
+        }
+        String string = value.toString();
+        return EventDispatchTable.DEFAULT_EVENT.equals(string) ? DEFAULT_EVENT : Utf8Text.of(string);
+    }
+
+    private static long address(long segment, int offset) {
+        return (segment << 32) | offset;
+    }
+
+    private static long segmentOf(long address) {
+        return address >>> 32;
+    }
+
+    private static int offsetOf(long address) {
+        return (int) address;
+    }
+
+    private static long segmentNumber(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - EXTENSION.length()));
+    }
+
+    private static final class Segment {
+        private final Path file;
+        private final long number;
+        private final MappedByteBuffer buffer;
+        private final ByteBuffer writer;
+        private final int capacity;
+        private volatile int writePosition;
+        private volatile long lastTimestamp = Long.MIN_VALUE;
+
+        private Segment(Path file, long number, MappedByteBuffer buffer) {
+            this.file = file;
+            this.number = number;
+            this.buffer = buffer;
+            this.writer = buffer.duplicate();
+            this.capacity = buffer.capacity();
+        }
+
+        private static Segment map(Path file, long number, long size) throws IOException {
+            //the mapping stays valid after the channel is closed
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return new Segment(file, number, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            }
+        }
+    }
+}
@@ -17,6 +17,7 @@
 
 package io.joshworks.stream.client.sse;
 
+import io.joshworks.stream.client.ConnectionMetrics;
 import io.undertow.connector.ByteBufferPool;
 import io.undertow.connector.PooledByteBuffer;
 import org.slf4j.Logger;
@@ -35,12 +36,42 @@ public class EventStreamChannelListener implements ChannelListener<StreamSourceC
 
     private static final Logger logger = LoggerFactory.getLogger(EventStreamChannelListener.class);
 
-    private final UTF8Output string;
+    private final EventStreamDecoder decoder;
     private final ByteBufferPool bufferPool;
+    private final Runnable readComplete;
+    private final Runnable endOfStream;
+    private final ConnectionMetrics metrics;
+    private volatile long lastRead = System.nanoTime();
 
-    public EventStreamChannelListener(final ByteBufferPool bufferPool, UTF8Output utf8Output) {
+    public EventStreamChannelListener(final ByteBufferPool bufferPool, EventStreamDecoder decoder) {
+        this(bufferPool, decoder, () -> {});
+    }
+
+    /**
+     * @param readComplete called after each pass over the available data, once all the events it contained were parsed
+     */
+    public EventStreamChannelListener(final ByteBufferPool bufferPool, EventStreamDecoder decoder, Runnable readComplete) {
+        this(bufferPool, decoder, readComplete, () -> {});
+    }
+
+    /**
+     * @param endOfStream called once the server ended the stream, after the channel is closed.
+     *                    HTTP/2 streams do not call the close listener of a fully read channel
+     */
+    public EventStreamChannelListener(final ByteBufferPool bufferPool, EventStreamDecoder decoder, Runnable readComplete, Runnable endOfStream) {
+        this(bufferPool, decoder, readComplete, endOfStream, new ConnectionMetrics());
+    }
+
+    /**
+     * @param metrics records the size and parse time of each read
+     */
+    public EventStreamChannelListener(final ByteBufferPool bufferPool, EventStreamDecoder decoder, Runnable readComplete,
+                                      Runnable endOfStream, ConnectionMetrics metrics) {
+        this.metrics = metrics;
         this.bufferPool = bufferPool;
-        this.string = utf8Output;
+        this.decoder = decoder;
+        this.readComplete = readComplete;
+        this.endOfStream = endOfStream;
     }
 
     @Override
@@ -48,10 +79,18 @@ public class EventStreamChannelListener implements ChannelListener<StreamSourceC
         process(channel);
     }
 
+    /**
+     * @return The {@link System#nanoTime()} of the last read that received data, comments and keep alive lines included
+     */
+    public long lastRead() {
+        return lastRead;
+    }
+
     public void setup(final StreamSourceChannel channel) {
-        process(channel);
+        lastRead = System.nanoTime();
         channel.getReadSetter().set(this);
         channel.resumeReads();
+        process(channel);
     }
 
     private void process(final StreamSourceChannel channel) {
@@ -65,15 +104,20 @@ public class EventStreamChannelListener implements ChannelListener<StreamSourceC
                     return;
                 } else if (read == -1) {
                     IoUtils.safeClose(channel);
+                    endOfStream.run();
                 } else {
+                    long start = System.nanoTime();
+                    lastRead = start;
                     buffer.flip();
-                    string.write(buffer);
+                    decoder.write(buffer);
+                    metrics.read(read, start);
                 }
-            } while (read > 0);
+            } while (read > 0 && channel.isReadResumed()); //reads may be suspended by the dispatch queue
         } catch (IOException e) {
             logger.error(e.getMessage(), e);
         } finally {
             resource.close();
+            readComplete.run();
         }
     }
 
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client.sse;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Consumes the raw bytes of an event stream as they are read from the channel.
+ * Implementations must consume all the remaining bytes of the given buffer.
+ */
+public interface EventStreamDecoder {
+
+    void write(ByteBuffer buffer);
+
+}
@@ -26,7 +26,7 @@ public class EventStreamParser {
     private static final String DATA = "data";
     private static final String ID = "id";
     private static final String EVENT = "event";
-    private static final String RETRY = "autoReconnect";
+    private static final String RETRY = "retry";
 
     private static final String DEFAULT_EVENT = "message";
     private static final String LINE_BREAK = "\n";
@@ -36,7 +36,7 @@ public class EventStreamParser {
     private static final Pattern NUMERIC = Pattern.compile("^[\\d]+$");
 
 
-    private StringBuffer data = new StringBuffer();
+    private final StringBuilder data = new StringBuilder();
     private String lastEventId;
     private String eventName = DEFAULT_EVENT;
     private String origin = "";
@@ -77,7 +77,7 @@ public class EventStreamParser {
         } else if (EVENT.equals(field)) {
             eventName = value;
         } else if (RETRY.equals(field) && isNumber(value)) {
-            connection.retryAfter(Long.parseLong(value));
+            connection.retry(Long.parseLong(value));
         }
     }
 
@@ -95,13 +95,22 @@ public class EventStreamParser {
                 removeLineBreak(eventName),
                 removeLineBreak(origin));
 
-        connection.lastEventId = removeLineBreak(lastEventId);
+        connection.journal(new RawEventData(message));
+        connection.lastEventId(removeLineBreak(lastEventId));
+        EventDispatchTable.Entry handler = connection.dispatchTable.find(message.event);
+        long start = connection.callbackStarted();
         try {
-            connection.callback.onEvent(message);
+            if (handler != null) {
+                handler.handler.accept(message);
+            } else if (!connection.dispatchTable.exclusive) {
+                connection.callback.onRawEvent(new RawEventData(message));
+            }
         } catch (Exception e) {
             connection.callback.onError(e);
+        } finally {
+            connection.eventHandled(start);
         }
-        data = new StringBuffer();
+        data.setLength(0);
         eventName = DEFAULT_EVENT;
     }
 
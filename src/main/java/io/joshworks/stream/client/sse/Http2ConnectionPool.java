@@ -0,0 +1,234 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client.sse;
+
+import io.undertow.UndertowOptions;
+import io.undertow.client.ClientConnection;
+import io.undertow.connector.ByteBufferPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.XnioWorker;
+import org.xnio.ssl.XnioSsl;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * HTTP/2 connections shared by the event streams of the same origin, each event stream is a stream of the connection.
+ * A connection is opened by the first event stream and closed when the last one releases it.
+ * When a connection dies, all of its event streams are closed and reconnect, the first one opens a new connection.
+ * <p>
+ * The HTTP/2 client of Undertow 1.4 answers data frames of a stream it has already reset with a GOAWAY, so closing
+ * a stream while the server is still writing to it can take the connection down. The other streams then reconnect
+ * with their Last-Event-ID, as with any other connection failure.
+ */
+final class Http2ConnectionPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(Http2ConnectionPool.class);
+
+    private static final OptionMap HTTP2_OPTIONS = OptionMap.create(UndertowOptions.ENABLE_HTTP2, true);
+    private static final Map<String, Origin> origins = new ConcurrentHashMap<>();
+
+    private Http2ConnectionPool() {
+
+    }
+
+    /**
+     * Returns the connection of the origin of the given url, connecting if needed.
+     * Event streams acquiring while the connection is being opened wait for the same connection.
+     */
+    static CompletableFuture<Lease> acquire(String url, HttpProtocol protocol, XnioWorker worker, XnioSsl ssl, ByteBufferPool bufferPool) {
+        URI uri = URI.create(url);
+        URI origin = origin(uri, protocol);
+        Origin shared = origins.computeIfAbsent(origin.toString(), Origin::new);
+        CompletableFuture<ClientConnection> connecting;
+        synchronized (shared) {
+            if (shared.connection != null && shared.connection.isOpen()) {
+                return CompletableFuture.completedFuture(shared.leased(shared.connection));
+            }
+            if (shared.connecting == null || shared.connecting.isDone()) {
+                //waiters lease the connection only once the origin has been updated
+                shared.connecting = SSEConnection.openConnection(origin, worker, ssl, bufferPool, HTTP2_OPTIONS)
+                        .whenComplete((connection, error) -> shared.connected(connection));
+            }
+            connecting = shared.connecting;
+        }
+        return connecting.thenCompose(connection -> shared.lease(connection, origin, worker, ssl, bufferPool));
+    }
+
+    /**
+     * @return The number of origins with an open connection
+     */
+    static int connections() {
+        int open = 0;
+        for (Origin origin : origins.values()) {
+            synchronized (origin) {
+                open += origin.connection != null && origin.connection.isOpen() ? 1 : 0;
+            }
+        }
+        return open;
+    }
+
+    private static URI origin(URI uri, HttpProtocol protocol) {
+        boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+        if (protocol == HttpProtocol.HTTP_2_PRIOR_KNOWLEDGE && secure) {
+            throw new IllegalArgumentException("HTTP/2 prior knowledge is only supported for http urls");
+        }
+        String scheme = secure ? "h2" : protocol == HttpProtocol.HTTP_2_PRIOR_KNOWLEDGE ? "h2c-prior" : "h2c";
+        int port = uri.getPort() != -1 ? uri.getPort() : secure ? 443 : 80;
+        try {
+            return new URI(scheme, null, uri.getHost(), port, null, null, null);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static final class Origin {
+        private final String uri;
+        private ClientConnection connection;
+        private CompletableFuture<ClientConnection> connecting;
+        private ClientConnection dedicated; //not multiplexed, taken by the first waiting event stream
+        private final Set<Lease> live = new HashSet<>();
+        private int leases;
+
+        private Origin(String uri) {
+            this.uri = uri;
+        }
+
+        private synchronized void connected(ClientConnection opened) {
+            connecting = null;
+            if (opened == null) {
+                return;
+            }
+            if (opened.isMultiplexingSupported()) {
+                connection = opened;
+                //the response channels of the streams are not closed with the connection
+                opened.addCloseListener(this::connectionClosed);
+            } else {
+                logger.warn("{} does not support HTTP/2, using one connection per event stream", uri);
+                dedicated = opened;
+            }
+        }
+
+        private void connectionClosed(ClientConnection closed) {
+            List<Lease> affected = new ArrayList<>();
+            synchronized (this) {
+                for (Lease lease : live) {
+                    if (lease.connection == closed) {
+                        affected.add(lease);
+                    }
+                }
+            }
+            for (Lease lease : affected) {
+                lease.connectionClosed();
+            }
+        }
+
+        private Lease leased(ClientConnection opened) {
+            leases++;
+            Lease lease = new Lease(this, opened);
+            live.add(lease);
+            return lease;
+        }
+
+        private CompletableFuture<Lease> lease(ClientConnection opened, URI origin, XnioWorker worker, XnioSsl ssl, ByteBufferPool bufferPool) {
+            synchronized (this) {
+                if (opened.isMultiplexingSupported()) {
+                    return CompletableFuture.completedFuture(leased(opened));
+                }
+                if (dedicated == opened) {
+                    dedicated = null;
+                    return CompletableFuture.completedFuture(new Lease(null, opened));
+                }
+            }
+            return SSEConnection.openConnection(origin, worker, ssl, bufferPool, HTTP2_OPTIONS).thenApply(own -> new Lease(null, own));
+        }
+    }
+
+    /**
+     * The connection used by a single event stream
+     */
+    static final class Lease {
+        private final Origin origin; //null when not multiplexed
+        final ClientConnection connection;
+        private boolean released;
+        private Runnable onConnectionClosed;
+
+        private Lease(Origin origin, ClientConnection connection) {
+            this.origin = origin;
+            this.connection = connection;
+        }
+
+        /**
+         * @param onConnectionClosed called once if the shared connection is closed before this lease is released
+         */
+        void onConnectionClosed(Runnable onConnectionClosed) {
+            boolean closed;
+            synchronized (this) {
+                this.onConnectionClosed = onConnectionClosed;
+                closed = !connection.isOpen();
+            }
+            if (closed) {
+                connectionClosed();
+            }
+        }
+
+        private void connectionClosed() {
+            Runnable task;
+            synchronized (this) {
+                task = onConnectionClosed;
+                onConnectionClosed = null;
+            }
+            if (task != null) {
+                task.run();
+            }
+        }
+
+        /**
+         * Closes the connection if this was the last event stream using it
+         */
+        void release() {
+            if (origin == null) {
+                IoUtils.safeClose(connection);
+                return;
+            }
+            synchronized (origin) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                origin.live.remove(this);
+                //leases of a dead connection are counted until released, the replacement is closed by the last one
+                if (--origin.leases == 0 && origin.connection != null) {
+                    logger.info("Closing HTTP/2 connection to {}, no event streams left", origin.uri);
+                    IoUtils.safeClose(origin.connection);
+                    origin.connection = null;
+                }
+            }
+        }
+    }
+}
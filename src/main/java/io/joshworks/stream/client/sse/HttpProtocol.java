@@ -0,0 +1,43 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client.sse;
+
+/**
+ * Selects the HTTP version of the event stream requests.
+ */
+public enum HttpProtocol {
+
+    /**
+     * One connection per event stream. This is the default.
+     */
+    HTTP_1_1,
+
+    /**
+     * Event streams to the same origin are multiplexed as separate streams of a single HTTP/2 connection.
+     * Negotiated with ALPN for https, or with an upgrade request for http.
+     * Falls back to one connection per event stream if the server does not support HTTP/2.
+     */
+    HTTP_2,
+
+    /**
+     * Same as {@link #HTTP_2}, for http only, starts HTTP/2 right away without an upgrade request (h2c prior knowledge).
+     * The server must support HTTP/2 on this port.
+     */
+    HTTP_2_PRIOR_KNOWLEDGE
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client.sse;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings of an {@link EventJournal}
+ */
+public class JournalConfiguration {
+
+    final Path directory;
+    int segmentSize = 64 * 1024 * 1024;
+    long retentionSize = -1;
+    long retentionMillis = -1;
+
+    /**
+     * @param directory where the segment files are kept, one directory per journal
+     */
+    public JournalConfiguration(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param segmentSize the size of each segment file in bytes, default 64MB. Events bigger than a segment are not journaled
+     */
+    public JournalConfiguration segmentSize(int segmentSize) {
+        if (segmentSize < 1024) {
+            throw new IllegalArgumentException("Segment size must be at least 1024 bytes");
+        }
+        this.segmentSize = segmentSize;
+        return this;
+    }
+
+    /**
+     * @param maxBytes the oldest segments are deleted when the journal goes over this size, disabled by default
+     */
+    public JournalConfiguration retentionSize(long maxBytes) {
+        this.retentionSize = maxBytes;
+        return this;
+    }
+
+    /**
+     * @param maxAge segments with only events older than this are deleted, disabled by default
+     */
+    public JournalConfiguration retentionAge(long maxAge, TimeUnit unit) {
+        this.retentionMillis = unit.toMillis(maxAge);
+        return this;
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client.sse;
+
+/**
+ * Selects how the event stream is parsed.
+ */
+public enum ParserMode {
+
+    /**
+     * Scans the read buffers for line terminators and field names at the byte level,
+     * decoding UTF-8 only for the values that are delivered. This is the default.
+     */
+    BYTES,
+
+    /**
+     * Decodes every byte into a String line before parsing it. Kept as a fallback.
+     */
+    LEGACY
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client.sse;
+
+import io.joshworks.stream.client.PartitionedDispatchQueue;
+
+import java.util.function.Function;
+
+/**
+ * Hands every event over to the lane of its key, events with the same key are delivered in order.
+ * The key is extracted on the IO thread. Close runs after the events queued in every lane.
+ */
+class PartitionedSseCallback extends SseClientCallback {
+
+    private final SseClientCallback delegate;
+    private final PartitionedDispatchQueue queue;
+    private final Function<EventData, ?> partitionKey;
+
+    PartitionedSseCallback(SseClientCallback delegate, PartitionedDispatchQueue queue, Function<EventData, ?> partitionKey) {
+        this.delegate = delegate;
+        this.queue = queue;
+        this.partitionKey = partitionKey;
+    }
+
+    @Override
+    public void onEvent(EventData event) {
+        queue.dispatch(partitionKey.apply(event), () -> delegate.onEvent(event));
+    }
+
+    @Override
+    public void onRawEvent(RawEventData event) {
+        //decoded once, the delegate gets the same cached instance from toEventData()
+        queue.dispatch(partitionKey.apply(event.toEventData()), () -> delegate.onRawEvent(event));
+    }
+
+    @Override
+    public void onOpen() {
+        queue.dispatch(delegate::onOpen);
+    }
+
+    @Override
+    public void onClose(String lastEventId) {
+        queue.dispatchAfterAll(() -> delegate.onClose(lastEventId));
+    }
+
+    @Override
+    public void onError(Exception e) {
+        queue.dispatch(() -> delegate.onError(e));
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client.sse;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An event backed by the bytes received from the server. Fields are only decoded to String on first access,
+ * so events that are discarded after checking its name with {@link #isEvent(String)} do not allocate any String.
+ * <p>
+ * The {@link CharSequence} views read ASCII content straight from the bytes.
+ * The {@link ByteBuffer} views are read only and share the event bytes, no copy is made.
+ * <p>
+ * When events are recycled ({@link SseConfiguration#recycleEvents(boolean)}) the same instance is refilled
+ * for every event. It is then only valid until the callback returns, including all the views it returned.
+ * It must not be retained or handed to another thread, use {@link #toEventData()} or copy the buffers to keep it.
+ */
+public class RawEventData {
+
+    private CharSequence data;
+    private CharSequence id;
+    private CharSequence event;
+    private CharSequence origin;
+
+    private EventData decoded;
+
+    RawEventData(CharSequence data, CharSequence id, CharSequence event, CharSequence origin) {
+        this.data = data;
+        this.id = id;
+        this.event = event;
+        this.origin = origin;
+    }
+
+    RawEventData(EventData eventData) {
+        this(eventData.data, eventData.id, eventData.event, eventData.origin);
+        this.decoded = eventData;
+    }
+
+    /**
+     * Refills a recycled event
+     */
+    void reset(CharSequence data, CharSequence id, CharSequence event, CharSequence origin) {
+        this.data = data;
+        this.id = id;
+        this.event = event;
+        this.origin = origin;
+        this.decoded = null;
+    }
+
+    public String data() {
+        return asString(data);
+    }
+
+    public String id() {
+        return asString(id);
+    }
+
+    public String event() {
+        return asString(event);
+    }
+
+    public String origin() {
+        return asString(origin);
+    }
+
+    public CharSequence dataChars() {
+        return data;
+    }
+
+    public CharSequence idChars() {
+        return id;
+    }
+
+    public CharSequence eventChars() {
+        return event;
+    }
+
+    /**
+     * @return A read only view of the UTF-8 bytes of data
+     */
+    public ByteBuffer dataBuffer() {
+        return asBuffer(data);
+    }
+
+    /**
+     * @return A read only view of the UTF-8 bytes of the event id, or null if no id was received
+     */
+    public ByteBuffer idBuffer() {
+        return asBuffer(id);
+    }
+
+    /**
+     * Checks the event name without decoding it
+     *
+     * @param eventName the event name to compare to
+     * @return true if this event has the given name
+     */
+    public boolean isEvent(String eventName) {
+        if (event instanceof Utf8Text) {
+            return ((Utf8Text) event).contentEquals(eventName);
+        }
+        return event != null && event.toString().equals(eventName);
+    }
+
+    /**
+     * Decodes all fields, the result is cached
+     *
+     * @return the decoded event
+     */
+    public EventData toEventData() {
+        if (decoded == null) {
+            decoded = new EventData(data(), id(), event(), origin());
+        }
+        return decoded;
+    }
+
+    private static String asString(CharSequence value) {
+        return value == null ? null : value.toString();
+    }
+
+    private static ByteBuffer asBuffer(CharSequence value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Utf8Text) {
+            return ((Utf8Text) value).asByteBuffer();
+        }
+        return ByteBuffer.wrap(value.toString().getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+    }
+
+    @Override
+    public String toString() {
+        return toEventData().toString();
+    }
+}
@@ -27,18 +27,32 @@ import io.undertow.client.ClientExchange;
 import io.undertow.client.ClientRequest;
 import io.undertow.client.ClientStatistics;
 import io.undertow.client.UndertowClient;
-import io.undertow.server.DefaultByteBufferPool;
+import io.undertow.connector.ByteBufferPool;
+import io.undertow.util.HeaderValues;
 import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
 import io.undertow.util.Methods;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xnio.ChannelListener;
+import org.xnio.IoUtils;
 import org.xnio.OptionMap;
+import org.xnio.XnioWorker;
+import org.xnio.channels.StreamSourceChannel;
+import org.xnio.ssl.XnioSsl;
 
 import java.io.IOException;
 import java.net.URI;
 import java.nio.channels.Channel;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 
 /**
@@ -49,76 +63,294 @@ public class SSEConnection extends StreamConnection {
     private static final Logger logger = LoggerFactory.getLogger(SSEConnection.class);
 
     final SseClientCallback callback;
+    private final BatchingSseCallback batching;
+    private final ParserMode parserMode;
+    final EventDispatchTable dispatchTable;
+    final boolean recycleEvents;
+    private final Function<EventData, ?> partitionKey;
+    private final HttpProtocol protocol;
+    private final long idleTimeoutNanos; //zero when disabled
+    private volatile Runnable cancelIdleCheck = () -> {};
     private ClientConnection connection;
-    String lastEventId; //updated from EventStreamParser
+    private Http2ConnectionPool.Lease lease; //only for HTTP/2
+    private volatile StreamSourceChannel responseChannel;
+    private CharSequence lastEventId; //updated from the parser, only decoded when needed
+    private final AtomicLong requests = new AtomicLong(); //only for the deprecated statistics()
+    private final CheckpointStore.Checkpoint checkpoint;
+    private final EventJournal journal;
+    private final Map<String, String> headers;
 
     public SSEConnection(ClientConfiguration clientConfiguration, String lastEventId, SseClientCallback callback) {
         super(clientConfiguration);
+        this.partitionKey = event -> null;
+        this.checkpoint = null;
+        this.journal = null;
+        this.headers = Collections.emptyMap();
+        this.protocol = HttpProtocol.HTTP_1_1;
+        this.idleTimeoutNanos = 0;
         this.lastEventId = lastEventId;
-        this.callback = callback;
+        this.callback = timed(dispatching(callback));
+        this.batching = null;
+        this.parserMode = ParserMode.BYTES;
+        this.dispatchTable = EventDispatchTable.EMPTY;
+        this.recycleEvents = false;
+    }
+
+    SSEConnection(SseConfiguration configuration, SseClientCallback callback) {
+        super(configuration);
+        this.partitionKey = configuration.partitionKey;
+        this.checkpoint = configuration.checkpoint;
+        this.journal = configuration.journal;
+        this.headers = configuration.headers;
+        this.protocol = configuration.protocol;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(configuration.idleTimeoutMillis);
+        this.lastEventId = configuration.lastEventId;
+        this.batching = configuration.batchSize > 0 ? new BatchingSseCallback(timed(dispatching(callback)), configuration.batchSize, configuration.batchLinger) : null;
+        this.callback = batching != null ? batching : timed(dispatching(callback));
+        this.parserMode = configuration.parserMode;
+        this.dispatchTable = dispatchQueue == null && partitionedQueue == null ? configuration.dispatchTable : configuration.dispatchTable.map(this::dispatching);
+        this.recycleEvents = configuration.recycleEvents;
+    }
+
+    private SseClientCallback timed(SseClientCallback callback) {
+        return stallDetector == null ? callback : new TimedSseCallback(callback, this);
+    }
+
+    private SseClientCallback dispatching(SseClientCallback callback) {
+        if (partitionedQueue != null) {
+            return new PartitionedSseCallback(callback, partitionedQueue, partitionKey);
+        }
+        return dispatchQueue == null ? callback : new DispatchingSseCallback(callback, dispatchQueue);
+    }
+
+    private Consumer<EventData> dispatching(Consumer<EventData> handler) {
+        if (partitionedQueue != null) {
+            return event -> partitionedQueue.dispatch(partitionKey.apply(event), () -> handler.accept(event));
+        }
+        return event -> dispatchQueue.dispatch(() -> handler.accept(event));
     }
 
     @Override
-    protected synchronized void tryConnect() throws Exception {
-        try {
-            shuttingDown = false;
-            logger.info("Connecting to {}", url);
+    protected synchronized CompletableFuture<Void> tryConnect() {
+        logger.info("Connecting to {}", url);
 
-            if (connection != null) {
-                return;
+        if (connection != null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> opened = new CompletableFuture<>();
+        if (protocol == HttpProtocol.HTTP_1_1) {
+            openConnection(URI.create(url), worker, ssl, bufferPool, OptionMap.EMPTY)
+                    .whenComplete((opening, error) -> sendRequest(opening, null, error, opened));
+        } else {
+            Http2ConnectionPool.acquire(url, protocol, worker, ssl, bufferPool)
+                    .whenComplete((streamLease, error) -> sendRequest(streamLease == null ? null : streamLease.connection, streamLease, error, opened));
+        }
+        opened.whenComplete((result, error) -> {
+            if (error != null) {
+                try {
+                    callback.onError(error instanceof Exception ? (Exception) error : new ClientException(-1, error.getMessage()));
+                } catch (Exception ex) {
+                    logger.error("Error handling 'onError' callback", ex);
+                }
             }
-            connection = UndertowClient.getInstance().connect(
-                    URI.create(url),
-                    worker,
-                    new DefaultByteBufferPool(false, 8192),
-                    OptionMap.EMPTY)
-                    .get();
+        });
+        return opened;
+    }
 
+    /**
+     * Connects without blocking, the callback is called on the IO thread
+     */
+    static CompletableFuture<ClientConnection> openConnection(URI uri, XnioWorker worker, XnioSsl ssl, ByteBufferPool bufferPool, OptionMap options) {
+        CompletableFuture<ClientConnection> connecting = new CompletableFuture<>();
+        UndertowClient.getInstance().connect(new ClientCallback<ClientConnection>() {
+            @Override
+            public void completed(ClientConnection result) {
+                connecting.complete(result);
+            }
+
+            @Override
+            public void failed(IOException e) {
+                connecting.completeExceptionally(e);
+            }
+        }, uri, worker, ssl, bufferPool, options);
+        return connecting;
+    }
 
-            final ClientRequest request = new ClientRequest().setMethod(Methods.GET).setPath(url);
-            request.getRequestHeaders().put(Headers.CONNECTION, "keep-alive");
+    private void sendRequest(ClientConnection opening, Http2ConnectionPool.Lease streamLease, Throwable error, CompletableFuture<Void> opened) {
+        if (error != null) {
+            opened.completeExceptionally(error);
+            return;
+        }
+        synchronized (this) {
+            if (shuttingDown || opened.isDone()) { //closed or timed out while connecting
+                if (streamLease != null) {
+                    streamLease.release();
+                } else {
+                    StreamConnection.closeChannel(opening);
+                }
+                opened.completeExceptionally(new ClientException(-1, "Connection closed while connecting"));
+                return;
+            }
+            connection = opening;
+            lease = streamLease;
+        }
+        try {
+            final ClientRequest request;
+            if (protocol == HttpProtocol.HTTP_1_1) {
+                request = new ClientRequest().setMethod(Methods.GET).setPath(url);
+                request.getRequestHeaders().put(Headers.CONNECTION, "keep-alive");
+                request.getRequestHeaders().put(Headers.HOST, url);
+            } else {
+                //connection specific headers are not allowed in HTTP/2
+                URI uri = URI.create(url);
+                String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+                request = new ClientRequest().setMethod(Methods.GET).setPath(uri.getRawQuery() == null ? path : path + "?" + uri.getRawQuery());
+                request.getRequestHeaders().put(Headers.HOST, uri.getRawAuthority());
+            }
             request.getRequestHeaders().put(Headers.ACCEPT, "text/event-stream");
-            request.getRequestHeaders().put(Headers.HOST, url);
 //            request.getRequestHeaders().put(Headers.ORIGIN, "http://localhost");
-            if (this.lastEventId != null && !this.lastEventId.isEmpty()) {
-                request.getRequestHeaders().put(HttpString.tryFromString("Last-Event-ID"), this.lastEventId);
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                request.getRequestHeaders().put(HttpString.tryFromString(header.getKey()), header.getValue());
+            }
+            String eventId = lastEventId();
+            if (eventId != null && !eventId.isEmpty()) {
+                request.getRequestHeaders().put(HttpString.tryFromString("Last-Event-ID"), eventId);
             }
 
-            connection.sendRequest(request, createClientCallback());
-
-            //TODO Connection exception and then retry
+            //counted first, the response may be handled before sendRequest returns
+            requests.incrementAndGet();
+            metrics.sent(requestSize(request));
+            opening.sendRequest(request, createClientCallback(opened, streamLease));
         } catch (Exception e) {
-            try {
-                callback.onError(e);
-            } catch (Exception ex) {
-                logger.error("Error handling 'onError' callback", e);
-            }
-            throw e;
+            opened.completeExceptionally(e);
         }
     }
 
-
     /**
      * Close the this connection and return the Last-Event-ID
      *
      * @return Last-Event-ID if any
      */
     public String close() {
-        shuttingDown = true;
+        stopReconnecting();
         closeChannel();
+        return lastEventId();
+    }
+
+    String lastEventId() {
+        CharSequence eventId = lastEventId;
+        return eventId == null ? null : eventId.toString();
+    }
+
+    CharSequence lastEventIdChars() {
         return lastEventId;
     }
 
+    /**
+     * Called before a user callback, see {@link io.joshworks.stream.client.StallDetector}
+     *
+     * @return the start time of the callback
+     */
+    long callbackStarted() {
+        return enterCallback();
+    }
+
+    void callbackReturned(long start) {
+        exitCallback(start);
+    }
+
+    /**
+     * Called from the parser once the handler of an event returned
+     */
+    void eventHandled(long start) {
+        exitCallback(start);
+        metrics.eventInRead(start);
+    }
+
+    /**
+     * Called from the parser for every event before it is delivered, appends it to the journal if any
+     */
+    void journal(RawEventData event) {
+        if (journal != null) {
+            journal.append(event);
+        }
+    }
+
+    /**
+     * Called from the parser for every dispatched event, persists the id when checkpointing is enabled
+     */
+    void lastEventId(CharSequence eventId) {
+        this.lastEventId = eventId;
+        if (checkpoint != null && eventId != null) {
+            checkpoint.write(eventId);
+        }
+    }
+
+    //the size of the request in HTTP/1.1 form, HTTP/2 sends the same headers compressed
+    private static int requestSize(ClientRequest request) {
+        int size = request.getMethod().length() + request.getPath().length() + 12; //spaces, HTTP/1.1 and CRLF
+        for (HeaderValues values : request.getRequestHeaders()) {
+            for (String value : values) {
+                size += values.getHeaderName().length() + value.length() + 4;
+            }
+        }
+        return size + 2;
+    }
+
+    /**
+     * @return The requests sent and the bytes read and written, kept across reconnections
+     * @deprecated use {@link #metrics()}
+     */
+    @Deprecated
     public ClientStatistics statistics() {
-        return connection == null ? new DisconnectedStatistics() : connection.getStatistics();
+        return new ClientStatistics() {
+            @Override
+            public long getRequests() {
+                return requests.get();
+            }
+
+            @Override
+            public long getRead() {
+                return metrics.bytesIn();
+            }
+
+            @Override
+            public long getWritten() {
+                return metrics.bytesOut();
+            }
+
+            @Override
+            public void reset() {
+
+            }
+        };
     }
 
     @Override
     protected void closeChannel() {
-        if (connection != null) {
-            StreamConnection.closeChannel(connection);
+        cancelIdleCheck.run();
+        metrics.disconnected();
+        ClientConnection current;
+        Http2ConnectionPool.Lease streamLease;
+        StreamSourceChannel stream;
+        synchronized (this) {
+            current = connection;
+            streamLease = lease;
+            stream = responseChannel;
             connection = null;
-            callback.onClose(lastEventId);
+            lease = null;
+            responseChannel = null;
+        }
+        if (current != null) {
+            if (streamLease == null) {
+                StreamConnection.closeChannel(current);
+            }
+            if (streamLease != null) {
+                //only this stream is closed, the connection is shared with the other streams of the origin
+                StreamConnection.closeChannel(stream);
+                streamLease.release();
+            }
+            callback.onClose(lastEventId());
         }
         monitor.remove(uuid);
     }
@@ -128,42 +360,98 @@ public class SSEConnection extends StreamConnection {
         return connection != null;
     }
 
-    //Used only for Retry-After header
-    void retryAfter(long timeMilli) {
-        logger.info("Reconnecting after {}ms", timeMilli);
-        reconnect(timeMilli);
+    @Override
+    public void suspendReads() {
+        StreamSourceChannel channel = responseChannel;
+        if (channel != null) {
+            channel.suspendReads();
+        }
+    }
+
+    @Override
+    public void resumeReads() {
+        StreamSourceChannel channel = responseChannel;
+        if (channel != null) {
+            channel.resumeReads();
+        }
+    }
+
+    /**
+     * The retry field of the stream, the reconnection time of the following attempts
+     */
+    void retry(long timeMilli) {
+        serverHint(timeMilli);
+    }
+
+    private EventStreamDecoder createDecoder() {
+        if (parserMode == ParserMode.LEGACY) {
+            return new UTF8Output(new EventStreamParser(this));
+        }
+        return new ByteEventStreamParser(this);
     }
 
-    private ClientCallback<ClientExchange> createClientCallback() {
-        final EventStreamParser eventStreamParser = new EventStreamParser(this);
+    private ClientCallback<ClientExchange> createClientCallback(CompletableFuture<Void> opened, Http2ConnectionPool.Lease streamLease) {
+        final EventStreamDecoder decoder = createDecoder();
 
         return new ClientCallback<ClientExchange>() {
             @Override
             public void completed(ClientExchange connectedExchange) {
-                connectedExchange.setResponseListener(new StreamHandler(callback, eventStreamParser));
+                connectedExchange.setResponseListener(new StreamHandler(callback, decoder, opened, streamLease));
                 monitor.add(uuid, () -> close());
                 logger.info("Connected to {}", url);
             }
 
             @Override
             public void failed(IOException e) {
-                callback.onError(e);
-                closeChannel();
-                reconnect();
+                opened.completeExceptionally(e);
             }
         };
     }
 
+    /**
+     * Only unavailable servers (5xx and 429) are retried, other status codes are not expected to change
+     */
+    @Override
+    protected boolean retryable(Exception failure) {
+        if (failure instanceof ClientException && ((ClientException) failure).getStatus() > 0) {
+            int status = ((ClientException) failure).getStatus();
+            return status >= 500 || status == 429;
+        }
+        return true;
+    }
+
+    //only the delay in seconds is supported, not the http date
+    private static long retryAfterMillis(String retryAfter) {
+        try {
+            return retryAfter == null ? -1 : Long.parseLong(retryAfter.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     private class StreamHandler implements ClientCallback<ClientExchange> {
 
         private final SseClientCallback callback;
         private final EventStreamChannelListener listener;
-        private final UTF8Output dataReader;
+        private final AtomicBoolean streamClosed = new AtomicBoolean();
+        private final CompletableFuture<Void> opened;
+        private final Http2ConnectionPool.Lease streamLease;
 
-        StreamHandler(SseClientCallback callback, EventStreamParser streamParser) {
+        StreamHandler(SseClientCallback callback, EventStreamDecoder decoder, CompletableFuture<Void> opened, Http2ConnectionPool.Lease streamLease) {
             this.callback = callback;
-            this.dataReader = new UTF8Output(streamParser);
-            this.listener = new EventStreamChannelListener(new DefaultByteBufferPool(false, 8192), dataReader);
+            this.opened = opened;
+            this.streamLease = streamLease;
+            this.listener = new EventStreamChannelListener(bufferPool, decoder, batching == null ? () -> {} : batching::readComplete, this::streamClosed, metrics);
+        }
+
+        //called by the close listener, or at the end of the stream, whichever comes first
+        private void streamClosed() {
+            if (streamClosed.compareAndSet(false, true)) {
+                closeChannel();
+                if (!opened.isCompletedExceptionally()) { //a failed attempt already reconnects
+                    reconnect();
+                }
+            }
         }
 
         @Override
@@ -171,28 +459,81 @@ public class SSEConnection extends StreamConnection {
             int responseCode = result.getResponse().getResponseCode();
             if (responseCode != 200) {
                 String status = result.getResponse().getStatus();
-                callback.onError(new ClientException(responseCode, "Server returned [" + responseCode + " - " + status + "] after connecting"));
-                closeChannel();
+                long retryAfter = retryAfterMillis(result.getResponse().getResponseHeaders().getFirst(Headers.RETRY_AFTER));
+                if (retryAfter >= 0) {
+                    retryAfter(retryAfter);
+                }
+                opened.completeExceptionally(new ClientException(responseCode, "Server returned [" + responseCode + " - " + status + "] after connecting"));
                 return;
             }
 
+            synchronized (SSEConnection.this) {
+                //closed or timed out while waiting for the response, the connection or the lease is no longer the current one
+                if (shuttingDown || opened.isDone() || connection == null || lease != streamLease) {
+                    stale(result);
+                    return;
+                }
+                responseChannel = result.getResponseChannel();
+            }
+
             callback.onOpen();
 
-            result.getResponseChannel().getCloseSetter().set((ChannelListener<Channel>) channel -> {
-                closeChannel();
-                reconnect();
-            });
+            result.getResponseChannel().getCloseSetter().set((ChannelListener<Channel>) channel -> streamClosed());
+            if (streamLease != null) {
+                //the response channel is not closed when the shared connection dies
+                streamLease.onConnectionClosed(this::streamClosed);
+            }
 
+            if (batching != null) {
+                batching.ioThread(responseChannel.getIoThread());
+            }
             listener.setup(result.getResponseChannel());
+            if (idleTimeoutNanos > 0) {
+                cancelIdleCheck = schedule(this::checkIdle, idleTimeoutNanos, TimeUnit.NANOSECONDS);
+            }
+            opened.complete(null);
+        }
+
+        private void stale(ClientExchange result) {
+            IoUtils.safeClose(result.getResponseChannel());
+            if (streamLease != null) {
+                streamLease.release();
+            } else {
+                StreamConnection.closeChannel(result.getConnection());
+            }
+            opened.completeExceptionally(new ClientException(-1, "Connection closed while connecting"));
+        }
 
+        //a single timeout per idle period, reads only record their time
+        private void checkIdle() {
+            StreamSourceChannel channel = responseChannel;
+            if (streamClosed.get() || channel == null) {
+                return;
+            }
+            long idle = System.nanoTime() - listener.lastRead();
+            if (!channel.isReadResumed()) { //suspended by the dispatch queue, not idle
+                idle = 0;
+            }
+            if (idle < idleTimeoutNanos) {
+                cancelIdleCheck = schedule(this::checkIdle, idleTimeoutNanos - idle, TimeUnit.NANOSECONDS);
+                return;
+            }
+            long idleMillis = TimeUnit.NANOSECONDS.toMillis(idle);
+            logger.warn("Nothing received from {} in {}ms, reconnecting", url, idleMillis);
+            callback.onError(new TimeoutException("Nothing received from " + url + " in " + idleMillis + "ms"));
+            streamClosed();
         }
 
         @Override
         public void failed(IOException e) {
-            callback.onError(e);
+            opened.completeExceptionally(e);
         }
     }
 
+    /**
+     * @deprecated no longer returned by {@link #statistics()}, use {@link #metrics()}
+     */
+    @Deprecated
     public class DisconnectedStatistics implements ClientStatistics {
 
         @Override
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client.sse;
+
+import io.joshworks.stream.client.DispatchQueue;
+import io.joshworks.stream.client.FlowControl;
+import io.joshworks.stream.client.OverflowPolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+/**
+ * A single upstream connection shared by all the subscriptions to the same url and headers.
+ * Each event is parsed and decoded once, then handed to every subscriber, each one with its own handlers and,
+ * optionally, its own dispatch queue. The upstream connection is closed when the last subscriber leaves.
+ * <p>
+ * Subscribers that join an open connection receive the events from then on.
+ */
+class SharedSseConnection extends SseClientCallback implements FlowControl {
+
+    private static final Logger logger = LoggerFactory.getLogger(SharedSseConnection.class);
+
+    private static final Map<Object, SharedSseConnection> connections = new HashMap<>();
+
+    private final Object key;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final AtomicInteger suspendedSubscribers = new AtomicInteger();
+    private SSEConnection upstream;
+    private boolean open;
+
+    private SharedSseConnection(Object key) {
+        this.key = key;
+    }
+
+    /**
+     * Joins the shared connection of the given key, the upstream connection is created by the first subscriber
+     *
+     * @param upstreamFactory creates the upstream connection given its callback and the termination hook
+     * @param executor        the executor of this subscriber, null to handle its events on the IO thread
+     */
+    static SseSubscription subscribe(Object key,
+                                     BiFunction<SseClientCallback, Runnable, SSEConnection> upstreamFactory,
+                                     SseClientCallback callback,
+                                     EventDispatchTable handlers,
+                                     Executor executor, int queueSize, OverflowPolicy policy) {
+        SharedSseConnection shared;
+        Subscriber subscriber;
+        boolean opened;
+        synchronized (connections) {
+            shared = connections.get(key);
+            boolean created = shared == null;
+            if (created) {
+                shared = new SharedSseConnection(key);
+                SharedSseConnection terminated = shared;
+                shared.upstream = upstreamFactory.apply(shared, () -> terminated.terminated());
+                connections.put(key, shared);
+            }
+            subscriber = shared.subscriber(callback, handlers, executor, queueSize, policy);
+            opened = shared.join(subscriber);
+            if (created) {
+                shared.upstream.connect();
+            }
+        }
+        //user code runs outside the locks, the subscriber joined an open connection
+        if (opened) {
+            subscriber.callback.onOpen();
+        }
+        return new SseSubscription(shared, subscriber);
+    }
+
+    /**
+     * @return The number of upstream connections currently shared
+     */
+    static int connections() {
+        synchronized (connections) {
+            return connections.size();
+        }
+    }
+
+    private Subscriber subscriber(SseClientCallback callback, EventDispatchTable handlers, Executor executor, int queueSize, OverflowPolicy policy) {
+        if (executor == null) {
+            return new Subscriber(callback, handlers);
+        }
+        DispatchQueue queue = new DispatchQueue(executor, queueSize, policy, this);
+        return new Subscriber(new DispatchingSseCallback(callback, queue),
+                handlers.map(handler -> event -> queue.dispatch(() -> handler.accept(event))));
+    }
+
+    /**
+     * @return true if the connection is already open, the subscriber misses the open callback of the upstream
+     */
+    private synchronized boolean join(Subscriber subscriber) {
+        subscribers.add(subscriber);
+        return open;
+    }
+
+    void leave(Subscriber subscriber) {
+        boolean last;
+        synchronized (connections) {
+            if (!subscribers.remove(subscriber)) {
+                return;
+            }
+            last = subscribers.isEmpty();
+            if (last) {
+                connections.remove(key, this);
+            }
+        }
+        //user code and the upstream close run outside the lock shared by all connections
+        subscriber.callback.onClose(upstream.lastEventId());
+        if (last) {
+            logger.info("Last subscriber of {} left, closing connection", key);
+            upstream.close();
+        }
+    }
+
+    int subscribers() {
+        return subscribers.size();
+    }
+
+    SSEConnection upstream() {
+        return upstream;
+    }
+
+    private void terminated() {
+        synchronized (connections) {
+            connections.remove(key, this);
+        }
+    }
+
+    @Override
+    public void onEvent(EventData event) {
+        deliver(new RawEventData(event));
+    }
+
+    @Override
+    public void onRawEvent(RawEventData event) {
+        //decoded once, the view is immutable and can be shared by all subscribers
+        deliver(new RawEventData(event.toEventData()));
+    }
+
+    private void deliver(RawEventData event) {
+        for (Subscriber subscriber : subscribers) {
+            try {
+                subscriber.deliver(event);
+            } catch (Exception e) {
+                logger.error("Error handling event", e);
+            }
+        }
+    }
+
+    @Override
+    public void onOpen() {
+        //the subscribers joining after the state changed are called by subscribe
+        for (Subscriber subscriber : open(true)) {
+            subscriber.callback.onOpen();
+        }
+    }
+
+    @Override
+    public void onClose(String lastEventId) {
+        for (Subscriber subscriber : open(false)) {
+            subscriber.callback.onClose(lastEventId);
+        }
+    }
+
+    //the user callbacks are called outside the lock, on the subscribers at the time of the change
+    private synchronized List<Subscriber> open(boolean open) {
+        this.open = open;
+        return new ArrayList<>(subscribers);
+    }
+
+    @Override
+    public void onError(Exception e) {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.callback.onError(e);
+        }
+    }
+
+    /**
+     * Reads stay suspended while any subscriber queue is full
+     */
+    @Override
+    public void suspendReads() {
+        if (suspendedSubscribers.incrementAndGet() == 1) {
+            upstream.suspendReads();
+        }
+    }
+
+    @Override
+    public void resumeReads() {
+        if (suspendedSubscribers.decrementAndGet() == 0) {
+            upstream.resumeReads();
+        }
+    }
+
+    static final class Subscriber {
+
+        private final SseClientCallback callback;
+        private final EventDispatchTable handlers;
+
+        private Subscriber(SseClientCallback callback, EventDispatchTable handlers) {
+            this.callback = callback;
+            this.handlers = handlers;
+        }
+
+        private void deliver(RawEventData event) {
+            EventDispatchTable.Entry entry = handlers.isEmpty() ? null : handlers.find(event.event());
+            if (entry != null) {
+                entry.handler.accept(event.toEventData());
+            } else if (!handlers.exclusive) {
+                callback.onRawEvent(event);
+            }
+        }
+    }
+}
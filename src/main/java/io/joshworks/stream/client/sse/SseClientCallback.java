@@ -17,6 +17,8 @@
 
 package io.joshworks.stream.client.sse;
 
+import java.util.List;
+
 /**
  * Created by Josh Gontijo on 4/1/17.
  */
@@ -24,6 +26,29 @@ public abstract class SseClientCallback {
 
     public abstract void onEvent(EventData event);
 
+    /**
+     * Receives the event before any of its fields are decoded.
+     * The default implementation decodes the event and delegates to {@link #onEvent(EventData)},
+     * override it to decode only what is needed, for example to discard events by name.
+     *
+     * @param event the event backed by the received bytes
+     */
+    public void onRawEvent(RawEventData event) {
+        onEvent(event.toEventData());
+    }
+
+    /**
+     * Receives the events in batches, only called when batching is enabled, see {@link SseConfiguration#batch(int, long)}.
+     * The default implementation delegates each event to {@link #onEvent(EventData)}.
+     *
+     * @param events the events in the order they were received, the list is not reused
+     */
+    public void onEvents(List<EventData> events) {
+        for (EventData event : events) {
+            onEvent(event);
+        }
+    }
+
     public void onOpen() {
 
     }
@@ -2,10 +2,26 @@ package io.joshworks.stream.client.sse;
 
 import io.joshworks.stream.client.ClientConfiguration;
 import io.joshworks.stream.client.ConnectionMonitor;
+import io.joshworks.stream.client.FailedAttempt;
+import io.joshworks.stream.client.MaxRetryExceeded;
+import io.joshworks.stream.client.OverflowPolicy;
+import io.joshworks.stream.client.ReconnectPolicy;
+import io.joshworks.stream.client.StreamPublisher;
+import io.undertow.connector.ByteBufferPool;
 import org.xnio.XnioWorker;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Created by Josh Gontijo on 6/8/17.
@@ -13,10 +29,27 @@ import java.util.function.Consumer;
 public class SseConfiguration extends ClientConfiguration {
 
     private SseClientCallback clientCallback;
-    private String lastEventId;
+    String lastEventId;
+    ParserMode parserMode = ParserMode.BYTES;
+    HttpProtocol protocol = HttpProtocol.HTTP_1_1;
+    long idleTimeoutMillis = 0;
+    EventDispatchTable dispatchTable = EventDispatchTable.EMPTY;
+    boolean recycleEvents;
+    int batchSize;
+    Function<EventData, ?> partitionKey = event -> null;
+    CheckpointStore.Checkpoint checkpoint;
+    EventJournal journal;
+    final Map<String, String> headers = new LinkedHashMap<>();
+    long batchLinger;
 
     private Runnable onOpen = () -> {};
     private Consumer<EventData> onEvent = (eventData) -> {};
+    private Consumer<RawEventData> onRawEvent;
+    private Consumer<List<EventData>> onEvents;
+    private final Map<String, Consumer<EventData>> eventHandlers = new HashMap<>();
+    private boolean catchAll;
+    private CheckpointStore checkpointStore;
+    private String checkpointKey;
     private Consumer<String> onClose = (lastEventId) -> {};
     private Consumer<Exception> onError = (e) -> {};
 
@@ -30,6 +63,17 @@ public class SseConfiguration extends ClientConfiguration {
         this.clientCallback = clientCallback;
     }
 
+    public SseConfiguration(String url, XnioWorker worker, ScheduledExecutorService scheduler,
+                            ConnectionMonitor register, ByteBufferPool bufferPool) {
+        super(url, worker, scheduler, register, bufferPool);
+    }
+
+    public SseConfiguration(String url, XnioWorker worker, ScheduledExecutorService scheduler,
+                            ConnectionMonitor register, ByteBufferPool bufferPool, SseClientCallback clientCallback) {
+        super(url, worker, scheduler, register, bufferPool);
+        this.clientCallback = clientCallback;
+    }
+
     public SseConfiguration onOpen(Runnable onOpen) {
         this.onOpen = onOpen;
         return this;
@@ -37,6 +81,59 @@ public class SseConfiguration extends ClientConfiguration {
 
     public SseConfiguration onEvent(Consumer<EventData> onEvent) {
         this.onEvent = onEvent;
+        this.catchAll = true;
+        return this;
+    }
+
+    /**
+     * Handles only the events with the given name ('message' for events with no name).
+     * If no catch all handler ({@link #onEvent(Consumer)}, {@link #onRawEvent(Consumer)} or {@link #clientCallback(SseClientCallback)})
+     * is set, events with no handler are discarded without buffering or decoding its data.
+     *
+     * @param eventName the event name
+     * @param onEvent   the handler for this event name
+     */
+    public SseConfiguration onEvent(String eventName, Consumer<EventData> onEvent) {
+        this.eventHandlers.put(eventName, onEvent);
+        return this;
+    }
+
+    /**
+     * Receives the events in batches instead of one by one, by default all the events parsed from a single read,
+     * up to 256 events. Use {@link #batch(int, long)} to change it. When set, {@link #onEvent(Consumer)} is not called.
+     */
+    public SseConfiguration onEvents(Consumer<List<EventData>> onEvents) {
+        this.onEvents = onEvents;
+        this.catchAll = true;
+        if (batchSize == 0) {
+            batchSize = 256;
+        }
+        return this;
+    }
+
+    /**
+     * Enables batching, events are delivered to {@link #onEvents(Consumer)} or {@link SseClientCallback#onEvents(List)}
+     * and not to {@link SseClientCallback#onRawEvent(RawEventData)}. Handlers by event name are not batched.
+     *
+     * @param maxBatchSize    the maximum number of events in a batch
+     * @param maxLingerMillis zero to deliver the events at the end of each read, otherwise how long the first event
+     *                        of a batch waits for more events
+     */
+    public SseConfiguration batch(int maxBatchSize, long maxLingerMillis) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be greater than zero");
+        }
+        this.batchSize = maxBatchSize;
+        this.batchLinger = maxLingerMillis;
+        return this;
+    }
+
+    /**
+     * Receives events before they are decoded, fields are decoded on first access only.
+     * When set, {@link #onEvent(Consumer)} is not called.
+     */
+    public SseConfiguration onRawEvent(Consumer<RawEventData> onRawEvent) {
+        this.onRawEvent = onRawEvent;
         return this;
     }
 
@@ -46,6 +143,15 @@ public class SseConfiguration extends ClientConfiguration {
     }
 
     public SseConfiguration onFailedAttempt(Runnable onFailedAttempt) {
+        this.onFailedAttempt = attempt -> onFailedAttempt.run();
+        return this;
+    }
+
+    /**
+     * Called for every failed connection attempt, with the attempt number, the delay before the next attempt,
+     * the cause and the state of the circuit breaker of the endpoint
+     */
+    public SseConfiguration onFailedAttempt(Consumer<FailedAttempt> onFailedAttempt) {
         this.onFailedAttempt = onFailedAttempt;
         return this;
     }
@@ -65,29 +171,283 @@ public class SseConfiguration extends ClientConfiguration {
         return this;
     }
 
+    /**
+     * Persists the last event id of this connection, using the url as the key.
+     * When connecting with no explicit last event id, the persisted one is used.
+     */
+    public SseConfiguration checkpoint(CheckpointStore store) {
+        return checkpoint(store, url);
+    }
+
+    /**
+     * Persists the last event id of this connection under the given key.
+     * When connecting with no explicit last event id, the persisted one is used.
+     */
+    public SseConfiguration checkpoint(CheckpointStore store, String key) {
+        this.checkpointStore = store;
+        this.checkpointKey = key;
+        return this;
+    }
+
+    /**
+     * Appends every event delivered by this connection to the given journal, before it is handled.
+     * The journal must not be shared with other connections.
+     */
+    public SseConfiguration journal(EventJournal journal) {
+        this.journal = journal;
+        return this;
+    }
+
+    /**
+     * Adds a header to the request, sent on every reconnection
+     */
+    public SseConfiguration header(String name, String value) {
+        this.headers.put(name, value);
+        return this;
+    }
+
     public SseConfiguration maxRetries(int maxRetries) {
         this.maxRetries = maxRetries;
         return this;
     }
 
+    /**
+     * Runs the callbacks of this connection on the given executor instead of the IO thread, in order.
+     * Events are handed over through a bounded queue of 1024 events, blocking the IO thread when it is full.
+     */
+    public SseConfiguration dispatchTo(Executor executor) {
+        return dispatchTo(executor, dispatchQueueSize, overflowPolicy);
+    }
+
+    /**
+     * Runs the callbacks of this connection on the given executor instead of the IO thread, in order.
+     *
+     * @param executor  the executor, can be shared between connections
+     * @param queueSize the maximum number of events waiting to be handled
+     * @param policy    what to do when the queue is full
+     */
+    public SseConfiguration dispatchTo(Executor executor, int queueSize, OverflowPolicy policy) {
+        this.dispatchExecutor = executor;
+        this.dispatchQueueSize = queueSize;
+        this.overflowPolicy = policy;
+        return this;
+    }
+
+    /**
+     * Spreads the events over multiple lanes of the dispatch executor, see {@link #dispatchTo(Executor, int, OverflowPolicy)}.
+     * Events with the same key are delivered in order, events with different keys may be handled concurrently.
+     * Each lane has its own queue. Open, close and error callbacks go to the first lane.
+     *
+     * @param lanes        the number of lanes
+     * @param partitionKey extracts the key of each event, ex: the event name, called on the IO thread
+     */
+    public SseConfiguration partitionBy(int lanes, Function<EventData, ?> partitionKey) {
+        this.dispatchLanes = lanes;
+        this.partitionKey = partitionKey;
+        return this;
+    }
+
     public SseConfiguration retryInterval(int retryInterval) {
         this.retryInterval = retryInterval;
         return this;
     }
 
+    /**
+     * How long to wait before each reconnection, replaces {@link #retryInterval(int)}.
+     * ex: {@code ReconnectPolicy.decorrelatedJitter(500).capped(30000).withServerHint()}
+     */
+    public SseConfiguration reconnectPolicy(ReconnectPolicy reconnectPolicy) {
+        this.reconnectPolicy = reconnectPolicy;
+        return this;
+    }
+
+    /**
+     * Connection attempts waiting for admission, see {@link io.joshworks.stream.client.AdmissionConfiguration},
+     * are started by priority, higher first. Default 0
+     */
+    public SseConfiguration priority(int priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    /**
+     * Stops connecting to the endpoint (scheme, host and port) for {@code openMillis} after {@code failureThreshold}
+     * consecutive failed attempts of any connection to it, then a single connection probes it. Disabled by default.
+     */
+    public SseConfiguration circuitBreaker(int failureThreshold, long openMillis) {
+        this.circuitBreakerThreshold = failureThreshold;
+        this.circuitBreakerOpenMillis = openMillis;
+        return this;
+    }
+
+    /**
+     * Fails an attempt that is not open after the given time, TCP connection, TLS handshake and the response included.
+     * The half open connection is closed and the attempt retried as configured. 10 seconds by default, zero to disable.
+     */
+    public SseConfiguration connectTimeout(long timeout, TimeUnit unit) {
+        this.connectTimeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * @param parserMode {@link ParserMode#BYTES} (default) or {@link ParserMode#LEGACY} as a fallback
+     */
+    public SseConfiguration parser(ParserMode parserMode) {
+        this.parserMode = parserMode;
+        return this;
+    }
+
+    /**
+     * @param protocol {@link HttpProtocol#HTTP_1_1} (default) for one connection per event stream, or {@link HttpProtocol#HTTP_2}
+     *                 to multiplex all the event streams to the same origin over a single connection.
+     *                 Each event stream still reconnects on its own, with its own Last-Event-ID.
+     */
+    public SseConfiguration protocol(HttpProtocol protocol) {
+        this.protocol = protocol;
+        return this;
+    }
+
+    /**
+     * Reconnects, with the Last-Event-ID, when nothing is received for the given time, comments included.
+     * Detects connections silently dropped by a NAT or load balancer, the timeout should be longer than the
+     * keep alive interval of the server. Disabled by default.
+     */
+    public SseConfiguration idleTimeout(long timeout, TimeUnit unit) {
+        this.idleTimeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * Reuses a single {@link RawEventData} (and its buffers) for all events of this connection, so no garbage is created per event.
+     * The event passed to {@link #onRawEvent(Consumer)} or {@link SseClientCallback#onRawEvent(RawEventData)} is then only valid
+     * until the callback returns, it must not be retained or passed to another thread.
+     * Use {@link RawEventData#toEventData()} to keep a copy. Requires {@link ParserMode#BYTES}, cannot be used with {@link #dispatchTo(Executor)}.
+     */
+    public SseConfiguration recycleEvents(boolean recycleEvents) {
+        this.recycleEvents = recycleEvents;
+        return this;
+    }
+
     public SseConfiguration clientCallback(SseClientCallback callback) {
         this.clientCallback = callback;
         return this;
     }
 
     public SSEConnection connect() {
-        clientCallback = clientCallback == null ? createClientCallback() : clientCallback;
-
-        SSEConnection connection = new SSEConnection(this, lastEventId, clientCallback);
+        SSEConnection connection = build();
         connection.connect();
         return connection;
     }
 
+    /**
+     * Connects without blocking the calling thread
+     *
+     * @return completes on the IO thread when the connection is first opened, or exceptionally if it is closed
+     * or gives up before that. Without retries it fails at the latest after the connect timeout, see {@link #connectTimeout(long, TimeUnit)}
+     */
+    public CompletableFuture<SSEConnection> connectAsync() {
+        SSEConnection connection = build();
+        return connection.connect().thenApply(opened -> connection);
+    }
+
+    /**
+     * Creates a Reactive Streams publisher of the events, the connection is opened when subscribed.
+     * Reads are suspended whenever the subscriber has no outstanding demand.
+     * The publisher completes when the connection is closed and not reconnecting, or fails with {@link MaxRetryExceeded}.
+     * Handlers by event name still receive their events, {@link #onEvent(Consumer)} and {@link #clientCallback(SseClientCallback)} are replaced.
+     */
+    public StreamPublisher<EventData> publisher() {
+        if (recycleEvents) {
+            throw new IllegalStateException("Recycled events cannot be published");
+        }
+        return new StreamPublisher<>(publisher -> {
+            this.clientCallback = null;
+            this.onEvents = null;
+            this.batchSize = 0;
+            onEvent(publisher::next);
+            Runnable retriesExceeded = this.onRetriesExceeded;
+            this.onRetriesExceeded = () -> {
+                retriesExceeded.run();
+                publisher.error(new MaxRetryExceeded("Max retries (" + maxRetries + ") exceeded"));
+            };
+            this.onTerminated = publisher::complete;
+            return build();
+        });
+    }
+
+    /**
+     * Subscribes to a connection shared by all the subscriptions to the same url and headers, opened by the first subscriber.
+     * Events are parsed once and handed to each subscriber, with its own handlers and its own dispatch queue,
+     * see {@link #dispatchTo(Executor, int, OverflowPolicy)}. The connection is closed when the last subscription is closed.
+     * <p>
+     * The connection settings (retries, parser mode, last event id, checkpoint and journal) are the ones of the first subscriber.
+     * Subscribers that join an open connection receive the events from then on. Events cannot be recycled, batched or partitioned.
+     */
+    public SseSubscription subscribe() {
+        if (recycleEvents || batchSize > 0 || dispatchLanes > 1) {
+            throw new IllegalStateException("Shared connections cannot recycle, batch or partition events");
+        }
+        boolean exclusive = clientCallback == null && !catchAll && onRawEvent == null;
+        EventDispatchTable handlers = eventHandlers.isEmpty() ? EventDispatchTable.EMPTY : new EventDispatchTable(eventHandlers, exclusive);
+        SseClientCallback callback = clientCallback == null ? createClientCallback() : clientCallback;
+        Object key = Arrays.asList(url, new TreeMap<>(headers));
+        return SharedSseConnection.subscribe(key, this::upstream, callback, handlers, dispatchExecutor, dispatchQueueSize, overflowPolicy);
+    }
+
+    private SSEConnection upstream(SseClientCallback fanOut, Runnable onTerminated) {
+        SseConfiguration upstream = new SseConfiguration(url, worker, scheduler, monitor, bufferPool, fanOut);
+        upstream.ssl = ssl;
+        upstream.admission = admission;
+        upstream.timer = timer;
+        upstream.stallDetector = stallDetector;
+        upstream.priority = priority;
+        upstream.connectTimeoutMillis = connectTimeoutMillis;
+        upstream.headers.putAll(headers);
+        upstream.lastEventId = lastEventId;
+        upstream.parserMode = parserMode;
+        upstream.protocol = protocol;
+        upstream.idleTimeoutMillis = idleTimeoutMillis;
+        upstream.checkpointStore = checkpointStore;
+        upstream.checkpointKey = checkpointKey;
+        upstream.journal = journal;
+        upstream.retryInterval = retryInterval;
+        upstream.maxRetries = maxRetries;
+        upstream.reconnectPolicy = reconnectPolicy;
+        upstream.circuitBreakerThreshold = circuitBreakerThreshold;
+        upstream.circuitBreakerOpenMillis = circuitBreakerOpenMillis;
+        upstream.onFailedAttempt = onFailedAttempt;
+        upstream.onRetriesExceeded = onRetriesExceeded;
+        upstream.onTerminated = onTerminated;
+        return upstream.build();
+    }
+
+    private SSEConnection build() {
+        if (recycleEvents && parserMode != ParserMode.BYTES) {
+            throw new IllegalStateException("Recycled events requires " + ParserMode.BYTES + " parser mode");
+        }
+        if (recycleEvents && dispatchExecutor != null) {
+            throw new IllegalStateException("Recycled events cannot be dispatched to another thread");
+        }
+        if (recycleEvents && batchSize > 0) {
+            throw new IllegalStateException("Recycled events cannot be batched");
+        }
+        if (dispatchLanes > 1 && dispatchExecutor == null) {
+            throw new IllegalStateException("Partitioned dispatch requires an executor, see dispatchTo");
+        }
+        if (dispatchLanes > 1 && batchSize > 0) {
+            throw new IllegalStateException("Batched events cannot be partitioned");
+        }
+        boolean exclusive = clientCallback == null && !catchAll && onRawEvent == null;
+        dispatchTable = eventHandlers.isEmpty() ? EventDispatchTable.EMPTY : new EventDispatchTable(eventHandlers, exclusive);
+        clientCallback = clientCallback == null ? createClientCallback() : clientCallback;
+        if (checkpointStore != null) {
+            checkpoint = checkpointStore.checkpoint(checkpointKey);
+            lastEventId = lastEventId == null ? checkpoint.read() : lastEventId;
+        }
+
+        return new SSEConnection(this, clientCallback);
+    }
+
     public SSEConnection connect(String lastEventId) {
         this.lastEventId = lastEventId;
         return connect();
@@ -100,6 +460,24 @@ public class SseConfiguration extends ClientConfiguration {
                 onEvent.accept(event);
             }
 
+            @Override
+            public void onEvents(List<EventData> events) {
+                if (onEvents != null) {
+                    onEvents.accept(events);
+                } else {
+                    super.onEvents(events);
+                }
+            }
+
+            @Override
+            public void onRawEvent(RawEventData event) {
+                if (onRawEvent != null) {
+                    onRawEvent.accept(event);
+                } else {
+                    super.onRawEvent(event);
+                }
+            }
+
             @Override
             public void onOpen() {
                 onOpen.run();
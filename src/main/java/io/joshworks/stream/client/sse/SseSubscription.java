@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client.sse;
+
+import io.joshworks.stream.client.ConnectionMetrics;
+import io.undertow.client.ClientStatistics;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A subscriber of a connection shared with all the other subscriptions to the same url and headers,
+ * see {@link SseConfiguration#subscribe()}.
+ */
+public class SseSubscription implements Closeable {
+
+    private final SharedSseConnection shared;
+    private final SharedSseConnection.Subscriber subscriber;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    SseSubscription(SharedSseConnection shared, SharedSseConnection.Subscriber subscriber) {
+        this.shared = shared;
+        this.subscriber = subscriber;
+    }
+
+    /**
+     * Stops receiving events, the shared connection is closed when its last subscriber leaves
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            shared.leave(subscriber);
+        }
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * @return The number of subscribers of the shared connection, including this one
+     */
+    public int subscribers() {
+        return shared.subscribers();
+    }
+
+    /**
+     * @return The metrics of the shared connection
+     */
+    public ConnectionMetrics metrics() {
+        return shared.upstream().metrics();
+    }
+
+    /**
+     * @return The statistics of the shared connection
+     * @deprecated use {@link #metrics()}
+     */
+    @Deprecated
+    public ClientStatistics statistics() {
+        return shared.upstream().statistics();
+    }
+
+    SSEConnection upstream() {
+        return shared.upstream();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.joshworks.stream.client.sse;
+
+import java.util.List;
+
+/**
+ * Times every callback for the stall detection of the client, see {@link io.joshworks.stream.client.StallDetector}
+ */
+class TimedSseCallback extends SseClientCallback {
+
+    private final SseClientCallback delegate;
+    private final SSEConnection connection;
+
+    TimedSseCallback(SseClientCallback delegate, SSEConnection connection) {
+        this.delegate = delegate;
+        this.connection = connection;
+    }
+
+    @Override
+    public void onEvent(EventData event) {
+        long start = connection.callbackStarted();
+        try {
+            delegate.onEvent(event);
+        } finally {
+            connection.callbackReturned(start);
+        }
+    }
+
+    @Override
+    public void onRawEvent(RawEventData event) {
+        long start = connection.callbackStarted();
+        try {
+            delegate.onRawEvent(event);
+        } finally {
+            connection.callbackReturned(start);
+        }
+    }
+
+    @Override
+    public void onEvents(List<EventData> events) {
+        long start = connection.callbackStarted();
+        try {
+            delegate.onEvents(events);
+        } finally {
+            connection.callbackReturned(start);
+        }
+    }
+
+    @Override
+    public void onOpen() {
+        long start = connection.callbackStarted();
+        try {
+            delegate.onOpen();
+        } finally {
+            connection.callbackReturned(start);
+        }
+    }
+
+    @Override
+    public void onClose(String lastEventId) {
+        long start = connection.callbackStarted();
+        try {
+            delegate.onClose(lastEventId);
+        } finally {
+            connection.callbackReturned(start);
+        }
+    }
+
+    @Override
+    public void onError(Exception e) {
+        long start = connection.callbackStarted();
+        try {
+            delegate.onError(e);
+        } finally {
+            connection.callbackReturned(start);
+        }
+    }
+}
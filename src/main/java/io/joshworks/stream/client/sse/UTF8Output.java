@@ -24,7 +24,7 @@ import java.nio.ByteBuffer;
  * Adapted version from Undertow
  *
  */
-public final class UTF8Output {
+public final class UTF8Output implements EventStreamDecoder {
     private static final int UTF8_ACCEPT = 0;
 
     private static final byte[] TYPES = {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
@@ -63,6 +63,13 @@ public final class UTF8Output {
         stringBuilder = new StringBuilder();
     }
 
+    @Override
+    public void write(ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            write(buffer.get());
+        }
+    }
+
     public void write(ByteBuffer... bytes) {
         for (ByteBuffer buf : bytes) {
             while (buf.hasRemaining()) {
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client.sse;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Byte level helpers used by the parser, the field values are only decoded when needed.
+ */
+final class Utf8 {
+
+    static final byte[] EMPTY = new byte[0];
+
+    private Utf8() {
+
+    }
+
+    static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    static boolean isAscii(byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (bytes[i] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String decode(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return "";
+        }
+        //ISO_8859_1 is a straight byte to char copy, which is exactly what ASCII needs
+        if (isAscii(bytes, offset, length)) {
+            return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+        }
+        return new String(bytes, offset, length, StandardCharsets.UTF_8);
+    }
+
+    static boolean equals(byte[] expected, byte[] bytes, int offset, int length) {
+        if (expected.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (expected[i] != bytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean isNumber(byte[] bytes, int offset, int length) {
+        if (length == 0 || length > 18) {
+            return false;
+        }
+        for (int i = offset; i < offset + length; i++) {
+            if (bytes[i] < '0' || bytes[i] > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static long parseLong(byte[] bytes, int offset, int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            value = value * 10 + (bytes[i] - '0');
+        }
+        return value;
+    }
+
+    static byte[] ensureCapacity(byte[] bytes, int required) {
+        if (required <= bytes.length) {
+            return bytes;
+        }
+        int newSize = Math.max(bytes.length * 2, required);
+        byte[] copy = new byte[newSize];
+        System.arraycopy(bytes, 0, copy, 0, bytes.length);
+        return copy;
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client.sse;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A {@link CharSequence} view over UTF-8 bytes, the String is only decoded on first use.
+ * ASCII content is read straight from the bytes, without decoding.
+ * Instances are immutable, except the ones recycled by the parser through {@link #reset(byte[], int, int)}.
+ */
+final class Utf8Text implements CharSequence {
+
+    private static final int UNKNOWN = 0;
+    private static final int ASCII = 1;
+    private static final int NON_ASCII = 2;
+
+    byte[] bytes;
+    int offset;
+    int length;
+
+    private int encoding = UNKNOWN;
+    private String decoded;
+
+    Utf8Text(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Points this view to a new range, only used for recycled events
+     */
+    Utf8Text reset(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        this.encoding = UNKNOWN;
+        this.decoded = null;
+        return this;
+    }
+
+    static Utf8Text copyOf(byte[] bytes, int offset, int length) {
+        return new Utf8Text(Arrays.copyOfRange(bytes, offset, offset + length), 0, length);
+    }
+
+    static Utf8Text of(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        Utf8Text text = new Utf8Text(bytes, 0, bytes.length);
+        text.decoded = value;
+        return text;
+    }
+
+    boolean isAscii() {
+        if (encoding == UNKNOWN) {
+            encoding = Utf8.isAscii(bytes, offset, length) ? ASCII : NON_ASCII;
+        }
+        return encoding == ASCII;
+    }
+
+    /**
+     * @return true if this text has the same bytes as the given range, without decoding it
+     */
+    boolean contentEquals(byte[] other, int otherOffset, int otherLength) {
+        if (length != otherLength) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (bytes[offset + i] != other[otherOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if this text represents the given String, ASCII content is compared without decoding
+     */
+    boolean contentEquals(String value) {
+        if (value == null) {
+            return false;
+        }
+        if (decoded != null) {
+            return decoded.equals(value);
+        }
+        if (!isAscii()) {
+            return toString().equals(value);
+        }
+        if (value.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (bytes[offset + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(bytes, offset, length).slice().asReadOnlyBuffer();
+    }
+
+    @Override
+    public int length() {
+        return isAscii() ? length : toString().length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (isAscii()) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", length: " + length);
+            }
+            return (char) bytes[offset + index];
+        }
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (isAscii()) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException("Start: " + start + ", end: " + end + ", length: " + length);
+            }
+            return new Utf8Text(bytes, offset + start, end - start);
+        }
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (decoded == null) {
+            decoded = Utf8.decode(bytes, offset, length);
+        }
+        return decoded;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Utf8Text other = (Utf8Text) o;
+        return contentEquals(other.bytes, other.offset, other.length);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 1;
+        for (int i = offset; i < offset + length; i++) {
+            result = 31 * result + bytes[i];
+        }
+        return result;
+    }
+}
@@ -17,13 +17,20 @@
 
 package io.joshworks.stream.client.ws;
 
+import io.joshworks.stream.client.ConnectionMetrics;
+import io.joshworks.stream.client.DispatchQueue;
+import io.joshworks.stream.client.PartitionedDispatchQueue;
 import io.undertow.websockets.core.AbstractReceiveListener;
 import io.undertow.websockets.core.BufferedBinaryMessage;
 import io.undertow.websockets.core.BufferedTextMessage;
 import io.undertow.websockets.core.CloseMessage;
 import io.undertow.websockets.core.WebSocketChannel;
+import org.xnio.Buffers;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Created by josh on 3/8/17.
@@ -32,49 +39,196 @@ import java.io.IOException;
 public class ProxyClientEndpoint extends AbstractReceiveListener {
 
     private final WebSocketClientEndpoint endpoint;
+    private final DispatchQueue dispatchQueue;
+    private final PartitionedDispatchQueue partitionedQueue;
+    private final Function<BufferedTextMessage, ?> textKey;
+    private final Function<BufferedBinaryMessage, ?> binaryKey;
+    private Consumer<ByteBuffer[]> pongListener = payload -> {};
+    private ConnectionMetrics metrics = new ConnectionMetrics();
+    private WsConnection timedBy; //null when callbacks are not timed
 
     public ProxyClientEndpoint(WebSocketClientEndpoint endpoint) {
+        this(endpoint, null);
+    }
+
+    /**
+     * @param dispatchQueue where connect, text, binary, close and error callbacks are handed over to, null to run them on the IO thread.
+     *                      Ping and pong are always handled on the IO thread.
+     */
+    public ProxyClientEndpoint(WebSocketClientEndpoint endpoint, DispatchQueue dispatchQueue) {
+        this.endpoint = endpoint;
+        this.dispatchQueue = dispatchQueue;
+        this.partitionedQueue = null;
+        this.textKey = message -> null;
+        this.binaryKey = message -> null;
+    }
+
+    /**
+     * @param partitionedQueue text and binary messages are handed over to the lane of their key, close after all lanes, other callbacks to the first lane
+     * @param textKey          extracts the key of text messages, called on the IO thread
+     * @param binaryKey        extracts the key of binary messages, called on the IO thread
+     */
+    public ProxyClientEndpoint(WebSocketClientEndpoint endpoint, PartitionedDispatchQueue partitionedQueue,
+                               Function<BufferedTextMessage, ?> textKey, Function<BufferedBinaryMessage, ?> binaryKey) {
         this.endpoint = endpoint;
+        this.dispatchQueue = null;
+        this.partitionedQueue = partitionedQueue;
+        this.textKey = textKey;
+        this.binaryKey = binaryKey;
+    }
+
+    /**
+     * @param pongListener receives the payload of every pong on the IO thread, before the endpoint
+     */
+    void pongListener(Consumer<ByteBuffer[]> pongListener) {
+        this.pongListener = pongListener;
+    }
+
+    /**
+     * @param metrics records the size of text and binary messages and the time spent in their callbacks
+     */
+    void metrics(ConnectionMetrics metrics) {
+        this.metrics = metrics;
     }
 
+    /**
+     * @param connection times every callback for the stall detection of the client
+     */
+    void timedBy(WsConnection connection) {
+        this.timedBy = connection;
+    }
+
+    private long enter() {
+        return timedBy == null ? 0 : timedBy.callbackStarted();
+    }
+
+    private void exit(long start) {
+        if (timedBy != null) {
+            timedBy.callbackReturned(start);
+        }
+    }
+
+    private boolean inline() {
+        return dispatchQueue == null && partitionedQueue == null;
+    }
+
+    private void dispatch(Runnable task) {
+        dispatch(null, task);
+    }
+
+    private void dispatch(Object key, Runnable task) {
+        long start = enter();
+        try {
+            if (partitionedQueue != null) {
+                partitionedQueue.dispatch(key, task);
+            } else if (dispatchQueue != null) {
+                dispatchQueue.dispatch(task);
+            } else {
+                task.run();
+            }
+        } finally {
+            exit(start);
+        }
+    }
 
     public void onConnect(WebSocketChannel channel) {
-        endpoint.onConnect(channel);
+        dispatch(() -> endpoint.onConnect(channel));
     }
 
     @Override
     protected void onFullTextMessage(WebSocketChannel channel, BufferedTextMessage message) throws IOException {
-        endpoint.onText(channel, message);
+        metrics.received(utf8Length(message.getData()));
+        long start = System.nanoTime();
+        Object key = partitionedQueue == null ? null : textKey.apply(message);
+        dispatch(key, () -> endpoint.onText(channel, message));
+        metrics.event(start);
         super.onFullTextMessage(channel, message);
     }
 
     @Override
     protected void onFullBinaryMessage(WebSocketChannel channel, BufferedBinaryMessage message) throws IOException {
-        endpoint.onBinary(channel, message);
-        super.onFullBinaryMessage(channel, message);
+        metrics.received((int) Buffers.remaining(message.getData().getResource()));
+        long start = System.nanoTime();
+        if (inline()) {
+            dispatch(() -> endpoint.onBinary(channel, message));
+            metrics.event(start);
+            super.onFullBinaryMessage(channel, message);
+            return;
+        }
+        Object key = partitionedQueue == null ? null : binaryKey.apply(message);
+        //the pooled data is only freed once the message was handled or dropped
+        dispatch(key, new DispatchQueue.Discardable() {
+            @Override
+            public void run() {
+                try {
+                    endpoint.onBinary(channel, message);
+                } finally {
+                    message.getData().free();
+                }
+            }
+
+            @Override
+            public void discard() {
+                message.getData().free();
+            }
+        });
+        metrics.event(start);
+    }
+
+    private static int utf8Length(String text) {
+        int length = text.length();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x800) {
+                length += Character.isHighSurrogate(c) ? 1 : 2; //4 bytes for the pair of chars
+            } else if (c >= 0x80) {
+                length++;
+            }
+        }
+        return length;
     }
 
     @Override
     protected void onFullPingMessage(WebSocketChannel channel, BufferedBinaryMessage message) throws IOException {
-        endpoint.onPing(channel, message);
+        long start = enter();
+        try {
+            endpoint.onPing(channel, message);
+        } finally {
+            exit(start);
+        }
         super.onFullPingMessage(channel, message);
     }
 
     @Override
     protected void onFullPongMessage(WebSocketChannel channel, BufferedBinaryMessage message) throws IOException {
-        endpoint.onPong(channel, message);
+        pongListener.accept(message.getData().getResource());
+        long start = enter();
+        try {
+            endpoint.onPong(channel, message);
+        } finally {
+            exit(start);
+        }
         super.onFullPongMessage(channel, message);
     }
 
     @Override
     protected void onCloseMessage(CloseMessage cm, WebSocketChannel channel) {
-        endpoint.onClose(channel, cm);
+        if (partitionedQueue != null) {
+            long start = enter();
+            try {
+                partitionedQueue.dispatchAfterAll(() -> endpoint.onClose(channel, cm));
+            } finally {
+                exit(start);
+            }
+        } else {
+            dispatch(() -> endpoint.onClose(channel, cm));
+        }
         super.onCloseMessage(cm, channel);
     }
 
     @Override
     protected void onError(WebSocketChannel channel, Throwable error) {
-        endpoint.onError(channel, (Exception) error);
+        dispatch(() -> endpoint.onError(channel, (Exception) error));
         super.onError(channel, error);
     }
 }
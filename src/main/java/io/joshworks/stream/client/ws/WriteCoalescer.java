@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.joshworks.stream.client.ws;
+
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSockets;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Queues the messages sent from any thread and writes them from the IO thread of the channel in batches.
+ * The channel is switched to explicit flushes while a batch is queued, so its frames go out with a single
+ * gathering write and flush instead of one per message.
+ * <p>
+ * A batch is written on the next IO thread tick, or after the linger time, or as soon as it reaches the maximum size.
+ * There is one per channel, messages still queued when it closes are dropped as the writes to a closed channel,
+ * a reconnection gets a new one.
+ */
+class WriteCoalescer {
+
+    private final WebSocketChannel channel;
+    private final int maxBatchSize;
+    private final long lingerMillis;
+    private final LongAdder batches; //shared by the coalescers of a connection
+
+    private final Queue<Object> pending = new ConcurrentLinkedQueue<>(); //Text or binary ByteBuffer
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    WriteCoalescer(WebSocketChannel channel, int maxBatchSize, long lingerMillis, LongAdder batches) {
+        this.channel = channel;
+        this.maxBatchSize = maxBatchSize;
+        this.lingerMillis = lingerMillis;
+        this.batches = batches;
+    }
+
+    /**
+     * @param data the UTF-8 encoded message
+     */
+    void sendText(ByteBuffer data) {
+        send(new Text(data));
+    }
+
+    void sendBinary(ByteBuffer data) {
+        send(data);
+    }
+
+    private void send(Object message) {
+        pending.add(message);
+        int queued = size.incrementAndGet();
+        if (queued % maxBatchSize == 0) {
+            channel.getIoThread().execute(this::flush);
+        } else if (scheduled.compareAndSet(false, true)) {
+            if (lingerMillis > 0) {
+                channel.getIoThread().executeAfter(this::flush, lingerMillis, TimeUnit.MILLISECONDS);
+            } else {
+                channel.getIoThread().execute(this::flush);
+            }
+        }
+    }
+
+    //runs on the IO thread of the channel
+    private void flush() {
+        scheduled.set(false);
+        if (size.get() == 0) {
+            return;
+        }
+        if (!channel.isOpen()) { //dropped, as the writes to a closed channel
+            while (pending.poll() != null) {
+                size.decrementAndGet();
+            }
+            return;
+        }
+        batches.increment();
+        channel.setRequireExplicitFlush(true);
+        try {
+            Object message;
+            for (int i = 0; i < maxBatchSize && (message = pending.poll()) != null; i++) {
+                size.decrementAndGet();
+                if (message instanceof Text) {
+                    WebSockets.sendText(((Text) message).data, channel, null);
+                } else {
+                    WebSockets.sendBinary((ByteBuffer) message, channel, null);
+                }
+            }
+        } finally {
+            channel.setRequireExplicitFlush(false);
+            channel.flush();
+        }
+        if (size.get() > 0 && scheduled.compareAndSet(false, true)) {
+            channel.getIoThread().execute(this::flush);
+        }
+    }
+
+    private static final class Text {
+        private final ByteBuffer data;
+
+        private Text(ByteBuffer data) {
+            this.data = data;
+        }
+    }
+}
@@ -2,15 +2,27 @@ package io.joshworks.stream.client.ws;
 
 import io.joshworks.stream.client.ClientConfiguration;
 import io.joshworks.stream.client.ConnectionMonitor;
+import io.joshworks.stream.client.FailedAttempt;
+import io.joshworks.stream.client.MaxRetryExceeded;
+import io.joshworks.stream.client.OverflowPolicy;
+import io.joshworks.stream.client.ReconnectPolicy;
+import io.joshworks.stream.client.StreamPublisher;
+import io.undertow.connector.ByteBufferPool;
 import io.undertow.websockets.core.BufferedBinaryMessage;
 import io.undertow.websockets.core.BufferedTextMessage;
 import io.undertow.websockets.core.CloseMessage;
 import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSockets;
 import org.xnio.XnioWorker;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Created by Josh Gontijo on 6/8/17.
@@ -33,6 +45,12 @@ public class WsConfiguration extends ClientConfiguration {
     };
 
     private WebSocketClientEndpoint endpoint;
+    private Function<BufferedTextMessage, ?> textKey = message -> null;
+    private Function<BufferedBinaryMessage, ?> binaryKey = message -> null;
+    long pingIntervalMillis = 0;
+    int maxMissedPongs = 3;
+    int coalesceBatchSize = 0;
+    long coalesceLingerMillis = 0;
 
 
     public WsConfiguration(String url, XnioWorker worker, ScheduledExecutorService scheduler, ConnectionMonitor monitor) {
@@ -45,6 +63,17 @@ public class WsConfiguration extends ClientConfiguration {
         this.endpoint = endpoint;
     }
 
+    public WsConfiguration(String url, XnioWorker worker, ScheduledExecutorService scheduler,
+                           ConnectionMonitor monitor, ByteBufferPool bufferPool) {
+        super(url, worker, scheduler, monitor, bufferPool);
+    }
+
+    public WsConfiguration(String url, XnioWorker worker, ScheduledExecutorService scheduler,
+                           ConnectionMonitor monitor, ByteBufferPool bufferPool, WebSocketClientEndpoint endpoint) {
+        super(url, worker, scheduler, monitor, bufferPool);
+        this.endpoint = endpoint;
+    }
+
     public WsConfiguration onConnect(Consumer<WebSocketChannel> onConnect) {
         this.onConnect = onConnect;
         return this;
@@ -81,6 +110,15 @@ public class WsConfiguration extends ClientConfiguration {
     }
 
     public WsConfiguration onFailedAttempt(Runnable onFailedAttempt) {
+        this.onFailedAttempt = attempt -> onFailedAttempt.run();
+        return this;
+    }
+
+    /**
+     * Called for every failed connection attempt, with the attempt number, the delay before the next attempt,
+     * the cause and the state of the circuit breaker of the endpoint
+     */
+    public WsConfiguration onFailedAttempt(Consumer<FailedAttempt> onFailedAttempt) {
         this.onFailedAttempt = onFailedAttempt;
         return this;
     }
@@ -90,11 +128,116 @@ public class WsConfiguration extends ClientConfiguration {
         return this;
     }
 
+    /**
+     * Runs the callbacks of this connection on the given executor instead of the IO thread, in order.
+     * Events are handed over through a bounded queue of 1024 events, blocking the IO thread when it is full.
+     */
+    public WsConfiguration dispatchTo(Executor executor) {
+        return dispatchTo(executor, dispatchQueueSize, overflowPolicy);
+    }
+
+    /**
+     * Runs the callbacks of this connection on the given executor instead of the IO thread, in order.
+     *
+     * @param executor  the executor, can be shared between connections
+     * @param queueSize the maximum number of events waiting to be handled
+     * @param policy    what to do when the queue is full
+     */
+    public WsConfiguration dispatchTo(Executor executor, int queueSize, OverflowPolicy policy) {
+        this.dispatchExecutor = executor;
+        this.dispatchQueueSize = queueSize;
+        this.overflowPolicy = policy;
+        return this;
+    }
+
+    /**
+     * Spreads text and binary messages over multiple lanes of the dispatch executor, see {@link #dispatchTo(Executor, int, OverflowPolicy)}.
+     * Messages with the same key are delivered in order, messages with different keys may be handled concurrently.
+     * Connect, close and error callbacks go to the first lane, ping and pong stay on the IO thread.
+     *
+     * @param lanes     the number of lanes
+     * @param textKey   extracts the key of text messages, called on the IO thread
+     * @param binaryKey extracts the key of binary messages, called on the IO thread
+     */
+    public WsConfiguration partitionBy(int lanes, Function<BufferedTextMessage, ?> textKey, Function<BufferedBinaryMessage, ?> binaryKey) {
+        this.dispatchLanes = lanes;
+        this.textKey = textKey;
+        this.binaryKey = binaryKey;
+        return this;
+    }
+
     public WsConfiguration retryInterval(int retryInterval) {
         this.retryInterval = retryInterval;
         return this;
     }
 
+    /**
+     * How long to wait before each reconnection, replaces {@link #retryInterval(int)}.
+     * ex: {@code ReconnectPolicy.decorrelatedJitter(500).capped(30000).withServerHint()}
+     */
+    public WsConfiguration reconnectPolicy(ReconnectPolicy reconnectPolicy) {
+        this.reconnectPolicy = reconnectPolicy;
+        return this;
+    }
+
+    /**
+     * Connection attempts waiting for admission, see {@link io.joshworks.stream.client.AdmissionConfiguration},
+     * are started by priority, higher first. Default 0
+     */
+    public WsConfiguration priority(int priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    /**
+     * Stops connecting to the endpoint (scheme, host and port) for {@code openMillis} after {@code failureThreshold}
+     * consecutive failed attempts of any connection to it, then a single connection probes it. Disabled by default.
+     */
+    public WsConfiguration circuitBreaker(int failureThreshold, long openMillis) {
+        this.circuitBreakerThreshold = failureThreshold;
+        this.circuitBreakerOpenMillis = openMillis;
+        return this;
+    }
+
+    /**
+     * Fails an attempt that is not open after the given time, TCP connection, TLS handshake and the upgrade included.
+     * The half open connection is closed and the attempt retried as configured. 10 seconds by default, zero to disable.
+     */
+    public WsConfiguration connectTimeout(long timeout, TimeUnit unit) {
+        this.connectTimeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * Sends a ping with a timestamp at the given interval, the round trip time of each pong is recorded,
+     * see {@link WsConnection#roundTripTimes()}. The connection is considered dead and reconnects when
+     * {@code maxMissedPongs} pings in a row were not answered. Disabled by default.
+     */
+    public WsConfiguration ping(long interval, TimeUnit unit, int maxMissedPongs) {
+        if (interval <= 0 || maxMissedPongs <= 0) {
+            throw new IllegalArgumentException("Ping interval and max missed pongs must be greater than zero");
+        }
+        this.pingIntervalMillis = unit.toMillis(interval);
+        this.maxMissedPongs = maxMissedPongs;
+        return this;
+    }
+
+    /**
+     * Writes the messages sent with {@link WsConnection#sendText(String)} and {@code sendBinary} in batches from the IO thread,
+     * with a single gathering write and flush per batch. Messages are queued until the next IO thread tick, or the linger time,
+     * and at most {@code maxBatchSize} go in a batch. Binary buffers must not be modified until written. Disabled by default.
+     *
+     * @param linger how long to wait for more messages, zero to only batch the messages sent before the IO thread runs
+     */
+    public WsConfiguration coalesceWrites(int maxBatchSize, long linger, TimeUnit unit) {
+        if (maxBatchSize <= 0 || linger < 0) {
+            throw new IllegalArgumentException("Max batch size must be greater than zero and linger cannot be negative");
+        }
+        this.coalesceBatchSize = maxBatchSize;
+        this.coalesceLingerMillis = unit.toMillis(linger);
+        return this;
+    }
+
     public WsConfiguration maxRetries(int maxRetries) {
         this.maxRetries = maxRetries;
         return this;
@@ -108,12 +251,67 @@ public class WsConfiguration extends ClientConfiguration {
 
     public WsConnection connect() {
         endpoint = endpoint == null ? createEndpoint() : endpoint;
-        WsConnection wsConnection = new WsConnection(this, endpoint);
+        WsConnection wsConnection = create();
         wsConnection.connect();
 
         return wsConnection;
     }
 
+    /**
+     * Connects without blocking the calling thread
+     *
+     * @return completes on the IO thread when the connection is first opened, or exceptionally if it is closed
+     * or gives up before that. Without retries it fails at the latest after the connect timeout, see {@link #connectTimeout(long, TimeUnit)}
+     */
+    public CompletableFuture<WsConnection> connectAsync() {
+        endpoint = endpoint == null ? createEndpoint() : endpoint;
+        WsConnection wsConnection = create();
+        return wsConnection.connect().thenApply(opened -> wsConnection);
+    }
+
+    /**
+     * Creates a Reactive Streams publisher of the text messages, the connection is opened when subscribed.
+     * Receives are suspended whenever the subscriber has no outstanding demand.
+     */
+    public StreamPublisher<String> textPublisher() {
+        return new StreamPublisher<>(publisher -> {
+            onText((channel, message) -> publisher.next(message.getData()));
+            return build(publisher);
+        });
+    }
+
+    /**
+     * Creates a Reactive Streams publisher of the binary messages, the connection is opened when subscribed.
+     * Messages are copied to heap buffers as the pooled ones are released once received.
+     */
+    public StreamPublisher<ByteBuffer> binaryPublisher() {
+        return new StreamPublisher<>(publisher -> {
+            onBinary((channel, message) -> publisher.next(WebSockets.mergeBuffers(message.getData().getResource())));
+            return build(publisher);
+        });
+    }
+
+    private WsConnection build(StreamPublisher<?> publisher) {
+        if (endpoint != null) {
+            throw new IllegalStateException("Publisher cannot be used with a client endpoint");
+        }
+        Runnable retriesExceeded = this.onRetriesExceeded;
+        this.onRetriesExceeded = () -> {
+            retriesExceeded.run();
+            publisher.error(new MaxRetryExceeded("Max retries (" + maxRetries + ") exceeded"));
+        };
+        this.onTerminated = publisher::complete;
+        endpoint = createEndpoint();
+        return create();
+    }
+
+    private WsConnection create() {
+        if (dispatchLanes > 1 && dispatchExecutor == null) {
+            throw new IllegalStateException("Partitioned dispatch requires an executor, see dispatchTo");
+        }
+        return new WsConnection(this, endpoint, textKey, binaryKey);
+    }
+
     private WebSocketClientEndpoint createEndpoint() {
         return new WebSocketClientEndpoint() {
             @Override
@@ -1,10 +1,11 @@
 package io.joshworks.stream.client.ws;
 
 import io.joshworks.stream.client.ClientConfiguration;
+import io.joshworks.stream.client.Histogram;
 import io.joshworks.stream.client.StreamConnection;
-import io.undertow.server.DefaultByteBufferPool;
 import io.undertow.server.protocol.framed.AbstractFramedChannel;
-import io.undertow.websockets.client.WebSocketClient;
+import io.undertow.websockets.core.BufferedBinaryMessage;
+import io.undertow.websockets.core.BufferedTextMessage;
 import io.undertow.websockets.core.CloseMessage;
 import io.undertow.websockets.core.WebSocketChannel;
 import io.undertow.websockets.core.WebSockets;
@@ -15,6 +16,13 @@ import org.xnio.ChannelListener;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 
 /**
  * Created by Josh Gontijo on 6/8/17.
@@ -24,50 +32,114 @@ public class WsConnection extends StreamConnection {
     private static final Logger logger = LoggerFactory.getLogger(WsConnection.class);
 
     private final WebSocketClientEndpoint endpoint;
+    private final Function<BufferedTextMessage, ?> textKey;
+    private final Function<BufferedBinaryMessage, ?> binaryKey;
     private boolean clientClose = false;
-    private WebSocketChannel webSocketChannel;
+    private volatile WebSocketChannel webSocketChannel;
+
+    private final long pingIntervalMillis; //zero when disabled
+    private final int maxMissedPongs;
+    private final AtomicInteger unansweredPings = new AtomicInteger();
+    private final Histogram roundTripTimes = new Histogram();
+    private volatile Runnable cancelPing = () -> {};
+    private final int coalesceBatchSize; //zero when each message is written on its own
+    private final long coalesceLingerMillis;
+    private final LongAdder coalescedBatches = new LongAdder();
+    private volatile WriteCoalescer coalescer; //of the current channel
 
 
     WsConnection(ClientConfiguration configuration, WebSocketClientEndpoint endpoint) {
         super(configuration);
         this.endpoint = endpoint;
+        this.textKey = message -> null;
+        this.binaryKey = message -> null;
+        this.pingIntervalMillis = 0;
+        this.maxMissedPongs = 0;
+        this.coalesceBatchSize = 0;
+        this.coalesceLingerMillis = 0;
+    }
+
+    WsConnection(WsConfiguration configuration, WebSocketClientEndpoint endpoint,
+                 Function<BufferedTextMessage, ?> textKey, Function<BufferedBinaryMessage, ?> binaryKey) {
+        super(configuration);
+        this.endpoint = endpoint;
+        this.textKey = textKey;
+        this.binaryKey = binaryKey;
+        this.pingIntervalMillis = configuration.pingIntervalMillis;
+        this.maxMissedPongs = configuration.maxMissedPongs;
+        this.coalesceBatchSize = configuration.coalesceBatchSize;
+        this.coalesceLingerMillis = configuration.coalesceLingerMillis;
     }
 
 
     @Override
-    protected synchronized void tryConnect() throws Exception {
+    protected synchronized CompletableFuture<Void> tryConnect() {
         if (webSocketChannel != null) {
-            return;
+            return CompletableFuture.completedFuture(null);
         }
-        shuttingDown = false;
 
         logger.info("Connecting to {}", url);
-        webSocketChannel = new WebSocketClient.ConnectionBuilder(
-                worker,
-                new DefaultByteBufferPool(false, 2048), //TODO configurable ?
-                URI.create(url))
-                .connect()
-                .get();
+        CompletableFuture<Void> opened = new CompletableFuture<>();
+        CompletableFuture<WebSocketChannel> connecting = WsUpgrade.connect(worker, ssl, bufferPool, URI.create(url));
+        //timed out, closes the connection if the upgrade is still in progress
+        opened.whenComplete((result, error) -> {
+            if (error != null) {
+                connecting.completeExceptionally(error);
+            }
+        });
+        connecting.whenComplete((channel, error) -> {
+            if (error != null) {
+                opened.completeExceptionally(error);
+                return;
+            }
+            try {
+                opened(channel, opened);
+                opened.complete(null);
+            } catch (Exception e) {
+                opened.completeExceptionally(e);
+            }
+        });
+        return opened;
+    }
 
+    private synchronized void opened(WebSocketChannel channel, CompletableFuture<Void> attempt) throws IOException {
+        if (shuttingDown || attempt.isDone()) { //closed or timed out while connecting
+            StreamConnection.closeChannel(channel);
+            throw new IOException("Connection closed while connecting");
+        }
+        webSocketChannel = channel;
+        if (coalesceBatchSize > 0) {
+            coalescer = new WriteCoalescer(channel, coalesceBatchSize, coalesceLingerMillis, coalescedBatches);
+        }
 
-        ProxyClientEndpoint proxyClientEndpoint = new ProxyClientEndpoint(endpoint);
+        ProxyClientEndpoint proxyClientEndpoint = partitionedQueue != null ?
+                new ProxyClientEndpoint(endpoint, partitionedQueue, textKey, binaryKey) :
+                new ProxyClientEndpoint(endpoint, dispatchQueue);
 
+        proxyClientEndpoint.pongListener(this::pong);
+        proxyClientEndpoint.metrics(metrics);
+        if (stallDetector != null) {
+            proxyClientEndpoint.timedBy(this);
+        }
         webSocketChannel.getReceiveSetter().set(proxyClientEndpoint);
-        webSocketChannel.getCloseSetter().set((ChannelListener<AbstractFramedChannel>) channel -> {
+        webSocketChannel.getCloseSetter().set((ChannelListener<AbstractFramedChannel>) closed -> {
             if(!clientClose) {
                 closeChannel();
-                proxyClientEndpoint.onCloseMessage(null, webSocketChannel);
+                proxyClientEndpoint.onCloseMessage(null, channel);
                 reconnect();
             }
         });
 
         proxyClientEndpoint.onConnect(webSocketChannel);
         webSocketChannel.resumeReceives();
+        if (pingIntervalMillis > 0) {
+            unansweredPings.set(0);
+            cancelPing = schedule(() -> ping(channel, proxyClientEndpoint), pingIntervalMillis, TimeUnit.MILLISECONDS);
+        }
 
         monitor.add(uuid, this::closeChannel);
         logger.info("Connected to {}", url);
         clientClose = false;
-
     }
 
     public boolean isOpen() {
@@ -79,16 +151,83 @@ public class WsConnection extends StreamConnection {
     }
 
     public void close(CloseMessage closeMessage) {
+        stopReconnecting();
         sendClose(closeMessage);
         closeChannel();
     }
 
+    //runs on the timer, reschedules itself while the channel is the current one
+    private void ping(WebSocketChannel channel, ProxyClientEndpoint proxyClientEndpoint) {
+        if (channel != webSocketChannel || !channel.isOpen()) {
+            return;
+        }
+        if (unansweredPings.get() >= maxMissedPongs) {
+            logger.warn("{} pings to {} were not answered, reconnecting", maxMissedPongs, url);
+            closeChannel();
+            proxyClientEndpoint.onError(channel, new TimeoutException(maxMissedPongs + " pings were not answered"));
+            proxyClientEndpoint.onCloseMessage(null, channel);
+            reconnect();
+            return;
+        }
+        unansweredPings.incrementAndGet();
+        ByteBuffer payload = ByteBuffer.allocate(8).putLong(0, System.nanoTime());
+        WebSockets.sendPing(payload, channel, null);
+        cancelPing = schedule(() -> ping(channel, proxyClientEndpoint), pingIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    //any pong shows the peer is alive, only the ones echoing our timestamp are timed
+    private void pong(ByteBuffer[] payload) {
+        unansweredPings.set(0);
+        long sent = timestamp(payload);
+        long roundTrip = System.nanoTime() - sent;
+        if (sent != Long.MIN_VALUE && roundTrip >= 0 && roundTrip < TimeUnit.HOURS.toNanos(1)) {
+            roundTripTimes.record(TimeUnit.NANOSECONDS.toMicros(roundTrip));
+        }
+    }
+
+    private static long timestamp(ByteBuffer[] payload) {
+        long value = 0;
+        int length = 0;
+        for (ByteBuffer buffer : payload) {
+            for (int i = buffer.position(); i < buffer.limit(); i++) {
+                if (++length > 8) {
+                    return Long.MIN_VALUE;
+                }
+                value = value << 8 | (buffer.get(i) & 0xFF);
+            }
+        }
+        return length == 8 ? value : Long.MIN_VALUE;
+    }
+
+    /**
+     * Called before a user callback, see {@link io.joshworks.stream.client.StallDetector}
+     *
+     * @return the start time of the callback
+     */
+    long callbackStarted() {
+        return enterCallback();
+    }
+
+    void callbackReturned(long start) {
+        exitCallback(start);
+    }
+
+    /**
+     * @return The round trip times of the pings of this connection in microseconds, kept across reconnections
+     */
+    public Histogram roundTripTimes() {
+        return roundTripTimes;
+    }
+
     @Override
     protected synchronized void closeChannel() {
+        cancelPing.run();
+        metrics.disconnected();
         if (webSocketChannel != null) {
             StreamConnection.closeChannel(webSocketChannel);
             clientClose = true;
             webSocketChannel = null;
+            coalescer = null;
             monitor.remove(uuid);
         }
     }
@@ -105,20 +244,78 @@ public class WsConnection extends StreamConnection {
         }
     }
 
+    @Override
+    public void suspendReads() {
+        WebSocketChannel channel = webSocketChannel;
+        if (channel != null) {
+            channel.suspendReceives();
+        }
+    }
+
+    @Override
+    public void resumeReads() {
+        WebSocketChannel channel = webSocketChannel;
+        if (channel != null) {
+            channel.resumeReceives();
+        }
+    }
+
     public WebSocketChannel channel() {
         return webSocketChannel;
     }
 
+    /**
+     * Sends a text message, queued for the next batch when writes are coalesced.
+     * Its bytes are counted as sent before it is handed to the channel.
+     *
+     * @throws IllegalStateException if not connected, messages are not kept for the next connection
+     */
     public void sendText(String message) {
-        WebSockets.sendText(message, webSocketChannel, null);
+        //encoded once, the length counted is the one of the frame payload
+        send(ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)), true);
     }
 
+    /**
+     * Sends a binary message, queued for the next batch when writes are coalesced.
+     * Its bytes are counted as sent before it is handed to the channel.
+     *
+     * @throws IllegalStateException if not connected, messages are not kept for the next connection
+     */
     public void sendBinary(ByteBuffer byteBuffer) {
-        WebSockets.sendBinary(byteBuffer, webSocketChannel, null);
+        send(byteBuffer, false);
+    }
+
+    private void send(ByteBuffer data, boolean text) {
+        WriteCoalescer current = coalescer; //null unless coalescing
+        WebSocketChannel channel = webSocketChannel;
+        if (coalesceBatchSize > 0 ? current == null : channel == null) {
+            throw new IllegalStateException("Not connected");
+        }
+        //counted first, the reply may be handled before the send returns
+        metrics.sent(data.remaining());
+        if (current != null) {
+            if (text) {
+                current.sendText(data);
+            } else {
+                current.sendBinary(data);
+            }
+        } else if (text) {
+            WebSockets.sendText(data, channel, null);
+        } else {
+            WebSockets.sendBinary(data, channel, null);
+        }
     }
 
     public void sendBinary(byte[] bytes) {
-        WebSockets.sendBinary(ByteBuffer.wrap(bytes), webSocketChannel, null);
+        sendBinary(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * @return The number of batches written when writes are coalesced, kept across reconnections,
+     * see {@link WsConfiguration#coalesceWrites(int, long, TimeUnit)}
+     */
+    public long coalescedBatches() {
+        return coalescedBatches.sum();
     }
 
 
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client.ws;
+
+import io.undertow.UndertowMessages;
+import io.undertow.connector.ByteBufferPool;
+import io.undertow.websockets.client.WebSocketClientHandshake;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSocketVersion;
+import org.xnio.ChannelListener;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.StreamConnection;
+import org.xnio.XnioWorker;
+import org.xnio.channels.BoundChannel;
+import org.xnio.http.ExtendedHandshakeChecker;
+import org.xnio.http.HttpUpgrade;
+import org.xnio.http.RedirectException;
+import org.xnio.ssl.XnioSsl;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Opens a WebSocket connection like {@link io.undertow.websockets.client.WebSocketClient.ConnectionBuilder#connect()},
+ * redirects included, keeping hold of the connection while the upgrade is in progress. Cancelling the future of the
+ * builder does not close a connection that is already open, so an upgrade the server never answers would leak it.
+ */
+final class WsUpgrade {
+
+    private static final int MAX_REDIRECTS = Integer.getInteger("io.undertow.websockets.max-redirects", 5);
+
+    private final XnioWorker worker;
+    private final XnioSsl ssl;
+    private final ByteBufferPool bufferPool;
+    private final CompletableFuture<WebSocketChannel> upgraded = new CompletableFuture<>();
+    private volatile BoundChannel connection; //of the upgrade in progress
+
+    private WsUpgrade(XnioWorker worker, XnioSsl ssl, ByteBufferPool bufferPool) {
+        this.worker = worker;
+        this.ssl = ssl;
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Connects without blocking, the future completes on the IO thread.
+     * Completing it exceptionally closes the connection if the upgrade is still in progress
+     */
+    static CompletableFuture<WebSocketChannel> connect(XnioWorker worker, XnioSsl ssl, ByteBufferPool bufferPool, URI uri) {
+        WsUpgrade upgrade = new WsUpgrade(worker, ssl, bufferPool);
+        upgrade.upgraded.whenComplete((channel, error) -> {
+            if (error != null) {
+                IoUtils.safeClose(upgrade.connection);
+            }
+        });
+        upgrade.connect(uri, 0);
+        return upgrade.upgraded;
+    }
+
+    private void connect(URI uri, int redirects) {
+        boolean secure = "wss".equals(uri.getScheme());
+        int port = uri.getPort() != -1 ? uri.getPort() : secure ? 443 : 80;
+        String path = uri.getPath() == null || uri.getPath().isEmpty() ? "/" : uri.getPath();
+        URI upgradeUri;
+        try {
+            upgradeUri = new URI(secure ? "https" : "http", uri.getUserInfo(), uri.getHost(), port, path, uri.getQuery(), uri.getFragment());
+        } catch (URISyntaxException e) {
+            upgraded.completeExceptionally(new IOException(e));
+            return;
+        }
+
+        WebSocketClientHandshake handshake = WebSocketClientHandshake.create(WebSocketVersion.V13, upgradeUri);
+        Map<String, String> handshakeHeaders = handshake.createHeaders();
+        handshakeHeaders.put("Host", uri.getHost() + ":" + port);
+        Map<String, List<String>> headers = new HashMap<>();
+        for (Map.Entry<String, String> header : handshakeHeaders.entrySet()) {
+            List<String> values = new ArrayList<>();
+            values.add(header.getValue());
+            headers.put(header.getKey(), values);
+        }
+
+        ChannelListener<StreamConnection> openListener = opened -> {
+            WebSocketChannel channel = handshake.createChannel(opened, upgradeUri.toString(), bufferPool, OptionMap.EMPTY);
+            if (!upgraded.complete(channel)) {
+                IoUtils.safeClose(channel);
+            }
+        };
+        ChannelListener<BoundChannel> bindListener = bound -> {
+            connection = bound;
+            if (upgraded.isCompletedExceptionally()) {
+                IoUtils.safeClose(bound);
+            }
+        };
+
+        ExtendedHandshakeChecker checker = handshake.handshakeChecker(upgradeUri, headers);
+        if (secure) {
+            HttpUpgrade.performUpgrade(worker, ssl, null, upgradeUri, headers, openListener, bindListener, OptionMap.EMPTY, checker)
+                    .addNotifier((future, attachment) -> failed(future, redirects), null);
+        } else {
+            HttpUpgrade.performUpgrade(worker, null, upgradeUri, headers, openListener, bindListener, OptionMap.EMPTY, checker)
+                    .addNotifier((future, attachment) -> failed(future, redirects), null);
+        }
+    }
+
+    private void failed(IoFuture<?> future, int redirects) {
+        if (future.getStatus() != IoFuture.Status.FAILED) {
+            return;
+        }
+        IOException failure = future.getException();
+        if (!(failure instanceof RedirectException)) {
+            upgraded.completeExceptionally(failure);
+        } else if (redirects == MAX_REDIRECTS) {
+            upgraded.completeExceptionally(UndertowMessages.MESSAGES.tooManyRedirects(failure));
+        } else {
+            try {
+                connect(new URI(((RedirectException) failure).getLocation()), redirects + 1);
+            } catch (URISyntaxException e) {
+                upgraded.completeExceptionally(new IOException(e));
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.joshworks.stream.client;
+
+import io.joshworks.stream.client.sse.SSEConnection;
+import io.joshworks.stream.client.ws.WsConnection;
+import io.undertow.Handlers;
+import io.undertow.Undertow;
+import io.undertow.websockets.core.WebSockets;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.util.Enumeration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ClientSslTest {
+
+    private static final int PORT = 9921;
+
+    private static Undertow server;
+    private static SSLContext clientContext;
+
+    @BeforeClass
+    public static void start() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        try (InputStream is = ClientSslTest.class.getResourceAsStream("/localhost.jks")) {
+            keyStore.load(is, "changeit".toCharArray());
+        }
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, "changeit".toCharArray());
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(keyStore);
+
+        SSLContext serverContext = SSLContext.getInstance("TLS");
+        serverContext.init(keyManagers.getKeyManagers(), null, null);
+        clientContext = SSLContext.getInstance("TLS");
+        clientContext.init(null, trustManagers.getTrustManagers(), null);
+
+        server = Undertow.builder()
+                .addHttpsListener(PORT, "localhost", serverContext)
+                .setHandler(Handlers.path()
+                        .addPrefixPath("/sse", Handlers.serverSentEvents((connection, lastEventId) -> connection.send("hello")))
+                        .addPrefixPath("/ws", Handlers.websocket((exchange, channel) -> WebSockets.sendText("hello", channel, null))))
+                .build();
+        server.start();
+
+        //the client must be created with this context
+        StreamClient.shutdown();
+        StreamClient.configure(new TlsConfiguration(clientContext));
+    }
+
+    @AfterClass
+    public static void stop() throws Exception {
+        StreamClient.shutdown();
+        StreamClient.configure((TlsConfiguration) null);
+        server.stop();
+    }
+
+    @Test
+    public void secondConnectionToTheSameHostResumesTheSession() throws Exception {
+        invalidateSessions();
+        long full = StreamClient.tlsStatistics().fullHandshakes();
+        long resumed = StreamClient.tlsStatistics().resumedHandshakes();
+
+        //default protocols, TLSv1.3 where available
+        sse();
+        assertEquals(full + 1, StreamClient.tlsStatistics().fullHandshakes());
+        assertEquals(resumed, StreamClient.tlsStatistics().resumedHandshakes());
+
+        sse();
+        assertEquals(full + 1, StreamClient.tlsStatistics().fullHandshakes());
+        assertEquals(resumed + 1, StreamClient.tlsStatistics().resumedHandshakes());
+
+        //same host:port, the session of the https connections is resumed
+        ws();
+        assertEquals(full + 1, StreamClient.tlsStatistics().fullHandshakes());
+        assertEquals(resumed + 2, StreamClient.tlsStatistics().resumedHandshakes());
+
+        ws();
+        assertEquals(full + 1, StreamClient.tlsStatistics().fullHandshakes());
+        assertEquals(resumed + 3, StreamClient.tlsStatistics().resumedHandshakes());
+    }
+
+    @Test
+    public void webSocketUpgradeDoesNotStallOnFullHandshakes() throws Exception {
+        long full = StreamClient.tlsStatistics().fullHandshakes();
+        for (int i = 0; i < 20; i++) {
+            invalidateSessions();
+            ws();
+        }
+        assertEquals(full + 20, StreamClient.tlsStatistics().fullHandshakes());
+    }
+
+    @Test
+    public void webSocketUpgradeDoesNotStallOnFullTls12Handshakes() throws Exception {
+        StreamClient.shutdown();
+        StreamClient.configure(new TlsConfiguration(clientContext).webSocketProtocols("TLSv1.2"));
+        try {
+            long full = StreamClient.tlsStatistics().fullHandshakes();
+            for (int i = 0; i < 20; i++) {
+                invalidateSessions();
+                ws();
+            }
+            assertEquals(full + 20, StreamClient.tlsStatistics().fullHandshakes());
+        } finally {
+            StreamClient.shutdown();
+            StreamClient.configure(new TlsConfiguration(clientContext));
+        }
+    }
+
+    private static void invalidateSessions() {
+        SSLSessionContext sessions = clientContext.getClientSessionContext();
+        for (Enumeration<byte[]> ids = sessions.getIds(); ids.hasMoreElements(); ) {
+            SSLSession session = sessions.getSession(ids.nextElement());
+            if (session != null) {
+                session.invalidate();
+            }
+        }
+    }
+
+    private static void sse() throws InterruptedException {
+        CountDownLatch received = new CountDownLatch(1);
+        SSEConnection connection = StreamClient.sse("https://localhost:" + PORT + "/sse")
+                .onEvent(event -> received.countDown())
+                .connect();
+        assertTrue(received.await(10, TimeUnit.SECONDS));
+        connection.close();
+    }
+
+    private static void ws() throws InterruptedException {
+        CountDownLatch received = new CountDownLatch(1);
+        WsConnection connection = StreamClient.ws("wss://localhost:" + PORT + "/ws")
+                .onText((channel, message) -> received.countDown())
+                .connect();
+        assertTrue(received.await(10, TimeUnit.SECONDS));
+        connection.close();
+    }
+}
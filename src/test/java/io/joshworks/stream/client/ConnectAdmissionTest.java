@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectAdmissionTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+
+    @After
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void waitingAttemptsAreAdmittedByPriority() throws Exception {
+        ConnectAdmission admission = new ConnectAdmission(new AdmissionConfiguration().maxConcurrent(1), scheduler);
+        CompletableFuture<Void> connecting = new CompletableFuture<>();
+        admission.submit(0, () -> connecting);
+
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+        admission.submit(-1, () -> completed(() -> order.add("low"), done));
+        admission.submit(10, () -> completed(() -> order.add("critical"), done));
+        admission.submit(0, () -> completed(() -> order.add("normal"), done));
+        assertEquals(3, admission.queueDepth());
+        assertEquals(1, admission.inFlight());
+
+        connecting.complete(null);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("critical", order.get(0));
+        assertEquals("normal", order.get(1));
+        assertEquals("low", order.get(2));
+        assertEquals(4, admission.admitted());
+        assertEquals(0, admission.queueDepth());
+    }
+
+    @Test
+    public void attemptsAreRateLimited() throws Exception {
+        ConnectAdmission admission = new ConnectAdmission(new AdmissionConfiguration().rate(20, 1), scheduler);
+        CountDownLatch done = new CountDownLatch(5);
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            admission.submit(0, () -> completed(() -> {}, done));
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("Elapsed " + elapsed, elapsed >= 180);
+        assertTrue(admission.maxWaitMillis() >= 150);
+    }
+
+    @Test
+    public void admittedAttemptsStartWhenTheSchedulerIsShutDown() throws Exception {
+        ConnectAdmission admission = new ConnectAdmission(new AdmissionConfiguration().maxConcurrent(1), scheduler);
+        CompletableFuture<Void> connecting = new CompletableFuture<>();
+        admission.submit(0, () -> connecting);
+        CountDownLatch done = new CountDownLatch(1);
+        admission.submit(0, () -> completed(() -> {}, done));
+
+        scheduler.shutdownNow();
+        connecting.complete(null);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0, admission.inFlight());
+        assertEquals(0, admission.queueDepth());
+    }
+
+    private static CompletableFuture<Void> completed(Runnable attempt, CountDownLatch done) {
+        attempt.run();
+        done.countDown();
+        return CompletableFuture.completedFuture(null);
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client;
+
+import io.joshworks.stream.client.sse.SSEConnection;
+import io.joshworks.stream.client.sse.SseConfiguration;
+import io.joshworks.stream.client.ws.WsConnection;
+import io.undertow.Handlers;
+import io.undertow.Undertow;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConnectTimeoutTest {
+
+    private static final int STALLED_PORT = 9929;
+    private static final int PORT = 9931;
+    private static final int CONNECT_TIMEOUT_MS = 300;
+    //undertow drains an HTTP/1.1 connection before closing it, for up to io.undertow.max-drain-time (10s)
+    private static final int CLOSE_WAIT_SECONDS = 20;
+
+    //accepts the TCP connections, never answers
+    private static ServerSocket stalled;
+    private static final BlockingQueue<Socket> accepted = new LinkedBlockingQueue<>();
+    private static Undertow server;
+
+    @BeforeClass
+    public static void start() throws IOException {
+        StreamClient.shutdown();
+        StreamClient.configure(new AdmissionConfiguration().maxConcurrent(1));
+        stalled = new ServerSocket(STALLED_PORT);
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    accepted.add(stalled.accept());
+                }
+            } catch (IOException e) {
+                //closed
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        server = Undertow.builder()
+                .addHttpListener(PORT, "localhost")
+                .setHandler(Handlers.serverSentEvents((connection, lastEventId) -> connection.send("hello")))
+                .build();
+        server.start();
+    }
+
+    @AfterClass
+    public static void stop() throws IOException {
+        StreamClient.shutdown();
+        StreamClient.configure(new AdmissionConfiguration());
+        server.stop();
+        stalled.close();
+        closeAccepted();
+    }
+
+    //sockets of previous tests
+    @Before
+    public void clearAccepted() throws IOException {
+        closeAccepted();
+    }
+
+    private static void closeAccepted() throws IOException {
+        Socket socket;
+        while ((socket = accepted.poll()) != null) {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void stalledAttemptReleasesItsAdmission() throws Exception {
+        List<Exception> errors = new CopyOnWriteArrayList<>();
+        SSEConnection stalledConnection = StreamClient.sse("http://localhost:" + STALLED_PORT)
+                .connectTimeout(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .onError(errors::add)
+                .connect();
+        Socket socket = accepted.poll(10, TimeUnit.SECONDS);
+        assertNotNull(socket);
+
+        //the only admission permit is held by the stalled attempt until it times out
+        CountDownLatch opened = new CountDownLatch(1);
+        SSEConnection connection = StreamClient.sse("http://localhost:" + PORT)
+                .onOpen(opened::countDown)
+                .connect();
+        assertTrue(opened.await(10, TimeUnit.SECONDS));
+
+        assertClosedByClient(socket);
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0) instanceof TimeoutException);
+        assertEquals(0, StreamClient.admission().inFlight());
+
+        connection.close();
+        stalledConnection.close();
+    }
+
+    @Test
+    public void stalledUpgradeIsClosed() throws Exception {
+        WsConnection connection = StreamClient.ws("ws://localhost:" + STALLED_PORT)
+                .connectTimeout(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .connect();
+        Socket socket = accepted.poll(10, TimeUnit.SECONDS);
+        assertNotNull(socket);
+
+        assertClosedByClient(socket);
+        assertTrue(!connection.isOpen());
+        assertEquals(0, StreamClient.admission().inFlight());
+    }
+
+    @Test
+    public void connectAsyncFailsAgainstAStalledPeer() throws Exception {
+        assertTimesOut(StreamClient.sse("http://localhost:" + STALLED_PORT)
+                .connectTimeout(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .connectAsync());
+        assertTimesOut(StreamClient.ws("ws://localhost:" + STALLED_PORT)
+                .connectTimeout(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .connectAsync());
+    }
+
+    @Test
+    public void connectAsyncFailsWhenTheSchedulerIsShutDown() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.shutdown();
+        CompletableFuture<SSEConnection> connecting = new SseConfiguration("http://localhost:" + PORT, null, scheduler, null).connectAsync();
+        assertTrue(connecting.isCompletedExceptionally());
+    }
+
+    private static void assertTimesOut(CompletableFuture<?> connecting) throws Exception {
+        try {
+            connecting.get(10, TimeUnit.SECONDS);
+            fail("Connected to a stalled peer");
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof TimeoutException);
+        }
+    }
+
+    //reads the request, the stream ends when the client closes the connection
+    private static void assertClosedByClient(Socket socket) throws IOException {
+        socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(CLOSE_WAIT_SECONDS));
+        InputStream input = socket.getInputStream();
+        byte[] buffer = new byte[1024];
+        long start = System.nanoTime();
+        while (input.read(buffer) != -1) {
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(CLOSE_WAIT_SECONDS));
+        }
+        socket.close();
+    }
+}
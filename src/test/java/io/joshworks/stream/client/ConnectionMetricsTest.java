@@ -0,0 +1,139 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.joshworks.stream.client;
+
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionMetricsTest {
+
+    @Test
+    public void sumsTheConnectionsWhenRead() {
+        ConnectionMonitor monitor = new ConnectionMonitor();
+        ConnectionMetrics first = new ConnectionMetrics();
+        ConnectionMetrics second = new ConnectionMetrics();
+        monitor.register(this, first);
+        monitor.register(this, second);
+
+        first.received(100);
+        second.received(50);
+        first.sent(10);
+        first.event(System.nanoTime());
+        second.event(System.nanoTime());
+
+        ConnectionMetrics aggregate = monitor.metrics();
+        assertEquals(100, first.bytesIn());
+        assertEquals(150, aggregate.bytesIn());
+        assertEquals(10, aggregate.bytesOut());
+        assertEquals(1, first.events());
+        assertEquals(2, aggregate.events());
+        assertEquals(2, aggregate.callbackTimes().count());
+        assertTrue(aggregate.lastEventAgeMillis() >= 0);
+
+        //a snapshot, later records show in the next one
+        first.received(1);
+        assertEquals(150, aggregate.bytesIn());
+        assertEquals(151, monitor.metrics().bytesIn());
+    }
+
+    @Test
+    public void collectedConnectionsAreStillCounted() throws InterruptedException {
+        ConnectionMonitor monitor = new ConnectionMonitor();
+        Object owner = new Object();
+        ConnectionMetrics metrics = new ConnectionMetrics();
+        monitor.register(owner, metrics);
+        metrics.received(100);
+        metrics.callbackTimes().record(10);
+
+        WeakReference<Object> reference = new WeakReference<>(owner);
+        owner = null;
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (reference.get() != null && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+
+        //once retired, a registered connection is not counted twice
+        monitor.register(new Object(), new ConnectionMetrics());
+        ConnectionMetrics aggregate = monitor.metrics();
+        assertEquals(100, aggregate.bytesIn());
+        assertEquals(1, aggregate.callbackTimes().count());
+        assertEquals(100, monitor.metrics().bytesIn());
+    }
+
+    @Test
+    public void keptAcrossReconnections() throws InterruptedException {
+        ConnectionMonitor monitor = new ConnectionMonitor();
+        ConnectionMetrics metrics = new ConnectionMetrics();
+        monitor.register(this, metrics);
+        assertEquals(-1, metrics.lastEventAgeMillis());
+
+        metrics.connected();
+        metrics.received(10);
+        Thread.sleep(20);
+        metrics.disconnected();
+        metrics.disconnected();
+        metrics.reconnecting();
+        metrics.connected();
+        metrics.received(10);
+
+        assertEquals(20, metrics.bytesIn());
+        assertEquals(1, metrics.reconnects());
+        assertEquals(1, metrics.connections());
+        assertEquals(1, monitor.metrics().connections());
+        assertTrue(metrics.timeConnectedMillis() >= 20);
+        assertTrue(monitor.metrics().timeConnectedMillis() >= 20);
+
+        metrics.disconnected();
+        assertEquals(0, monitor.metrics().connections());
+    }
+
+    @Test
+    public void parseTimeExcludesCallbacks() throws InterruptedException {
+        ConnectionMetrics metrics = new ConnectionMetrics();
+        long start = System.nanoTime();
+        long callback = System.nanoTime();
+        Thread.sleep(50);
+        metrics.eventInRead(callback);
+        metrics.read(64, start);
+
+        assertEquals(64, metrics.bytesIn());
+        assertEquals(1, metrics.parseTimes().count());
+        assertTrue(metrics.callbackTimes().max() >= 50_000_000L);
+        assertTrue(metrics.parseTimes().max() < 50_000_000L);
+    }
+
+    @Test
+    public void messagesOutsideAReadAreNotSubtracted() throws InterruptedException {
+        ConnectionMetrics metrics = new ConnectionMetrics();
+        long callback = System.nanoTime();
+        Thread.sleep(50);
+        metrics.event(callback);
+
+        long start = System.nanoTime();
+        Thread.sleep(20);
+        metrics.read(64, start);
+        assertTrue(metrics.parseTimes().max() >= 20_000_000L);
+    }
+}
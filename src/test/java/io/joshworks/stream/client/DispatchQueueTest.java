@@ -0,0 +1,245 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client;
+
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DispatchQueueTest {
+
+    //runs the drain task only when asked, so the queue can be filled up
+    private final List<Runnable> pending = new ArrayList<>();
+    private final TestFlowControl flowControl = new TestFlowControl();
+
+    private void runPending() {
+        while (!pending.isEmpty()) {
+            pending.remove(0).run();
+        }
+    }
+
+    @Test
+    public void capacityIsRoundedToPowerOfTwo() {
+        DispatchQueue queue = new DispatchQueue(pending::add, 3, OverflowPolicy.DROP_NEWEST, flowControl);
+        for (int i = 0; i < 5; i++) {
+            queue.dispatch(() -> {});
+        }
+        assertEquals(4, queue.size());
+        assertEquals(1, queue.dropped());
+    }
+
+    @Test
+    public void dropNewest() {
+        List<Integer> received = new ArrayList<>();
+        DispatchQueue queue = new DispatchQueue(pending::add, 2, OverflowPolicy.DROP_NEWEST, flowControl);
+
+        assertTrue(queue.dispatch(() -> received.add(1)));
+        assertTrue(queue.dispatch(() -> received.add(2)));
+        assertFalse(queue.dispatch(() -> received.add(3)));
+        runPending();
+
+        assertEquals(Arrays.asList(1, 2), received);
+        assertEquals(1, queue.dropped());
+    }
+
+    @Test
+    public void dropOldest() {
+        List<Integer> received = new ArrayList<>();
+        AtomicInteger discarded = new AtomicInteger();
+        DispatchQueue queue = new DispatchQueue(pending::add, 2, OverflowPolicy.DROP_OLDEST, flowControl);
+
+        queue.dispatch(new DispatchQueue.Discardable() {
+            @Override
+            public void discard() {
+                discarded.incrementAndGet();
+            }
+
+            @Override
+            public void run() {
+                received.add(1);
+            }
+        });
+        queue.dispatch(() -> received.add(2));
+        queue.dispatch(() -> received.add(3));
+        runPending();
+
+        assertEquals(Arrays.asList(2, 3), received);
+        assertEquals(1, queue.dropped());
+        assertEquals(1, discarded.get());
+    }
+
+    @Test
+    public void droppedTaskIsNotRetained() throws Exception {
+        DispatchQueue queue = new DispatchQueue(pending::add, 2, OverflowPolicy.DROP_OLDEST, flowControl);
+        Runnable oldest = new Object()::hashCode;
+        WeakReference<Runnable> reference = new WeakReference<>(oldest);
+        queue.dispatch(oldest);
+        oldest = null;
+        queue.dispatch(() -> {});
+        queue.dispatch(() -> {});
+        assertEquals(1, queue.dropped());
+
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(reference.get());
+    }
+
+    @Test
+    public void callbacksFiredByACallbackRunAfterTheQueuedOnes() {
+        List<String> received = new ArrayList<>();
+        DispatchQueue queue = new DispatchQueue(pending::add, 2, OverflowPolicy.BLOCK, flowControl);
+
+        queue.dispatch(() -> {
+            received.add("a");
+            queue.dispatch(() -> received.add("d"));
+            //the queue is full, waiting for itself would never return
+            queue.dispatch(() -> received.add("c"));
+        });
+        queue.dispatch(() -> received.add("b"));
+        runPending();
+
+        assertEquals(Arrays.asList("a", "b", "d", "c"), received);
+    }
+
+    @Test
+    public void callbackCanDispatchWhileTheProducerWaits() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch received = new CountDownLatch(1);
+        DispatchQueue queue = new DispatchQueue(executor, 2, OverflowPolicy.BLOCK, flowControl);
+
+        queue.dispatch(() -> {
+            started.countDown();
+            await(release);
+            queue.dispatch(received::countDown);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        queue.dispatch(() -> {});
+        queue.dispatch(() -> {});
+
+        //holds the producer lock while waiting for room
+        Thread producer = new Thread(() -> queue.dispatch(() -> {}));
+        producer.start();
+        Thread.sleep(50);
+        release.countDown();
+
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        producer.join(5_000);
+        assertFalse(producer.isAlive());
+        executor.shutdown();
+    }
+
+    @Test
+    public void suspendReads() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch received = new CountDownLatch(5);
+        DispatchQueue queue = new DispatchQueue(executor, 4, OverflowPolicy.SUSPEND_READS, flowControl);
+
+        queue.dispatch(() -> {
+            started.countDown();
+            await(release);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 4; i++) {
+            queue.dispatch(received::countDown);
+        }
+        assertFalse(flowControl.suspended);
+
+        //waits for room, like the IO thread with the remaining events of the current read
+        Thread producer = new Thread(() -> queue.dispatch(received::countDown));
+        producer.start();
+        while (!flowControl.suspended) {
+            Thread.sleep(1);
+        }
+
+        release.countDown();
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        producer.join();
+        assertFalse(flowControl.suspended);
+        assertEquals(0, queue.dropped());
+        executor.shutdown();
+    }
+
+    @Test
+    public void orderIsKeptWithBlockingPolicy() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        int events = 100_000;
+        List<Integer> received = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        DispatchQueue queue = new DispatchQueue(executor, 16, OverflowPolicy.BLOCK, flowControl);
+
+        for (int i = 0; i < events; i++) {
+            int value = i;
+            queue.dispatch(() -> {
+                received.add(value);
+                if (value == events - 1) {
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        assertEquals(events, received.size());
+        for (int i = 0; i < events; i++) {
+            assertEquals(i, (int) received.get(i));
+        }
+        assertEquals(0, queue.dropped());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class TestFlowControl implements FlowControl {
+        private volatile boolean suspended;
+
+        @Override
+        public void suspendReads() {
+            suspended = true;
+        }
+
+        @Override
+        public void resumeReads() {
+            suspended = false;
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void smallValuesAreExact() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 10; i++) {
+            histogram.record(i);
+        }
+        assertEquals(10, histogram.count());
+        assertEquals(1, histogram.min());
+        assertEquals(10, histogram.max());
+        assertEquals(5.5, histogram.mean(), 0.001);
+        assertEquals(5, histogram.percentile(50));
+        assertEquals(10, histogram.percentile(100));
+    }
+
+    @Test
+    public void percentilesAreWithinBucketPrecision() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100000; i++) {
+            histogram.record(i);
+        }
+        for (double percentile : new double[]{50, 90, 99, 99.9}) {
+            long expected = (long) (100000 * percentile / 100);
+            long actual = histogram.percentile(percentile);
+            assertTrue(percentile + ": " + actual, actual >= expected && actual <= expected * 1.125);
+        }
+    }
+
+    @Test
+    public void bucketsCoverAllValues() {
+        for (long value : new long[]{0, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE}) {
+            int index = Histogram.index(value);
+            assertTrue(value + " above its bucket", value <= Histogram.upperBound(index));
+            assertTrue(value + " in a lower bucket", index == 0 || value > Histogram.upperBound(index - 1));
+        }
+    }
+
+    @Test
+    public void add() {
+        Histogram first = new Histogram();
+        Histogram second = new Histogram();
+        first.record(10);
+        second.record(1000);
+        second.record(5);
+
+        Histogram total = new Histogram();
+        total.add(first);
+        total.add(second);
+        assertEquals(3, total.count());
+        assertEquals(5, total.min());
+        assertEquals(1000, total.max());
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PartitionedDispatchQueueTest {
+
+    private static final FlowControl NO_FLOW_CONTROL = new FlowControl() {
+        @Override
+        public void suspendReads() {
+        }
+
+        @Override
+        public void resumeReads() {
+        }
+    };
+
+    @Test
+    public void orderIsKeptPerKey() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        int keys = 16;
+        int eventsPerKey = 10_000;
+        Map<Integer, List<Integer>> received = new ConcurrentHashMap<>();
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        CountDownLatch done = new CountDownLatch(keys * eventsPerKey);
+        PartitionedDispatchQueue queue = new PartitionedDispatchQueue(executor, 4, 64, OverflowPolicy.BLOCK, NO_FLOW_CONTROL);
+
+        for (int i = 0; i < eventsPerKey; i++) {
+            for (int key = 0; key < keys; key++) {
+                int k = key;
+                int value = i;
+                queue.dispatch(key, () -> {
+                    //only one thread handles a key at a time, no need to synchronize
+                    received.computeIfAbsent(k, x -> new ArrayList<>()).add(value);
+                    threads.add(Thread.currentThread().getName());
+                    done.countDown();
+                });
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        for (int key = 0; key < keys; key++) {
+            List<Integer> values = received.get(key);
+            assertEquals(eventsPerKey, values.size());
+            for (int i = 0; i < eventsPerKey; i++) {
+                assertEquals(i, (int) values.get(i));
+            }
+        }
+        assertTrue(threads.size() > 1);
+        assertEquals(0, queue.dropped());
+    }
+
+    @Test
+    public void nullKeysGoToTheFirstLane() {
+        List<Runnable> pending = new ArrayList<>();
+        PartitionedDispatchQueue queue = new PartitionedDispatchQueue(pending::add, 2, 2, OverflowPolicy.DROP_NEWEST, NO_FLOW_CONTROL);
+
+        assertEquals(2, queue.lanes());
+        queue.dispatch(null, () -> {});
+        queue.dispatch(() -> {});
+        queue.dispatch(null, () -> {});
+        assertEquals(2, queue.size());
+        assertEquals(1, queue.dropped());
+    }
+
+    @Test
+    public void dispatchAfterAllRunsAfterEveryLane() {
+        List<Runnable> pending = new ArrayList<>();
+        List<String> ran = new ArrayList<>();
+        PartitionedDispatchQueue queue = new PartitionedDispatchQueue(pending::add, 4, 4, OverflowPolicy.BLOCK, NO_FLOW_CONTROL);
+
+        for (int key = 0; key < 4; key++) {
+            String value = String.valueOf(key);
+            queue.dispatch(key, () -> ran.add(value));
+        }
+        queue.dispatchAfterAll(() -> ran.add("close"));
+
+        //drain the lanes in reverse order, close must still be the last one
+        for (int i = pending.size() - 1; i >= 0; i--) {
+            pending.get(i).run();
+            if (i > 0) {
+                assertTrue(!ran.contains("close"));
+            }
+        }
+        assertEquals(5, ran.size());
+        assertEquals("close", ran.get(4));
+    }
+
+    @Test
+    public void dispatchAfterAllIsNotLostWhenALaneIsFull() {
+        List<Runnable> pending = new ArrayList<>();
+        List<String> ran = new ArrayList<>();
+        PartitionedDispatchQueue queue = new PartitionedDispatchQueue(pending::add, 2, 2, OverflowPolicy.DROP_NEWEST, NO_FLOW_CONTROL);
+
+        queue.dispatch(() -> ran.add("a"));
+        queue.dispatch(() -> ran.add("b"));
+        queue.dispatchAfterAll(() -> ran.add("close"));
+        assertTrue(ran.isEmpty());
+
+        for (Runnable drain : new ArrayList<>(pending)) {
+            drain.run();
+        }
+        assertEquals(3, ran.size());
+        assertTrue(ran.contains("close"));
+        assertEquals(1, queue.dropped());
+    }
+}
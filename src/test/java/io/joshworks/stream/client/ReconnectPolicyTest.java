@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ReconnectPolicyTest {
+
+    @Test
+    public void exponentialIsCapped() {
+        ReconnectPolicy policy = ReconnectPolicy.exponential(100).capped(1000);
+        assertEquals(100, policy.nextDelay(1, 0, -1));
+        assertEquals(200, policy.nextDelay(2, 100, -1));
+        assertEquals(800, policy.nextDelay(4, 400, -1));
+        assertEquals(1000, policy.nextDelay(5, 800, -1));
+        assertEquals(1000, policy.nextDelay(100, 1000, -1));
+    }
+
+    @Test
+    public void decorrelatedJitterStaysWithinBounds() {
+        ReconnectPolicy policy = ReconnectPolicy.decorrelatedJitter(100).capped(5000);
+        long previous = 0;
+        for (int attempt = 1; attempt <= 1000; attempt++) {
+            long delay = policy.nextDelay(attempt, previous, -1);
+            assertTrue("Delay " + delay, delay >= 100 && delay <= Math.min(5000, Math.max(100, previous) * 3));
+            previous = delay;
+        }
+    }
+
+    @Test
+    public void serverHintIsPreferred() {
+        ReconnectPolicy policy = ReconnectPolicy.fixed(2000).withServerHint();
+        assertEquals(2000, policy.nextDelay(1, 0, -1));
+        assertEquals(150, policy.nextDelay(1, 0, 150));
+    }
+
+    @Test
+    public void circuitOpensAfterThresholdAndClosesAfterProbe() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 1000);
+        breaker.failure(0);
+        breaker.failure(0);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertEquals(0, breaker.tryAcquire(0));
+
+        breaker.failure(10);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertEquals(500, breaker.tryAcquire(510));
+
+        //single probe
+        assertEquals(0, breaker.tryAcquire(1010));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+        assertTrue(breaker.tryAcquire(1020) > 0);
+
+        breaker.success();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertEquals(0, breaker.tryAcquire(1030));
+    }
+
+    @Test
+    public void failedProbeOpensTheCircuitAgain() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 1000);
+        breaker.failure(0);
+        assertEquals(0, breaker.tryAcquire(1000));
+
+        breaker.failure(1100);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertEquals(1000, breaker.tryAcquire(1100));
+    }
+
+    @Test
+    public void defaultPortIsTheSameEndpoint() {
+        assertEquals(CircuitBreaker.endpoint("http://localhost:80/a"), CircuitBreaker.endpoint("http://localhost/b"));
+        assertEquals(CircuitBreaker.endpoint("wss://localhost:443"), CircuitBreaker.endpoint("WSS://LocalHost/"));
+        assertNotEquals(CircuitBreaker.endpoint("https://localhost"), CircuitBreaker.endpoint("https://localhost:8443"));
+    }
+
+    @Test
+    public void breakersAreForgottenOnShutdown() {
+        CircuitBreaker breaker = CircuitBreaker.forEndpoint("http://localhost:9999", 1, 1000);
+        assertSame(breaker, CircuitBreaker.forEndpoint("http://localhost:9999/other", 1, 1000));
+        breaker.failure();
+
+        StreamClient.shutdown();
+        assertEquals(CircuitBreaker.State.CLOSED, CircuitBreaker.forEndpoint("http://localhost:9999", 1, 1000).state());
+    }
+}
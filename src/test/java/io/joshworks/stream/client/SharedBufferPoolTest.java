@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client;
+
+import io.undertow.connector.PooledByteBuffer;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SharedBufferPoolTest {
+
+    @Test
+    public void buffersAreReused() {
+        SharedBufferPool pool = new SharedBufferPool(new BufferPoolConfiguration().bufferSize(1024));
+
+        PooledByteBuffer first = pool.allocate();
+        assertEquals(1024, first.getBuffer().capacity());
+        first.getBuffer().put((byte) 1);
+        first.close();
+        assertFalse(first.isOpen());
+
+        PooledByteBuffer second = pool.allocate();
+        assertEquals(0, second.getBuffer().position());
+
+        assertEquals(1, pool.misses());
+        assertEquals(1, pool.hits());
+        assertEquals(1, pool.outstanding());
+
+        second.close();
+        second.close();
+        assertEquals(0, pool.outstanding());
+    }
+
+    @Test
+    public void globalQueueIsSharedAcrossThreads() throws Exception {
+        SharedBufferPool pool = new SharedBufferPool(new BufferPoolConfiguration().threadLocalCacheSize(0).maxPoolSize(1));
+
+        AtomicReference<PooledByteBuffer> allocated = new AtomicReference<>();
+        Thread thread = new Thread(() -> allocated.set(pool.allocate()));
+        thread.start();
+        thread.join();
+        allocated.get().close();
+        assertEquals(1, pool.pooled());
+
+        PooledByteBuffer buffer = pool.allocate();
+        assertEquals(1, pool.hits());
+        assertEquals(0, pool.pooled());
+
+        //queue is full, the extra buffer is discarded
+        PooledByteBuffer other = pool.allocate();
+        buffer.close();
+        other.close();
+        assertEquals(1, pool.pooled());
+    }
+
+    @Test
+    public void directPool() {
+        SharedBufferPool pool = new SharedBufferPool(new BufferPoolConfiguration().direct(true));
+
+        PooledByteBuffer buffer = pool.allocate();
+        assertTrue(buffer.getBuffer().isDirect());
+        assertFalse(pool.getArrayBackedPool().isDirect());
+        assertSame(pool.getArrayBackedPool(), pool.getArrayBackedPool());
+        buffer.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedPool() {
+        SharedBufferPool pool = new SharedBufferPool(new BufferPoolConfiguration());
+        pool.close();
+        pool.allocate();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.joshworks.stream.client;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StallDetectorTest {
+
+    private final List<CallbackStall> stalls = new CopyOnWriteArrayList<>();
+
+    private StallDetector detector(long thresholdMillis) {
+        StallConfiguration configuration = new StallConfiguration()
+                .threshold(thresholdMillis, TimeUnit.MILLISECONDS)
+                .onStall(stalls::add);
+        return new StallDetector(configuration, null);
+    }
+
+    @Test
+    public void fastCallbacksAreNotReported() {
+        StallDetector detector = detector(1000);
+        for (int i = 0; i < 10; i++) {
+            long start = detector.enter("conn", "http://localhost");
+            detector.exit(start);
+        }
+        detector.check();
+        assertEquals(0, detector.stalls());
+        assertEquals(10, detector.busyTimes().get(Thread.currentThread().getName()).count());
+    }
+
+    @Test
+    public void blockedThreadIsSampledOnce() throws Exception {
+        StallDetector detector = detector(20);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread ioThread = new Thread(() -> {
+            long start = detector.enter("conn", "http://localhost/stream");
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+            detector.exit(start);
+        }, "test-io-thread");
+        ioThread.start();
+        entered.await();
+        Thread.sleep(50);
+
+        detector.check();
+        detector.check();
+        release.countDown();
+        ioThread.join();
+
+        assertEquals(1, stalls.size());
+        CallbackStall stall = stalls.get(0);
+        assertEquals("conn", stall.connectionId());
+        assertEquals("http://localhost/stream", stall.url());
+        assertEquals("test-io-thread", stall.thread());
+        assertTrue(stall.elapsedMillis() >= 20);
+        assertTrue(stall.stackTrace().length > 0);
+        assertEquals(1, detector.busyTimes().get("test-io-thread").count());
+    }
+
+    @Test
+    public void returnedBeforeSampledIsReportedOnExit() throws Exception {
+        StallDetector detector = detector(10);
+        long start = detector.enter("conn", "http://localhost");
+        long nested = detector.enter("other", "http://other");
+        Thread.sleep(20);
+        detector.exit(nested);
+        assertEquals(0, detector.stalls());
+        detector.exit(start);
+
+        assertEquals(1, detector.stalls());
+        assertEquals("conn", stalls.get(0).connectionId());
+        assertEquals(0, stalls.get(0).stackTrace().length);
+    }
+}
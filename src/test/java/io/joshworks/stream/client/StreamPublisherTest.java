@@ -0,0 +1,177 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client;
+
+import org.junit.After;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StreamPublisherTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private TestConnection connection;
+
+    @After
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private StreamPublisher<Integer> publisher() {
+        return new StreamPublisher<>(publisher -> {
+            ClientConfiguration configuration = new ClientConfiguration("http://localhost", null, scheduler, new ConnectionMonitor());
+            configuration.onTerminated = publisher::complete;
+            connection = new TestConnection(configuration);
+            return connection;
+        });
+    }
+
+    @Test
+    public void demandDrivesReads() {
+        StreamPublisher<Integer> publisher = publisher();
+        TestSubscriber subscriber = new TestSubscriber();
+        publisher.subscribe(subscriber);
+
+        //events of the last read are kept until requested
+        publisher.next(1);
+        publisher.next(2);
+        assertTrue(connection.suspended);
+        assertTrue(subscriber.received.isEmpty());
+
+        subscriber.subscription.request(1);
+        assertEquals(Arrays.asList(1), subscriber.received);
+        assertTrue(connection.suspended);
+
+        subscriber.subscription.request(2);
+        assertEquals(Arrays.asList(1, 2), subscriber.received);
+        assertFalse(connection.suspended);
+
+        publisher.next(3);
+        assertEquals(Arrays.asList(1, 2, 3), subscriber.received);
+        assertTrue(connection.suspended);
+    }
+
+    @Test
+    public void completesAfterPendingEvents() {
+        StreamPublisher<Integer> publisher = publisher();
+        TestSubscriber subscriber = new TestSubscriber();
+        publisher.subscribe(subscriber);
+
+        publisher.next(1);
+        publisher.complete();
+        assertFalse(subscriber.completed);
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(Arrays.asList(1), subscriber.received);
+        assertTrue(subscriber.completed);
+    }
+
+    @Test
+    public void cancelClosesTheConnection() {
+        StreamPublisher<Integer> publisher = publisher();
+        TestSubscriber subscriber = new TestSubscriber();
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.cancel();
+        assertTrue(connection.closed);
+
+        subscriber.subscription.request(1);
+        publisher.next(1);
+        assertTrue(subscriber.received.isEmpty());
+        assertFalse(subscriber.completed);
+    }
+
+    @Test
+    public void singleSubscriber() {
+        StreamPublisher<Integer> publisher = publisher();
+        publisher.subscribe(new TestSubscriber());
+
+        TestSubscriber other = new TestSubscriber();
+        publisher.subscribe(other);
+        assertTrue(other.error instanceof IllegalStateException);
+    }
+
+    private static class TestConnection extends StreamConnection {
+
+        private volatile boolean suspended;
+        private volatile boolean closed;
+
+        TestConnection(ClientConfiguration clientConfiguration) {
+            super(clientConfiguration);
+        }
+
+        @Override
+        protected CompletableFuture<Void> tryConnect() {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        protected void closeChannel() {
+            closed = true;
+        }
+
+        @Override
+        public void suspendReads() {
+            suspended = true;
+        }
+
+        @Override
+        public void resumeReads() {
+            suspended = false;
+        }
+    }
+
+    private static class TestSubscriber implements Subscriber<Integer> {
+
+        private final List<Integer> received = new ArrayList<>();
+        private Subscription subscription;
+        private Throwable error;
+        private boolean completed;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(Integer item) {
+            received.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            this.error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+}
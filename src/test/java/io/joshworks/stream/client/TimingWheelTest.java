@@ -0,0 +1,70 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimingWheelTest {
+
+    //small wheel, so timeouts longer than 80ms go around it more than once
+    private final TimingWheel timer = new TimingWheel(new TimerConfiguration().tick(10, TimeUnit.MILLISECONDS).wheelSize(8), Runnable::run);
+
+    @After
+    public void stop() {
+        timer.stop();
+    }
+
+    @Test
+    public void expiresAfterDelay() throws Exception {
+        for (long delay : new long[]{0, 25, 150, 400}) {
+            CountDownLatch expired = new CountDownLatch(1);
+            long start = System.nanoTime();
+            TimingWheel.Timeout timeout = timer.schedule(expired::countDown, delay, TimeUnit.MILLISECONDS);
+            assertTrue(expired.await(5, TimeUnit.SECONDS));
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("Expired after " + elapsed + "ms, delay " + delay, elapsed >= delay && elapsed < delay + 200);
+            assertTrue(timeout.isExpired());
+        }
+    }
+
+    @Test
+    public void cancelledTimeoutsDoNotExpire() throws Exception {
+        AtomicInteger expired = new AtomicInteger();
+        CountDownLatch last = new CountDownLatch(1);
+        for (int i = 0; i < 1000; i++) {
+            TimingWheel.Timeout timeout = timer.schedule(expired::incrementAndGet, 50 + i % 100, TimeUnit.MILLISECONDS);
+            if (i % 2 == 0) {
+                assertTrue(timeout.cancel());
+                assertFalse(timeout.cancel());
+            }
+        }
+        timer.schedule(last::countDown, 300, TimeUnit.MILLISECONDS);
+        assertTrue(last.await(5, TimeUnit.SECONDS));
+        assertEquals(500, expired.get());
+        assertEquals(0, timer.pending());
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client.sse;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BatchingSseCallbackTest {
+
+    private final List<List<EventData>> batches = new ArrayList<>();
+    private final List<String> calls = new ArrayList<>();
+
+    private BatchingSseCallback callback(int maxBatchSize, long linger) {
+        return new BatchingSseCallback(new SseClientCallback() {
+            @Override
+            public void onEvent(EventData event) {
+                calls.add("event");
+            }
+
+            @Override
+            public void onEvents(List<EventData> events) {
+                batches.add(events);
+                calls.add("batch");
+            }
+
+            @Override
+            public void onClose(String lastEventId) {
+                calls.add("close");
+            }
+        }, maxBatchSize, linger);
+    }
+
+    @Test
+    public void eventsOfOneReadAreDeliveredTogether() {
+        BatchingSseCallback callback = callback(256, 0);
+        ByteEventStreamParser parser = new ByteEventStreamParser(connection(callback));
+
+        parser.write(buffer("data: a\n\ndata: b\n\ndata: c\n\ndata: incomplete"));
+        assertEquals(0, batches.size());
+
+        callback.readComplete();
+        assertEquals(1, batches.size());
+        assertEquals(3, batches.get(0).size());
+        assertEquals("a", batches.get(0).get(0).data);
+        assertEquals("c", batches.get(0).get(2).data);
+
+        //nothing pending
+        callback.readComplete();
+        assertEquals(1, batches.size());
+    }
+
+    @Test
+    public void maxBatchSize() {
+        BatchingSseCallback callback = callback(2, 0);
+        ByteEventStreamParser parser = new ByteEventStreamParser(connection(callback));
+
+        parser.write(buffer("data: a\n\ndata: b\n\ndata: c\n\n"));
+        callback.readComplete();
+
+        assertEquals(2, batches.size());
+        assertEquals(2, batches.get(0).size());
+        assertEquals("c", batches.get(1).get(0).data);
+    }
+
+    @Test
+    public void lingeringEventsAreDeliveredBeforeClose() {
+        BatchingSseCallback callback = callback(256, 60000);
+        ByteEventStreamParser parser = new ByteEventStreamParser(connection(callback));
+
+        parser.write(buffer("data: a\n\n"));
+        callback.readComplete();
+        assertEquals(0, batches.size());
+
+        callback.onClose("1");
+        assertEquals(1, batches.size());
+        assertEquals("[batch, close]", calls.toString());
+    }
+
+    @Test
+    public void batchIsDeliveredWithoutHoldingTheLock() throws Exception {
+        CountDownLatch delivering = new CountDownLatch(1);
+        CountDownLatch added = new CountDownLatch(1);
+        BatchingSseCallback callback = new BatchingSseCallback(new SseClientCallback() {
+            @Override
+            public void onEvent(EventData event) {
+            }
+
+            @Override
+            public void onEvents(List<EventData> events) {
+                delivering.countDown();
+                try {
+                    //a slow consumer does not block the thread adding the next events
+                    added.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, 256, 0);
+
+        callback.onEvent(new EventData("a"));
+        Thread consumer = new Thread(callback::flush);
+        consumer.start();
+        assertTrue(delivering.await(10, TimeUnit.SECONDS));
+        Thread producer = new Thread(() -> {
+            callback.onEvent(new EventData("b"));
+            added.countDown();
+        });
+        producer.start();
+        producer.join(5_000);
+        assertEquals(0, added.getCount());
+        consumer.join(10_000);
+    }
+
+    private static SSEConnection connection(SseClientCallback callback) {
+        return new SSEConnection(new SseConfiguration("http://localhost:9000/test", null, null, null), callback);
+    }
+
+    private static ByteBuffer buffer(String data) {
+        return ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8));
+    }
+}
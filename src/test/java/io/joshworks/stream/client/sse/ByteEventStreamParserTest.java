@@ -0,0 +1,312 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client.sse;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ByteEventStreamParserTest {
+
+    private final List<EventData> received = new ArrayList<>();
+    private final List<RawEventData> rawReceived = new ArrayList<>();
+    private SSEConnection connection;
+
+    @Before
+    public void init() {
+        init(new SseConfiguration("http://localhost:9000/test", null, null, null));
+    }
+
+    private void init(SseConfiguration configuration) {
+        received.clear();
+        rawReceived.clear();
+        connection = new SSEConnection(configuration, new SseClientCallback() {
+            @Override
+            public void onEvent(EventData event) {
+                received.add(event);
+            }
+
+            @Override
+            public void onRawEvent(RawEventData event) {
+                rawReceived.add(event);
+                super.onRawEvent(event);
+            }
+        });
+    }
+
+    @Test
+    public void singleEvent() {
+        parse("id: 1\nevent: type-a\ndata: hello\n\n");
+
+        assertEquals(1, received.size());
+        assertEquals(new EventData("hello", "1", "type-a", ""), received.get(0));
+        assertEquals("type-a", received.get(0).event);
+        assertEquals("1", connection.lastEventId());
+    }
+
+    @Test
+    public void multiLineData() {
+        parse("data: line 1\ndata: line 2\ndata\n\n");
+
+        assertEquals(1, received.size());
+        assertEquals("line 1\nline 2\n", received.get(0).data);
+        assertEquals("message", received.get(0).event);
+    }
+
+    @Test
+    public void onlyLeadingSpaceIsRemoved() {
+        parse("data:  a b c\n\n");
+
+        assertEquals(" a b c", received.get(0).data);
+    }
+
+    @Test
+    public void commentsAreIgnored() {
+        parse(": keep alive\n\n:another\ndata: a\n\n");
+
+        assertEquals(1, received.size());
+        assertEquals("a", received.get(0).data);
+    }
+
+    @Test
+    public void eventWithoutDataIsNotDispatched() {
+        parse("event: empty\nid: 10\n\ndata: a\n\n");
+
+        assertEquals(1, received.size());
+        assertEquals("message", received.get(0).event);
+        assertEquals("10", received.get(0).id);
+    }
+
+    @Test
+    public void lastEventIdIsKeptAcrossEvents() {
+        parse("id: 5\ndata: a\n\ndata: b\n\n");
+
+        assertEquals(2, received.size());
+        assertEquals("5", received.get(1).id);
+    }
+
+    @Test
+    public void allLineTerminators() {
+        parse("data: a\r\n\r\ndata: b\r\rdata: c\n\n");
+
+        assertEquals(3, received.size());
+        assertEquals("a", received.get(0).data);
+        assertEquals("b", received.get(1).data);
+        assertEquals("c", received.get(2).data);
+    }
+
+    @Test
+    public void nonAscii() {
+        parse("event: a\u00e7\u00e3o\ndata: ol\u00e1 \u4e16\u754c \ud83d\ude00\n\n");
+
+        assertEquals("ol\u00e1 \u4e16\u754c \ud83d\ude00", received.get(0).data);
+        assertEquals("a\u00e7\u00e3o", received.get(0).event);
+    }
+
+    @Test
+    public void splitAtEveryPosition() {
+        String stream = "id: 1\r\nevent: a\u00e7\u00e3o\r\ndata: ol\u00e1\r\ndata: \u4e16\u754c\r\n\r\n: comment\ndata: b\n\n";
+        byte[] bytes = stream.getBytes(StandardCharsets.UTF_8);
+
+        for (int split = 1; split < bytes.length; split++) {
+            for (boolean direct : new boolean[]{false, true}) {
+                init();
+                ByteEventStreamParser parser = new ByteEventStreamParser(connection);
+                parser.write(buffer(bytes, 0, split, direct));
+                parser.write(buffer(bytes, split, bytes.length - split, direct));
+
+                assertEquals("split at " + split, 2, received.size());
+                assertEquals(new EventData("ol\u00e1\n\u4e16\u754c", "1", "a\u00e7\u00e3o", ""), received.get(0));
+                assertEquals(new EventData("b", "1", "message", ""), received.get(1));
+            }
+        }
+    }
+
+    @Test
+    public void byteByByte() {
+        byte[] bytes = "data: first\n\ndata: second\n\n".getBytes(StandardCharsets.UTF_8);
+        ByteEventStreamParser parser = new ByteEventStreamParser(connection);
+        for (byte b : bytes) {
+            parser.write(ByteBuffer.wrap(new byte[]{b}));
+        }
+
+        assertEquals(2, received.size());
+        assertEquals("second", received.get(1).data);
+    }
+
+    @Test
+    public void sameOutputAsLegacyParser() {
+        String stream = "id: 1\nevent: a\ndata: x\n\n" +
+                "data: y\ndata: z\n\n" +
+                ": comment\n" +
+                "id: 2\ndata: \u4e16\u754c\n\n";
+
+        parse(stream);
+        List<EventData> bytes = new ArrayList<>(received);
+
+        received.clear();
+        UTF8Output legacy = new UTF8Output(new EventStreamParser(connection));
+        legacy.write(ByteBuffer.wrap(stream.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(received, bytes);
+    }
+
+    @Test
+    public void rawEventViews() {
+        parse("id: 7\nevent: type-a\ndata: ol\u00e1\n\nevent: type-a\ndata: abc\n\n");
+
+        assertEquals(2, rawReceived.size());
+        RawEventData first = rawReceived.get(0);
+        assertTrue(first.isEvent("type-a"));
+        assertFalse(first.isEvent("type-b"));
+        assertEquals("7", first.idChars().toString());
+        assertEquals(ByteBuffer.wrap("ol\u00e1".getBytes(StandardCharsets.UTF_8)), first.dataBuffer());
+        assertEquals("ol\u00e1", first.dataChars().toString());
+        assertEquals(3, first.dataChars().length());
+
+        RawEventData second = rawReceived.get(1);
+        assertEquals("bc", second.dataChars().subSequence(1, 3).toString());
+        assertEquals('a', second.dataChars().charAt(0));
+        assertSame(first.eventChars(), second.eventChars());
+        assertSame(second.toEventData(), received.get(1));
+    }
+
+    @Test
+    public void legacyParserDeliversRawEvents() {
+        UTF8Output legacy = new UTF8Output(new EventStreamParser(connection));
+        legacy.write(ByteBuffer.wrap("event: a\ndata: x\n\n".getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(1, rawReceived.size());
+        assertTrue(rawReceived.get(0).isEvent("a"));
+        assertEquals("x", rawReceived.get(0).data());
+    }
+
+    @Test
+    public void dispatchTableDiscardsUnsubscribedEvents() {
+        List<EventData> typeA = new ArrayList<>();
+        List<EventData> messages = new ArrayList<>();
+        Map<String, Consumer<EventData>> handlers = new HashMap<>();
+        handlers.put("type-a", typeA::add);
+        handlers.put("message", messages::add);
+
+        String stream = "event: type-a\nid: 1\ndata: a\n\n" +
+                "event: type-b\nid: 2\ndata: b\ndata: b\n\n" +
+                "data: c\nevent: type-c\nid: 3\n\n" +
+                "data: d\n\n";
+
+        for (ParserMode mode : ParserMode.values()) {
+            typeA.clear();
+            messages.clear();
+            SseConfiguration configuration = new SseConfiguration("http://localhost:9000/test", null, null, null);
+            configuration.dispatchTable = new EventDispatchTable(handlers, true);
+            configuration.parserMode = mode;
+            init(configuration);
+
+            write(mode, stream);
+
+            assertEquals(mode.name(), 1, typeA.size());
+            assertEquals(new EventData("a", "1", "type-a", ""), typeA.get(0));
+            assertEquals(1, messages.size());
+            assertEquals(new EventData("d", "3", "message", ""), messages.get(0));
+            assertTrue(received.isEmpty());
+            assertEquals("3", connection.lastEventId());
+        }
+    }
+
+    @Test
+    public void dispatchTableWithCatchAll() {
+        List<EventData> typeA = new ArrayList<>();
+        Map<String, Consumer<EventData>> handlers = new HashMap<>();
+        handlers.put("type-a", typeA::add);
+
+        for (ParserMode mode : ParserMode.values()) {
+            typeA.clear();
+            SseConfiguration configuration = new SseConfiguration("http://localhost:9000/test", null, null, null);
+            configuration.dispatchTable = new EventDispatchTable(handlers, false);
+            init(configuration);
+
+            write(mode, "event: type-a\ndata: a\n\nevent: type-b\ndata: b\n\ndata: c\n\n");
+
+            assertEquals(1, typeA.size());
+            assertEquals(2, received.size());
+            assertEquals("type-b", received.get(0).event);
+            assertEquals("message", received.get(1).event);
+        }
+    }
+
+    @Test
+    public void lastEventNameOverridesDispatchRoute() {
+        List<EventData> typeA = new ArrayList<>();
+        Map<String, Consumer<EventData>> handlers = new HashMap<>();
+        handlers.put("type-a", typeA::add);
+
+        for (ParserMode mode : ParserMode.values()) {
+            typeA.clear();
+            received.clear();
+            SseConfiguration configuration = new SseConfiguration("http://localhost:9000/test", null, null, null);
+            configuration.dispatchTable = new EventDispatchTable(handlers, false);
+            init(configuration);
+
+            write(mode, "event: type-a\nevent: type-b\ndata: b\n\nevent: type-b\nevent: type-a\ndata: a\n\n");
+
+            assertEquals(mode.name(), 1, typeA.size());
+            assertEquals("a", typeA.get(0).data);
+            assertEquals(mode.name(), 1, received.size());
+            assertEquals("type-b", received.get(0).event);
+            assertEquals("b", received.get(0).data);
+        }
+    }
+
+    private void write(ParserMode mode, String stream) {
+        ByteBuffer buffer = ByteBuffer.wrap(stream.getBytes(StandardCharsets.UTF_8));
+        if (mode == ParserMode.LEGACY) {
+            new UTF8Output(new EventStreamParser(connection)).write(buffer);
+        } else {
+            new ByteEventStreamParser(connection).write(buffer);
+        }
+    }
+
+    private void parse(String stream) {
+        new ByteEventStreamParser(connection).write(ByteBuffer.wrap(stream.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static ByteBuffer buffer(byte[] bytes, int offset, int length, boolean direct) {
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length + 10);
+        if (!direct) {
+            //exercise array offset
+            buffer.position(10);
+            buffer = buffer.slice();
+        }
+        buffer.put(bytes, offset, length);
+        buffer.flip();
+        return buffer;
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client.sse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CheckpointStoreTest {
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("checkpoint", ".dat");
+        Files.delete(file);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void idIsReadBackAfterReopening() throws IOException {
+        try (CheckpointStore store = CheckpointStore.open(file)) {
+            store.checkpoint("a").write(Utf8Text.of("1"));
+            store.checkpoint("b").write(Utf8Text.of("b-1"));
+            store.checkpoint("a").write(Utf8Text.of("2"));
+            assertEquals("2", store.read("a"));
+        }
+        try (CheckpointStore store = CheckpointStore.open(file)) {
+            assertEquals("2", store.read("a"));
+            assertEquals("b-1", store.read("b"));
+            assertNull(store.read("c"));
+        }
+    }
+
+    @Test
+    public void previousIdIsKeptWhenLastRecordIsCorrupted() throws IOException {
+        try (CheckpointStore store = CheckpointStore.open(file)) {
+            store.checkpoint("a").write(Utf8Text.of("1"));
+            store.checkpoint("a").write(Utf8Text.of("2"));
+        }
+        //flip a byte of the id "2", written in the first record of the first slot
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            long idPosition = 16 + 256 + 8 + 4;
+            raf.seek(idPosition);
+            raf.write('3');
+        }
+        try (CheckpointStore store = CheckpointStore.open(file)) {
+            assertEquals("1", store.read("a"));
+        }
+    }
+
+    @Test
+    public void parserWritesCheckpoint() throws IOException {
+        try (CheckpointStore store = CheckpointStore.open(file)) {
+            SseConfiguration configuration = new SseConfiguration("http://localhost:9000/test", null, null, null);
+            configuration.checkpoint = store.checkpoint("http://localhost:9000/test");
+            SSEConnection connection = new SSEConnection(configuration, new SseClientCallback() {
+                @Override
+                public void onEvent(EventData event) {
+                }
+            });
+            new ByteEventStreamParser(connection).write(ByteBuffer.wrap("id: 1\ndata: a\n\ndata: b\n\nid: 42\ndata: c\n\n".getBytes(StandardCharsets.UTF_8)));
+            assertEquals("42", store.read("http://localhost:9000/test"));
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client.sse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EventJournalTest {
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("journal");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    public void eventsAreReplayedAfterId() throws IOException {
+        try (EventJournal journal = EventJournal.open(new JournalConfiguration(directory))) {
+            parse(journal, "id: 1\ndata: a\n\nid: 2\ndata: b\nevent: custom\n\ndata: c\n\nid: 3\ndata: \u00e7\n\n");
+
+            List<EventData> replayed = new ArrayList<>();
+            assertEquals(3, journal.replay("1", replayed::add));
+            assertEquals("b", replayed.get(0).data);
+            assertEquals("custom", replayed.get(0).event);
+            assertEquals("c", replayed.get(1).data);
+            assertEquals("2", replayed.get(1).id);
+            assertEquals("message", replayed.get(1).event);
+            assertEquals("\u00e7", replayed.get(2).data);
+
+            assertEquals(-1, journal.replay("unknown", replayed::add));
+        }
+    }
+
+    @Test
+    public void indexIsRecoveredAfterReopening() throws IOException {
+        try (EventJournal journal = EventJournal.open(new JournalConfiguration(directory))) {
+            parse(journal, "id: 1\ndata: a\n\nid: 2\ndata: b\n\n");
+        }
+        try (EventJournal journal = EventJournal.open(new JournalConfiguration(directory))) {
+            assertEquals(2, journal.indexSize());
+            parse(journal, "id: 3\ndata: c\n\n");
+
+            List<EventData> replayed = new ArrayList<>();
+            assertEquals(2, journal.replay("1", replayed::add));
+            assertEquals("c", replayed.get(1).data);
+        }
+    }
+
+    @Test
+    public void segmentsAreRolledAndDeletedBySize() throws IOException {
+        JournalConfiguration configuration = new JournalConfiguration(directory).segmentSize(1024).retentionSize(3 * 1024);
+        try (EventJournal journal = EventJournal.open(configuration)) {
+            String data = new String(new char[100]).replace('\0', 'x');
+            for (int i = 0; i < 100; i++) {
+                journal.append(new EventData(data, String.valueOf(i), "message"));
+            }
+            assertEquals(3, journal.segments());
+
+            List<EventData> replayed = new ArrayList<>();
+            long count = journal.replayAll(replayed::add);
+            assertTrue(count < 100);
+            assertEquals("99", replayed.get(replayed.size() - 1).id);
+            //deleted events are not in the index anymore
+            assertEquals(count, journal.indexSize());
+            assertEquals(-1, journal.replay("0", event -> {}));
+        }
+    }
+
+    @Test
+    public void replayFromTimestamp() throws IOException {
+        try (EventJournal journal = EventJournal.open(new JournalConfiguration(directory))) {
+            journal.append(new EventData("a", "1", "message"));
+            List<EventData> replayed = new ArrayList<>();
+            assertEquals(1, journal.replay(0, replayed::add));
+            assertEquals(0, journal.replay(System.currentTimeMillis() + 60000, replayed::add));
+        }
+    }
+
+    private static void parse(EventJournal journal, String stream) {
+        SseConfiguration configuration = new SseConfiguration("http://localhost:9000/test", null, null, null).journal(journal);
+        SSEConnection connection = new SSEConnection(configuration, new SseClientCallback() {
+            @Override
+            public void onEvent(EventData event) {
+            }
+        });
+        new ByteEventStreamParser(connection).write(ByteBuffer.wrap(stream.getBytes(StandardCharsets.UTF_8)));
+    }
+}
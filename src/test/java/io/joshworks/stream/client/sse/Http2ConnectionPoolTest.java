@@ -0,0 +1,262 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.joshworks.stream.client.sse;
+
+import io.joshworks.stream.client.StreamClient;
+import io.undertow.Handlers;
+import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
+import io.undertow.server.handlers.sse.ServerSentEventConnection;
+import io.undertow.server.handlers.sse.ServerSentEventHandler;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xnio.IoUtils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class Http2ConnectionPoolTest {
+
+    private static final int PORT = 9922;
+    private static final String URL = "http://localhost:" + PORT + "/sse/";
+
+    private static final Set<String> peers = ConcurrentHashMap.newKeySet();
+    private static final Map<String, List<String>> lastEventIds = new ConcurrentHashMap<>();
+    private static ServerSentEventHandler sse;
+    private static volatile CountDownLatch release = new CountDownLatch(0);
+    private static Undertow server;
+
+    @BeforeClass
+    public static void start() {
+        sse = Handlers.serverSentEvents((connection, lastEventId) -> {
+            String path = connection.getRequestURI();
+            if (lastEventId != null) {
+                lastEventIds.computeIfAbsent(path, p -> new CopyOnWriteArrayList<>()).add(lastEventId);
+            }
+            //the first request to /sse/ends is fully read, the stream ends after its only event
+            boolean ends = path.endsWith("/ends") && lastEventId == null;
+            connection.send("hello", null, "id" + path, !ends ? null : new ServerSentEventConnection.EventCallback() {
+                @Override
+                public void done(ServerSentEventConnection connection, String data, String event, String id) {
+                    IoUtils.safeClose(connection);
+                }
+
+                @Override
+                public void failed(ServerSentEventConnection connection, String data, String event, String id, IOException e) {
+
+                }
+            });
+        });
+        server = Undertow.builder()
+                .setServerOption(UndertowOptions.ENABLE_HTTP2, true)
+                .addHttpListener(PORT, "localhost")
+                .setHandler(exchange -> {
+                    peers.add(exchange.getConnection().getPeerAddress().toString());
+                    if (exchange.getRequestURI().endsWith("/slow")) {
+                        //the response is held until the test releases it
+                        exchange.dispatch(() -> {
+                            try {
+                                release.await(10, TimeUnit.SECONDS);
+                                sse.handleRequest(exchange);
+                            } catch (Exception e) {
+                                exchange.setStatusCode(500).endExchange();
+                            }
+                        });
+                        return;
+                    }
+                    sse.handleRequest(exchange);
+                })
+                .build();
+        server.start();
+    }
+
+    @AfterClass
+    public static void stop() {
+        StreamClient.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void streamsShareTheConnectionOfTheirOrigin() throws Exception {
+        peers.clear();
+        BlockingQueue<String> first = new LinkedBlockingQueue<>();
+        BlockingQueue<String> second = new LinkedBlockingQueue<>();
+        SSEConnection a = connect("a", first);
+        SSEConnection b = connect("b", second);
+
+        assertEquals("hello", first.poll(10, TimeUnit.SECONDS));
+        assertEquals("hello", second.poll(10, TimeUnit.SECONDS));
+        assertEquals(1, peers.size());
+        assertEquals(1, Http2ConnectionPool.connections());
+
+        //closing one stream leaves the other one running on the same connection
+        a.close();
+        assertFalse(a.isOpen());
+        send("/sse/b", "still there");
+        assertEquals("still there", second.poll(10, TimeUnit.SECONDS));
+        assertTrue(b.isOpen());
+        assertNull(first.poll(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, Http2ConnectionPool.connections());
+
+        //the last stream releasing the connection closes it
+        b.close();
+        waitFor(() -> Http2ConnectionPool.connections() == 0);
+        assertEquals(1, peers.size());
+    }
+
+    @Test
+    public void fullyReadStreamReconnectsWithItsOwnLastEventId() throws Exception {
+        BlockingQueue<String> ends = new LinkedBlockingQueue<>();
+        BlockingQueue<String> other = new LinkedBlockingQueue<>();
+        SSEConnection running = connect("running", other);
+        assertEquals("hello", other.poll(10, TimeUnit.SECONDS));
+        SSEConnection ending = connect("ends", ends);
+
+        assertEquals("hello", ends.poll(10, TimeUnit.SECONDS));
+        //the reconnection gets the same event again
+        assertEquals("hello", ends.poll(10, TimeUnit.SECONDS));
+        List<String> ids = lastEventIds.get("/sse/ends");
+        assertNotNull(ids);
+        assertEquals("id/sse/ends", ids.get(0));
+        assertNull(lastEventIds.get("/sse/running"));
+        assertTrue(other.isEmpty());
+
+        ending.close();
+        running.close();
+        waitFor(() -> Http2ConnectionPool.connections() == 0);
+    }
+
+    @Test
+    public void closingAStreamWhileTheServerWritesDoesNotStallTheOthers() throws Exception {
+        BlockingQueue<String> busyEvents = new LinkedBlockingQueue<>();
+        BlockingQueue<String> quietEvents = new LinkedBlockingQueue<>();
+        SSEConnection busy = connect("busy", busyEvents);
+        SSEConnection quiet = connect("quiet", quietEvents);
+        assertEquals("hello", busyEvents.poll(10, TimeUnit.SECONDS));
+        assertEquals("hello", quietEvents.poll(10, TimeUnit.SECONDS));
+
+        AtomicBoolean writing = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            while (writing.get()) {
+                send("/sse/busy", "data");
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+        });
+        writer.start();
+        assertEquals("data", busyEvents.poll(10, TimeUnit.SECONDS));
+        busy.close();
+        writing.set(false);
+        writer.join();
+
+        //either on the same connection or, if the client reset it, after reconnecting with its Last-Event-ID
+        long deadline = System.currentTimeMillis() + 10_000;
+        String received = null;
+        while (received == null && System.currentTimeMillis() < deadline) {
+            send("/sse/quiet", "after");
+            received = quietEvents.poll(100, TimeUnit.MILLISECONDS);
+            while ("hello".equals(received)) {
+                received = quietEvents.poll(100, TimeUnit.MILLISECONDS);
+            }
+        }
+        assertEquals("after", received);
+        List<String> ids = lastEventIds.get("/sse/quiet");
+        if (ids != null) {
+            assertEquals("id/sse/quiet", ids.get(0));
+        }
+
+        quiet.close();
+        waitFor(() -> Http2ConnectionPool.connections() == 0);
+    }
+
+    @Test
+    public void responseReceivedAfterCloseIsDiscarded() throws Exception {
+        release = new CountDownLatch(1);
+        //keeps the shared connection open for the late response
+        BlockingQueue<String> keptEvents = new LinkedBlockingQueue<>();
+        SSEConnection kept = connect("kept", keptEvents);
+        assertEquals("hello", keptEvents.poll(10, TimeUnit.SECONDS));
+        BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        AtomicBoolean opened = new AtomicBoolean();
+        SSEConnection slow = StreamClient.sse(URL + "slow")
+                .protocol(HttpProtocol.HTTP_2_PRIOR_KNOWLEDGE)
+                .onOpen(() -> opened.set(true))
+                .onEvent(event -> events.add(event.data))
+                .connect();
+        waitFor(() -> Http2ConnectionPool.connections() == 1);
+
+        slow.close();
+        release.countDown();
+
+        //the late response neither opens the stream nor keeps the connection
+        assertNull(events.poll(500, TimeUnit.MILLISECONDS));
+        assertFalse(opened.get());
+        assertFalse(slow.isOpen());
+        send("/sse/slow", "after close");
+        assertNull(events.poll(500, TimeUnit.MILLISECONDS));
+
+        kept.close();
+        waitFor(() -> Http2ConnectionPool.connections() == 0);
+    }
+
+    private static void send(String path, String data) {
+        for (ServerSentEventConnection connection : sse.getConnections()) {
+            if (path.equals(connection.getRequestURI()) && connection.isOpen()) {
+                connection.send(data);
+            }
+        }
+    }
+
+    private static SSEConnection connect(String stream, BlockingQueue<String> received) {
+        return StreamClient.sse(URL + stream)
+                .protocol(HttpProtocol.HTTP_2_PRIOR_KNOWLEDGE)
+                .retryInterval(100)
+                .maxRetries(5)
+                .onEvent(event -> received.add(event.data))
+                .connect();
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.met()) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    private interface Condition {
+        boolean met();
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.joshworks.stream.client.sse;
+
+import io.joshworks.stream.client.OverflowPolicy;
+import io.joshworks.stream.client.StreamClient;
+import io.undertow.Handlers;
+import io.undertow.Undertow;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IdleTimeoutTest {
+
+    private static final int PORT = 9923;
+    private static final String URL = "http://localhost:" + PORT;
+    private static final int IDLE_TIMEOUT_MS = 300;
+
+    private static final BlockingQueue<String> quietRequests = new LinkedBlockingQueue<>();
+    private static final AtomicInteger commentsRequests = new AtomicInteger();
+    private static final AtomicInteger burstRequests = new AtomicInteger();
+    private static final ScheduledExecutorService serverTasks = Executors.newSingleThreadScheduledExecutor();
+    private static Undertow server;
+
+    @BeforeClass
+    public static void start() {
+        server = Undertow.builder()
+                .addHttpListener(PORT, "localhost")
+                .setHandler(Handlers.path()
+                        //one event, then nothing, the reconnection is recorded with its Last-Event-ID
+                        .addPrefixPath("/quiet", Handlers.serverSentEvents((connection, lastEventId) -> {
+                            quietRequests.add(String.valueOf(lastEventId));
+                            if (lastEventId == null) {
+                                connection.send("first", null, "1", null);
+                            }
+                        }))
+                        //no events, only keep alive comments
+                        .addPrefixPath("/comments", Handlers.serverSentEvents((connection, lastEventId) -> {
+                            commentsRequests.incrementAndGet();
+                            connection.setKeepAliveTime(IDLE_TIMEOUT_MS / 5);
+                        }))
+                        //more events than the dispatch queue holds, then nothing
+                        .addPrefixPath("/burst", Handlers.serverSentEvents((connection, lastEventId) -> {
+                            burstRequests.incrementAndGet();
+                            //after the response headers, so the burst is not part of the first read
+                            serverTasks.schedule(() -> {
+                                for (int i = 0; i < 100; i++) {
+                                    connection.send(String.valueOf(i));
+                                }
+                            }, 50, TimeUnit.MILLISECONDS);
+                        })))
+                .build();
+        server.start();
+    }
+
+    @AfterClass
+    public static void stop() {
+        StreamClient.shutdown();
+        server.stop();
+        serverTasks.shutdown();
+    }
+
+    @Test
+    public void silentStreamTimesOutOnceAndResumesWithTheLastEventId() throws Exception {
+        List<Exception> errors = new CopyOnWriteArrayList<>();
+        SSEConnection connection = StreamClient.sse(URL + "/quiet")
+                .idleTimeout(IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .retryInterval(10)
+                .maxRetries(1)
+                .onEvent(event -> {})
+                .onError(errors::add)
+                .connect();
+
+        assertEquals("null", quietRequests.poll(10, TimeUnit.SECONDS));
+        assertEquals("1", quietRequests.poll(10, TimeUnit.SECONDS));
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0) instanceof TimeoutException);
+
+        connection.close();
+        quietRequests.clear();
+    }
+
+    @Test
+    public void commentsKeepTheStreamAlive() throws Exception {
+        List<Exception> errors = new CopyOnWriteArrayList<>();
+        CountDownLatch opened = new CountDownLatch(1);
+        SSEConnection connection = StreamClient.sse(URL + "/comments")
+                .idleTimeout(IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .onOpen(opened::countDown)
+                .onError(errors::add)
+                .connect();
+
+        assertTrue(opened.await(10, TimeUnit.SECONDS));
+        Thread.sleep(IDLE_TIMEOUT_MS * 5);
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertTrue(connection.isOpen());
+        assertEquals(1, commentsRequests.get());
+
+        connection.close();
+    }
+
+    @Test
+    public void suspendedReadsAreNotIdle() throws Exception {
+        List<Exception> errors = new CopyOnWriteArrayList<>();
+        List<String> received = new CopyOnWriteArrayList<>();
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        SSEConnection connection = StreamClient.sse(URL + "/burst")
+                .idleTimeout(IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .dispatchTo(executor, 4, OverflowPolicy.SUSPEND_READS)
+                .onEvent(event -> {
+                    blocked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    received.add(event.data);
+                })
+                .onError(errors::add)
+                .connect();
+
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+        //reads are suspended by the full queue for longer than the idle timeout, errors would be queued behind the events
+        Thread.sleep(IDLE_TIMEOUT_MS * 4);
+        assertTrue(connection.isOpen());
+        assertEquals(1, burstRequests.get());
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (received.size() < 100 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(100, received.size());
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(1, burstRequests.get());
+
+        connection.close();
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client.sse;
+
+import io.joshworks.stream.client.StreamClient;
+import io.undertow.Undertow;
+import io.undertow.util.Headers;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RecycledEventsTest {
+
+    private static final int EVENTS_PER_BUFFER = 50;
+    private static final int PORT = 9928;
+
+    @Test
+    public void sameInstanceIsRefilled() {
+        List<RawEventData> events = new ArrayList<>();
+        List<String> data = new ArrayList<>();
+        SSEConnection connection = connection(event -> {
+            events.add(event);
+            data.add(event.data());
+        });
+
+        parser(connection).write(ByteBuffer.wrap("id: 1\ndata: a\n\nid: 2\ndata: b\n\n".getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(2, events.size());
+        assertSame(events.get(0), events.get(1));
+        assertEquals("a", data.get(0));
+        assertEquals("b", data.get(1));
+        assertEquals("2", connection.lastEventId());
+    }
+
+    @Test
+    public void idOfAnEventNotDispatchedIsNotExposed() {
+        List<String> data = new ArrayList<>();
+        SSEConnection connection = connection(event -> data.add(event.data()));
+        ByteEventStreamParser parser = parser(connection);
+
+        parser.write(ByteBuffer.wrap("id: 1\ndata: a\n\nid: 2\n".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("1", connection.lastEventId());
+
+        parser.write(ByteBuffer.wrap("data: b\n\n".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("2", connection.lastEventId());
+        assertEquals(2, data.size());
+    }
+
+    @Test
+    public void streamClosedBeforeTheDataOfAnIdResumesFromTheLastDispatchedEvent() throws Exception {
+        BlockingQueue<String> requests = new LinkedBlockingQueue<>();
+        Undertow server = Undertow.builder()
+                .addHttpListener(PORT, "localhost")
+                .setHandler(exchange -> {
+                    String lastEventId = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+                    requests.add(String.valueOf(lastEventId));
+                    exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/event-stream");
+                    //the stream ends between the id of the second event and its data
+                    exchange.getResponseSender().send(lastEventId == null ? "id: 1\ndata: a\n\nid: 2\n" : "");
+                })
+                .build();
+        server.start();
+        try {
+            List<String> received = new CopyOnWriteArrayList<>();
+            SSEConnection connection = StreamClient.sse("http://localhost:" + PORT)
+                    .recycleEvents(true)
+                    .retryInterval(10)
+                    .maxRetries(1)
+                    .onRawEvent(event -> received.add(event.data()))
+                    .connect();
+
+            assertEquals("null", requests.poll(10, TimeUnit.SECONDS));
+            assertEquals("1", requests.poll(10, TimeUnit.SECONDS));
+            assertEquals("[a]", received.toString());
+
+            connection.close();
+        } finally {
+            StreamClient.shutdown();
+            server.stop();
+        }
+    }
+
+    @Test
+    public void steadyStateAllocationPerEvent() {
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threadBean;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled());
+
+        long[] checksum = new long[1];
+        SSEConnection connection = connection(event -> {
+            if (event.isEvent("price")) {
+                CharSequence data = event.dataChars();
+                checksum[0] += data.length() + data.charAt(0);
+            }
+        });
+        ByteEventStreamParser parser = parser(connection);
+        ByteBuffer buffer = stream();
+
+        //warm up, buffers grow to their final size and the code gets compiled
+        for (int i = 0; i < 20_000; i++) {
+            buffer.rewind();
+            parser.write(buffer);
+        }
+
+        int iterations = 2_000;
+        long threadId = Thread.currentThread().getId();
+        long before = allocations.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            buffer.rewind();
+            parser.write(buffer);
+        }
+        long allocated = allocations.getThreadAllocatedBytes(threadId) - before;
+
+        double perEvent = (double) allocated / (iterations * EVENTS_PER_BUFFER);
+        assertTrue("Allocated " + perEvent + " bytes per event", perEvent < 1);
+        assertTrue(checksum[0] > 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void requiresByteParser() {
+        new SseConfiguration("http://localhost:9000/test", null, null, null)
+                .parser(ParserMode.LEGACY)
+                .recycleEvents(true)
+                .connect();
+    }
+
+    private static ByteBuffer stream() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < EVENTS_PER_BUFFER; i++) {
+            sb.append("id: ").append(i).append("\n");
+            sb.append("event: ").append(i % 2 == 0 ? "price" : "trade").append("\n");
+            sb.append("data: {\"symbol\": \"ABC\", \"value\": ").append(i).append("}\n");
+            sb.append("data: second line\n\n");
+        }
+        return ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ByteEventStreamParser parser(SSEConnection connection) {
+        return new ByteEventStreamParser(connection);
+    }
+
+    private static SSEConnection connection(java.util.function.Consumer<RawEventData> onRawEvent) {
+        SseConfiguration configuration = new SseConfiguration("http://localhost:9000/test", null, null, null).recycleEvents(true);
+        return new SSEConnection(configuration, new SseClientCallback() {
+            @Override
+            public void onEvent(EventData event) {
+
+            }
+
+            @Override
+            public void onRawEvent(RawEventData event) {
+                onRawEvent.accept(event);
+            }
+        });
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.joshworks.stream.client.sse;
+
+import io.joshworks.stream.client.ConnectionMonitor;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SharedSseConnectionTest {
+
+    private static final String URL = "http://localhost:9000/shared";
+
+    @Test
+    public void eventsAreDeliveredToAllSubscribers() {
+        List<String> first = new ArrayList<>();
+        List<String> second = new ArrayList<>();
+        List<String> named = new ArrayList<>();
+
+        SseSubscription s1 = configuration().onEvent(event -> first.add(event.data)).subscribe();
+        SseSubscription s2 = configuration().onEvent(event -> second.add(event.data)).subscribe();
+        SseSubscription s3 = configuration().onEvent("custom", event -> named.add(event.data)).subscribe();
+        assertEquals(3, s1.subscribers());
+        assertEquals(1, SharedSseConnection.connections());
+
+        write(s1, "data: a\n\nevent: custom\ndata: b\n\n");
+
+        assertEquals(2, first.size());
+        assertEquals(2, second.size());
+        assertEquals(1, named.size());
+        assertEquals("b", named.get(0));
+
+        s1.close();
+        s3.close();
+        write(s2, "data: c\n\n");
+        assertEquals(2, first.size());
+        assertEquals(3, second.size());
+
+        s2.close();
+        assertTrue(s2.isClosed());
+        assertEquals(0, SharedSseConnection.connections());
+    }
+
+    @Test
+    public void subscriptionsWithDifferentHeadersAreNotShared() {
+        SseSubscription s1 = configuration().header("Authorization", "a").subscribe();
+        SseSubscription s2 = configuration().header("Authorization", "b").subscribe();
+        assertEquals(2, SharedSseConnection.connections());
+        s1.close();
+        s2.close();
+        assertEquals(0, SharedSseConnection.connections());
+    }
+
+    @Test
+    public void subscribersAreCalledOutsideTheLock() throws Exception {
+        List<SseSubscription> joined = new CopyOnWriteArrayList<>();
+        AtomicInteger opened = new AtomicInteger();
+        SseSubscription s1 = configuration().onOpen(() -> {
+            //another thread joining while the open callback runs
+            Thread subscriber = new Thread(() -> joined.add(configuration().onOpen(opened::incrementAndGet).subscribe()));
+            subscriber.start();
+            try {
+                subscriber.join(5_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }).subscribe();
+
+        s1.upstream().callback.onOpen();
+        assertEquals(1, joined.size());
+        //joined an open connection
+        assertEquals(1, opened.get());
+
+        s1.upstream().callback.onError(new Exception("test"));
+        joined.get(0).close();
+        s1.close();
+        assertEquals(0, SharedSseConnection.connections());
+    }
+
+    private static SseConfiguration configuration() {
+        //the connection is never attempted, events are written straight to the parser
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.shutdown();
+        return new SseConfiguration(URL, null, scheduler, new ConnectionMonitor());
+    }
+
+    private static void write(SseSubscription subscription, String stream) {
+        new ByteEventStreamParser(subscription.upstream()).write(ByteBuffer.wrap(stream.getBytes(StandardCharsets.UTF_8)));
+    }
+}
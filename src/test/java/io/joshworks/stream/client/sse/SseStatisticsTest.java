@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.joshworks.stream.client.sse;
+
+import io.joshworks.stream.client.StreamClient;
+import io.undertow.Handlers;
+import io.undertow.Undertow;
+import io.undertow.client.ClientStatistics;
+import io.undertow.server.handlers.sse.ServerSentEventConnection;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xnio.IoUtils;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("deprecation")
+public class SseStatisticsTest {
+
+    private static final int PORT = 9925;
+    private static final String URL = "http://localhost:" + PORT;
+
+    private static final AtomicInteger requests = new AtomicInteger();
+    private static Undertow server;
+
+    @BeforeClass
+    public static void start() {
+        server = Undertow.builder()
+                .addHttpListener(PORT, "localhost")
+                //the first stream ends after its only event, the reconnection stays open
+                .setHandler(Handlers.serverSentEvents((connection, lastEventId) -> {
+                    requests.incrementAndGet();
+                    connection.send("hello", null, "1", lastEventId != null ? null : new ServerSentEventConnection.EventCallback() {
+                        @Override
+                        public void done(ServerSentEventConnection connection, String data, String event, String id) {
+                            IoUtils.safeClose(connection);
+                        }
+
+                        @Override
+                        public void failed(ServerSentEventConnection connection, String data, String event, String id, IOException e) {
+
+                        }
+                    });
+                }))
+                .build();
+        server.start();
+    }
+
+    @AfterClass
+    public static void stop() {
+        StreamClient.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void countsTheRequestsSent() throws Exception {
+        BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        SSEConnection connection = StreamClient.sse(URL + "/stream")
+                .retryInterval(10)
+                .maxRetries(3)
+                .onEvent(event -> events.add(event.data))
+                .connect();
+
+        assertEquals("hello", events.poll(10, TimeUnit.SECONDS));
+        assertEquals("hello", events.poll(10, TimeUnit.SECONDS));
+        ClientStatistics statistics = connection.statistics();
+        assertEquals(2, requests.get());
+        assertEquals(2, statistics.getRequests());
+        //the request line and headers of both requests
+        assertTrue(statistics.getWritten() > 2 * "GET /stream HTTP/1.1\r\nAccept: text/event-stream\r\n\r\n".length());
+        assertEquals(connection.metrics().bytesOut(), statistics.getWritten());
+        assertEquals(connection.metrics().bytesIn(), statistics.getRead());
+
+        connection.close();
+    }
+
+    @Test
+    public void nothingIsCountedWithoutAConnection() throws Exception {
+        CountDownLatch failed = new CountDownLatch(1);
+        SSEConnection connection = StreamClient.sse("http://localhost:" + (PORT + 1) + "/stream")
+                .retryInterval(10)
+                .maxRetries(2)
+                .onRetriesExceeded(failed::countDown)
+                .connect();
+
+        assertTrue(failed.await(10, TimeUnit.SECONDS));
+        assertEquals(0, connection.statistics().getRequests());
+        assertEquals(0, connection.statistics().getWritten());
+    }
+}
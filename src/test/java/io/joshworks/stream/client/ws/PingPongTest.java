@@ -0,0 +1,137 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.joshworks.stream.client.ws;
+
+import io.joshworks.stream.client.StreamClient;
+import io.undertow.Handlers;
+import io.undertow.Undertow;
+import io.undertow.websockets.core.AbstractReceiveListener;
+import io.undertow.websockets.core.BufferedBinaryMessage;
+import io.undertow.websockets.core.WebSocketChannel;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PingPongTest {
+
+    private static final int PORT = 9924;
+    private static final String URL = "ws://localhost:" + PORT;
+    private static final int PING_INTERVAL_MS = 50;
+    private static final int MAX_MISSED_PONGS = 3;
+
+    private static final AtomicInteger aliveConnections = new AtomicInteger();
+    private static final List<Long> deadConnections = new CopyOnWriteArrayList<>();
+    private static Undertow server;
+
+    @BeforeClass
+    public static void start() {
+        server = Undertow.builder()
+                .addHttpListener(PORT, "localhost")
+                .setHandler(Handlers.path()
+                        //the default listener answers every ping with a pong
+                        .addPrefixPath("/alive", Handlers.websocket((exchange, channel) -> {
+                            aliveConnections.incrementAndGet();
+                            channel.getReceiveSetter().set(new AbstractReceiveListener() {
+                            });
+                            channel.resumeReceives();
+                        }))
+                        //reads the pings but never answers them
+                        .addPrefixPath("/dead", Handlers.websocket((exchange, channel) -> {
+                            deadConnections.add(System.nanoTime());
+                            channel.getReceiveSetter().set(new AbstractReceiveListener() {
+                                @Override
+                                protected void onFullPingMessage(WebSocketChannel channel, BufferedBinaryMessage message) {
+                                    message.getData().free();
+                                }
+                            });
+                            channel.resumeReceives();
+                        })))
+                .build();
+        server.start();
+    }
+
+    @AfterClass
+    public static void stop() {
+        StreamClient.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void pongsRecordTheRoundTripTime() throws Exception {
+        BlockingQueue<Exception> errors = new LinkedBlockingQueue<>();
+        WsConnection connection = StreamClient.ws(URL + "/alive")
+                .ping(PING_INTERVAL_MS, TimeUnit.MILLISECONDS, MAX_MISSED_PONGS)
+                .onError((channel, error) -> errors.add(error))
+                .connect();
+
+        waitFor(() -> connection.roundTripTimes().count() >= MAX_MISSED_PONGS * 2);
+        assertTrue(connection.isOpen());
+        assertTrue(connection.roundTripTimes().max() < TimeUnit.SECONDS.toMicros(1));
+        //more pings than the limit went out, all answered, so the connection was never replaced
+        assertEquals(1, aliveConnections.get());
+        assertTrue(errors.isEmpty());
+
+        connection.close();
+    }
+
+    @Test
+    public void unansweredPingsTimeOutAndReconnect() throws Exception {
+        BlockingQueue<Exception> errors = new LinkedBlockingQueue<>();
+        WsConnection connection = StreamClient.ws(URL + "/dead")
+                .ping(PING_INTERVAL_MS, TimeUnit.MILLISECONDS, MAX_MISSED_PONGS)
+                .retryInterval(10)
+                .maxRetries(5)
+                .onError((channel, error) -> errors.add(error))
+                .connect();
+
+        Exception error = errors.poll(10, TimeUnit.SECONDS);
+        assertTrue(String.valueOf(error), error instanceof TimeoutException);
+        waitFor(() -> deadConnections.size() >= 2);
+
+        //the connection is only dropped once maxMissedPongs pings in a row went unanswered
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(deadConnections.get(1) - deadConnections.get(0));
+        assertTrue("Reconnected after " + elapsed + "ms", elapsed >= PING_INTERVAL_MS * MAX_MISSED_PONGS);
+        assertEquals(0, connection.roundTripTimes().count());
+
+        connection.close();
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.met()) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    private interface Condition {
+        boolean met();
+    }
+}
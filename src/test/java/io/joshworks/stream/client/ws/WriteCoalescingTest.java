@@ -0,0 +1,191 @@
+/*
+ * Copyright 2017 Josue Gontijo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.joshworks.stream.client.ws;
+
+import io.joshworks.stream.client.StreamClient;
+import io.undertow.Handlers;
+import io.undertow.Undertow;
+import io.undertow.websockets.core.AbstractReceiveListener;
+import io.undertow.websockets.core.BufferedTextMessage;
+import io.undertow.websockets.core.WebSocketChannel;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xnio.IoUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WriteCoalescingTest {
+
+    private static final int PORT = 9927;
+    private static final String URL = "ws://localhost:" + PORT;
+
+    private static final AtomicInteger connections = new AtomicInteger();
+    private static final BlockingQueue<String> received = new LinkedBlockingQueue<>(); //connection:message
+    private static volatile WebSocketChannel lastChannel;
+    private static Undertow server;
+
+    @BeforeClass
+    public static void start() {
+        server = Undertow.builder()
+                .addHttpListener(PORT, "localhost")
+                .setHandler(Handlers.websocket((exchange, channel) -> {
+                    int connection = connections.incrementAndGet();
+                    lastChannel = channel;
+                    channel.getReceiveSetter().set(new AbstractReceiveListener() {
+                        @Override
+                        protected void onFullTextMessage(WebSocketChannel channel, BufferedTextMessage message) {
+                            received.add(connection + ":" + message.getData());
+                        }
+                    });
+                    channel.resumeReceives();
+                }))
+                .build();
+        server.start();
+    }
+
+    @AfterClass
+    public static void stop() {
+        StreamClient.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void fullBatchesAreWrittenWithoutWaitingForTheLinger() throws Exception {
+        WsConnection connection = connect(StreamClient.ws(URL).coalesceWrites(10, 1, TimeUnit.HOURS));
+        int serverConnection = connections.get();
+
+        //queued before the IO thread writes any batch
+        connection.channel().getIoThread().execute(() -> {
+            for (int i = 0; i < 30; i++) {
+                connection.sendText("m" + i);
+            }
+        });
+
+        for (int i = 0; i < 30; i++) {
+            assertEquals(serverConnection + ":m" + i, received.poll(10, TimeUnit.SECONDS));
+        }
+        assertEquals(3, connection.coalescedBatches());
+
+        connection.close();
+    }
+
+    @Test
+    public void partialBatchIsWrittenAfterTheLinger() throws Exception {
+        WsConnection connection = connect(StreamClient.ws(URL).coalesceWrites(100, 300, TimeUnit.MILLISECONDS));
+        int serverConnection = connections.get();
+
+        for (int i = 0; i < 5; i++) {
+            connection.sendText("m" + i);
+        }
+        assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(0, connection.coalescedBatches());
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(serverConnection + ":m" + i, received.poll(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, connection.coalescedBatches());
+
+        connection.close();
+    }
+
+    @Test
+    public void messagesSentAfterAReconnectionGoToTheNewChannel() throws Exception {
+        WsConnection connection = connect(StreamClient.ws(URL)
+                .coalesceWrites(100, 300, TimeUnit.MILLISECONDS)
+                .retryInterval(10)
+                .maxRetries(3));
+        int first = connections.get();
+        WebSocketChannel firstChannel = connection.channel();
+
+        connection.sendText("before");
+        assertEquals(first + ":before", received.poll(10, TimeUnit.SECONDS));
+        assertEquals(1, connection.coalescedBatches());
+
+        //queued for the first channel, its linger ends after the server closed it
+        connection.sendText("lost");
+        IoUtils.safeClose(lastChannel);
+        waitFor(() -> connections.get() == first + 1 && connection.isOpen() && connection.channel() != firstChannel);
+
+        for (int i = 0; i < 5; i++) {
+            connection.sendText("m" + i);
+        }
+        for (int i = 0; i < 5; i++) {
+            String message = received.poll(10, TimeUnit.SECONDS);
+            assertNotEquals(first + ":lost", message);
+            assertEquals((first + 1) + ":m" + i, message);
+        }
+        assertEquals(2, connection.coalescedBatches());
+        assertNull(received.poll(500, TimeUnit.MILLISECONDS));
+
+        connection.close();
+    }
+
+    @Test
+    public void sendingWhileDisconnectedFailsTheSameWithOrWithoutCoalescing() throws Exception {
+        for (WsConfiguration configuration : new WsConfiguration[]{
+                StreamClient.ws(URL), StreamClient.ws(URL).coalesceWrites(100, 1, TimeUnit.MILLISECONDS)}) {
+            WsConnection connection = connect(configuration);
+            connection.sendText("h\u00e9llo");
+            assertEquals("h\u00e9llo".getBytes(StandardCharsets.UTF_8).length, connection.metrics().bytesOut());
+            connection.sendBinary(new byte[]{1, 2});
+            assertEquals(8, connection.metrics().bytesOut());
+            assertTrue(received.poll(10, TimeUnit.SECONDS).endsWith(":h\u00e9llo"));
+
+            connection.close();
+            try {
+                connection.sendText("closed");
+                fail("Sent while disconnected");
+            } catch (IllegalStateException expected) {
+                //not kept for a later connection
+            }
+            assertEquals(8, connection.metrics().bytesOut());
+        }
+    }
+
+    private static WsConnection connect(WsConfiguration configuration) throws InterruptedException {
+        received.clear();
+        int before = connections.get();
+        WsConnection connection = configuration.connect();
+        waitFor(() -> connections.get() > before && connection.isOpen());
+        return connection;
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.met()) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    private interface Condition {
+        boolean met();
+    }
+}